@@ -3,6 +3,7 @@ package SmartCard;
 import javacard.framework.*;
 import javacard.security.*;
 import javacardx.crypto.*;
+import javacardx.apdu.ExtendedLength;
 
 /**
  * GYM SMART CARD - PHASE 2: FULL SECURITY (FIXED)
@@ -25,7 +26,7 @@ import javacardx.crypto.*;
  * [35-50] PIN Hash (16 bytes) - SHA-256 truncated to 16 bytes
  * [51-63] Reserved zeros
  */
-public class SmartCard extends Applet {
+public class SmartCard extends Applet implements ExtendedLength {
     // Data offsets - FIXED
     private static final byte OFFSET_USER_ID = 0;
     private static final byte OFFSET_BALANCE = 2;           // Start of encrypted block
@@ -45,9 +46,58 @@ public class SmartCard extends Applet {
     private static final byte INS_CHANGE_PIN = (byte) 0x24;
     private static final byte INS_GET_PUBLIC_KEY = (byte) 0x82;
     private static final byte INS_SIGN_CHALLENGE = (byte) 0x88;
+    // ECDSA P-256 (6A81 on chips without EC; host then stays on RSA)
+    private static final byte INS_GET_EC_PUBLIC_KEY = (byte) 0x84;  // -> W (65, uncompressed)
+    private static final byte INS_EC_SIGN_CHALLENGE = (byte) 0x8A;  // challenge(32) -> DER ECDSA-SHA256
+    private static final byte KEY_ALG_RSA = 1;
+    private static final byte KEY_ALG_EC = 2;
     // Avatar APDUs
     private static final byte INS_AVATAR_WRITE = (byte) 0xC0;
     private static final byte INS_AVATAR_CLEAR = (byte) 0xC3;
+    private static final byte INS_AVATAR_INFO = (byte) 0xC4;    // -> length(2) + hash(8)
+    private static final byte INS_AVATAR_COMMIT = (byte) 0xC5;  // length(2) + hash(8)
+    private static final byte INS_AVATAR_READ = (byte) 0xC6;    // P1/P2 offset, Le up to the rest
+    private static final short AVATAR_HASH_SIZE = 8;
+    // Identification before PIN entry (GET DATA style)
+    private static final byte INS_IDENTIFY = (byte) 0xCA;       // -> userId(2) retry(1) keyFp(8) avatarInfo(10)
+    private static final short KEY_FINGERPRINT_SIZE = 8;
+    private static final short IDENTIFY_LENGTH = (short) (3 + KEY_FINGERPRINT_SIZE + 2 + AVATAR_HASH_SIZE + 1);
+
+    // secp256r1 domain parameters (not preset on JavaCard 3.0.x)
+    private static final byte[] P256_P = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x01, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF
+    };
+    private static final byte[] P256_A = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x01, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFC
+    };
+    private static final byte[] P256_B = {
+        (byte) 0x5A, (byte) 0xC6, (byte) 0x35, (byte) 0xD8, (byte) 0xAA, (byte) 0x3A, (byte) 0x93, (byte) 0xE7, (byte) 0xB3, (byte) 0xEB, (byte) 0xBD, (byte) 0x55, (byte) 0x76, (byte) 0x98, (byte) 0x86, (byte) 0xBC,
+        (byte) 0x65, (byte) 0x1D, (byte) 0x06, (byte) 0xB0, (byte) 0xCC, (byte) 0x53, (byte) 0xB0, (byte) 0xF6, (byte) 0x3B, (byte) 0xCE, (byte) 0x3C, (byte) 0x3E, (byte) 0x27, (byte) 0xD2, (byte) 0x60, (byte) 0x4B
+    };
+    private static final byte[] P256_G = {
+        (byte) 0x04, (byte) 0x6B, (byte) 0x17, (byte) 0xD1, (byte) 0xF2, (byte) 0xE1, (byte) 0x2C, (byte) 0x42, (byte) 0x47, (byte) 0xF8, (byte) 0xBC, (byte) 0xE6, (byte) 0xE5, (byte) 0x63, (byte) 0xA4, (byte) 0x40,
+        (byte) 0xF2, (byte) 0x77, (byte) 0x03, (byte) 0x7D, (byte) 0x81, (byte) 0x2D, (byte) 0xEB, (byte) 0x33, (byte) 0xA0, (byte) 0xF4, (byte) 0xA1, (byte) 0x39, (byte) 0x45, (byte) 0xD8, (byte) 0x98, (byte) 0xC2,
+        (byte) 0x96, (byte) 0x4F, (byte) 0xE3, (byte) 0x42, (byte) 0xE2, (byte) 0xFE, (byte) 0x1A, (byte) 0x7F, (byte) 0x9B, (byte) 0x8E, (byte) 0xE7, (byte) 0xEB, (byte) 0x4A, (byte) 0x7C, (byte) 0x0F, (byte) 0x9E,
+        (byte) 0x16, (byte) 0x2B, (byte) 0xCE, (byte) 0x33, (byte) 0x57, (byte) 0x6B, (byte) 0x31, (byte) 0x5E, (byte) 0xCE, (byte) 0xCB, (byte) 0xB6, (byte) 0x40, (byte) 0x68, (byte) 0x37, (byte) 0xBF, (byte) 0x51,
+        (byte) 0xF5
+    };
+    private static final byte[] P256_N = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xBC, (byte) 0xE6, (byte) 0xFA, (byte) 0xAD, (byte) 0xA7, (byte) 0x17, (byte) 0x9E, (byte) 0x84, (byte) 0xF3, (byte) 0xB9, (byte) 0xCA, (byte) 0xC2, (byte) 0xFC, (byte) 0x63, (byte) 0x25, (byte) 0x51
+    };
+    
+    // Balance instructions (PIN verified; adjust the encrypted block on card)
+    private static final byte INS_DEBIT = (byte) 0xE0;    // amount(4) [+ addDays(2)]
+    private static final byte INS_CREDIT = (byte) 0xE2;   // amount(4)
+    private static final byte INS_CHECKIN = (byte) 0xE4;  // expiryDays - 1
+    private static final short SW_INSUFFICIENT = (short) 0x6985; // not enough balance / expired
+    // Offsets inside the decrypted 48-byte block
+    private static final short PLAIN_BALANCE = 0;
+    private static final short PLAIN_EXPIRY = 4;
+    // tempBuffer[32..79] holds the decrypted block during an update
+    private static final short TEMP_PLAIN = 32;
     
     // Admin Instructions (no PIN required)
     private static final byte INS_ADMIN_UNLOCK = (byte) 0xAA;  // Reset retry counter
@@ -62,13 +112,23 @@ public class SmartCard extends Applet {
     private MessageDigest sha256;
     private KeyPair rsaKeyPair;
     private Signature rsaSignature;
+    // With EC available, the RSA pair is only regenerated when a host still asks for it
+    private boolean rsaKeyStale;
+    private KeyPair ecKeyPair;          // null if the chip has no EC support
+    private Signature ecSignature;
+    // SHA-256 prefix of the preferred public key (EC W, else RSA modulus || exponent); recomputed after keygen
+    private byte[] keyFingerprint;
+    private boolean keyFingerprintValid;
     
-    // Transient data
-    private boolean pinVerified;
+    // Transient data (CLEAR_ON_DESELECT: a reset or reselect ends the PIN session)
+    private boolean[] pinVerified;      // [0]: PIN verified in this session
+    private byte[] plainBlock;          // decrypted 48-byte block while pinVerified[0]
     private byte[] tempBuffer;
     private byte[] avatarStore;
     private short avatarLength;
     private static final short MAX_AVATAR_SIZE = (short) 4096; // 4KB
+    // Version of the stored avatar: length(2) + host SHA-256 prefix(8); length 0 = none committed
+    private byte[] avatarInfo;
     
     public static void install(byte[] bArray, short bOffset, byte bLength) {
         new SmartCard().register(bArray, (short) (bOffset + 1), bArray[bOffset]);
@@ -77,31 +137,75 @@ public class SmartCard extends Applet {
     public SmartCard() {
         cardData = new byte[DATA_SIZE];
         tempBuffer = JCSystem.makeTransientByteArray((short) 80, JCSystem.CLEAR_ON_DESELECT);
+        pinVerified = JCSystem.makeTransientBooleanArray((short) 1, JCSystem.CLEAR_ON_DESELECT);
+        plainBlock = JCSystem.makeTransientByteArray((short) ENC_BLOCK_LEN, JCSystem.CLEAR_ON_DESELECT);
         avatarStore = new byte[MAX_AVATAR_SIZE];
         avatarLength = 0;
+        avatarInfo = new byte[(short) (2 + AVATAR_HASH_SIZE)];
+        keyFingerprint = new byte[KEY_FINGERPRINT_SIZE];
         
         Util.arrayFillNonAtomic(cardData, (short) 0, DATA_SIZE, (byte) 0x00);
         cardData[OFFSET_PIN_RETRY] = MAX_PIN_RETRY;
         
         initCrypto();
-        pinVerified = false;
     }
     
     private void initCrypto() {
         try {
-            aesKey = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128, false);
+            // Session key lives in RAM: no EEPROM write per VERIFY, gone on deselect
+            aesKey = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES_TRANSIENT_DESELECT, KeyBuilder.LENGTH_AES_128, false);
             aesCipher = Cipher.getInstance(Cipher.ALG_AES_BLOCK_128_ECB_NOPAD, false);
             sha256 = MessageDigest.getInstance(MessageDigest.ALG_SHA_256, false);
             
             rsaKeyPair = new KeyPair(KeyPair.ALG_RSA, KeyBuilder.LENGTH_RSA_1024);
-            rsaKeyPair.genKeyPair();
-            
             rsaSignature = Signature.getInstance(Signature.ALG_RSA_SHA_PKCS1, false);
-            rsaSignature.init(rsaKeyPair.getPrivate(), Signature.MODE_SIGN);
             
         } catch (CryptoException e) {
             ISOException.throwIt(ISO7816.SW_FILE_INVALID);
         }
+        initEcCrypto();
+        if (ecKeyPair != null) {
+            ecKeyPair.genKeyPair();
+            rsaKeyStale = true;
+        } else {
+            generateRsaKey();
+        }
+    }
+    
+    private void initEcCrypto() {
+        try {
+            ecKeyPair = new KeyPair(KeyPair.ALG_EC_FP, KeyBuilder.LENGTH_EC_FP_256);
+            ECPrivateKey priv = (ECPrivateKey) ecKeyPair.getPrivate();
+            ECPublicKey pub = (ECPublicKey) ecKeyPair.getPublic();
+            setP256(priv);
+            setP256(pub);
+            ecSignature = Signature.getInstance(Signature.ALG_ECDSA_SHA_256, false);
+        } catch (CryptoException e) {
+            ecKeyPair = null;
+            ecSignature = null;
+        }
+    }
+    
+    private static void setP256(ECKey key) {
+        key.setFieldFP(P256_P, (short) 0, (short) P256_P.length);
+        key.setA(P256_A, (short) 0, (short) P256_A.length);
+        key.setB(P256_B, (short) 0, (short) P256_B.length);
+        key.setG(P256_G, (short) 0, (short) P256_G.length);
+        key.setR(P256_N, (short) 0, (short) P256_N.length);
+        key.setK((short) 1);
+    }
+    
+    private void generateRsaKey() {
+        rsaKeyPair.genKeyPair();
+        rsaSignature.init(rsaKeyPair.getPrivate(), Signature.MODE_SIGN);
+        rsaKeyStale = false;
+    }
+    
+    /** RSA pair for GET PUBLIC KEY / SIGN CHALLENGE; generated now if a reset left it stale. */
+    private void ensureRsaKey() {
+        if (rsaKeyStale) {
+            generateRsaKey();
+        }
     }
     
     private void deriveAESKeyFromPIN(byte[] pinBytes, short offset, short length) {
@@ -112,6 +216,13 @@ public class SmartCard extends Applet {
         aesKey.setKey(tempBuffer, (short) 0);
     }
     
+    /** Drop the PIN session: verified flag, session key and decrypted block. */
+    private void endSession() {
+        pinVerified[0] = false;
+        aesKey.clearKey();
+        Util.arrayFillNonAtomic(plainBlock, (short) 0, ENC_BLOCK_LEN, (byte) 0x00);
+    }
+    
     private void hashPIN(byte[] pinBytes, short pinOffset, short pinLength, byte[] output, short offset) {
         // Hash PIN using SHA-256 over PIN byte array (6 ASCII digits), store first 16 bytes (layout constraint)
         sha256.reset();
@@ -144,12 +255,35 @@ public class SmartCard extends Applet {
             case INS_SIGN_CHALLENGE:
                 handleSignChallenge(apdu);
                 break;
+            case INS_IDENTIFY:
+                handleIdentify(apdu);
+                break;
+            case INS_GET_EC_PUBLIC_KEY:
+                handleGetEcPublicKey(apdu);
+                break;
+            case INS_EC_SIGN_CHALLENGE:
+                handleEcSignChallenge(apdu);
+                break;
             case INS_AVATAR_WRITE:
                 handleAvatarWrite(apdu);
                 break;
+            case INS_DEBIT:
+            case INS_CREDIT:
+            case INS_CHECKIN:
+                handleBalanceUpdate(apdu, ins);
+                break;
             case INS_AVATAR_CLEAR:
                 handleAvatarClear(apdu);
                 break;
+            case INS_AVATAR_INFO:
+                handleAvatarInfo(apdu);
+                break;
+            case INS_AVATAR_COMMIT:
+                handleAvatarCommit(apdu);
+                break;
+            case INS_AVATAR_READ:
+                handleAvatarRead(apdu);
+                break;
             // No dedicated CCCD write; CCCD is inside the 48-byte encrypted block
             case INS_ADMIN_UNLOCK:
                 handleAdminUnlock(apdu);
@@ -183,7 +317,7 @@ public class SmartCard extends Applet {
         boolean isResetting = (buf[ISO7816.OFFSET_CDATA] == 0) && 
                               (buf[ISO7816.OFFSET_CDATA + 1] == 0);
         
-        if (!isBlankCard && !pinVerified && !isResetting) {
+        if (!isBlankCard && !pinVerified[0] && !isResetting) {
             ISOException.throwIt(ISO7816.SW_SECURITY_STATUS_NOT_SATISFIED);
         }
         
@@ -198,14 +332,21 @@ public class SmartCard extends Applet {
         Util.arrayCopyNonAtomic(buf, (short)(ISO7816.OFFSET_CDATA + OFFSET_PIN_HASH), cardData, OFFSET_PIN_HASH, (short) 16);
         // Reserved [67-79] remain zeros
         
-        // ✅ Generate new RSA keypair when creating/resetting card
-        // This ensures each card has unique RSA identity
+        // ✅ New key identity when creating/resetting card.
+        // EC P-256 generation takes a fraction of RSA-1024's; with EC the RSA
+        // pair is regenerated lazily, only if a host still uses RSA.
         if (isBlankCard || isResetting) {
-            rsaKeyPair.genKeyPair();
-            rsaSignature.init(rsaKeyPair.getPrivate(), Signature.MODE_SIGN);
+            if (ecKeyPair != null) {
+                ecKeyPair.genKeyPair();
+                rsaKeyStale = true;
+            } else {
+                generateRsaKey();
+            }
+            keyFingerprintValid = false;
         }
         
-        pinVerified = false;
+        // The new block is encrypted by the host; the session copy is stale
+        endSession();
     }
     
     private void handleVerifyPIN(APDU apdu) {
@@ -232,30 +373,31 @@ public class SmartCard extends Applet {
         }
         
         if (match) {
-            pinVerified = true;
-            cardData[OFFSET_PIN_RETRY] = MAX_PIN_RETRY;
-            deriveAESKeyFromPIN(buf, ISO7816.OFFSET_CDATA, (short) 6);
-
-            // Decrypt the 32-byte encrypted block before returning
-            aesCipher.init(aesKey, Cipher.MODE_DECRYPT);
-            aesCipher.doFinal(cardData, OFFSET_BALANCE, ENC_BLOCK_LEN, tempBuffer, (short) 0);
+            if (cardData[OFFSET_PIN_RETRY] != MAX_PIN_RETRY) {
+                cardData[OFFSET_PIN_RETRY] = MAX_PIN_RETRY;
+            }
+            // Same PIN again in this session: key and plainBlock are already current
+            if (!pinVerified[0]) {
+                deriveAESKeyFromPIN(buf, ISO7816.OFFSET_CDATA, (short) 6);
+                aesCipher.init(aesKey, Cipher.MODE_DECRYPT);
+                aesCipher.doFinal(cardData, OFFSET_BALANCE, ENC_BLOCK_LEN, plainBlock, (short) 0);
+                pinVerified[0] = true;
+            }
 
-            // Copy all card data to buffer
+            // Card image with the encrypted block replaced by the session copy
             Util.arrayCopyNonAtomic(cardData, (short) 0, buf, (short) 0, DATA_SIZE);
-
-            // Replace encrypted block with decrypted data
-            Util.arrayCopyNonAtomic(tempBuffer, (short) 0, buf, OFFSET_BALANCE, ENC_BLOCK_LEN);
+            Util.arrayCopyNonAtomic(plainBlock, (short) 0, buf, OFFSET_BALANCE, ENC_BLOCK_LEN);
             
             apdu.setOutgoingAndSend((short) 0, DATA_SIZE);
         } else {
             cardData[OFFSET_PIN_RETRY]--;
-            pinVerified = false;
+            endSession();
             ISOException.throwIt((short)(0x63C0 | cardData[OFFSET_PIN_RETRY]));
         }
     }
     
     private void handleChangePIN(APDU apdu) {
-        if (!pinVerified) {
+        if (!pinVerified[0]) {
             ISOException.throwIt(ISO7816.SW_SECURITY_STATUS_NOT_SATISFIED);
         }
         
@@ -282,34 +424,30 @@ public class SmartCard extends Applet {
         
         if (!match) {
             cardData[OFFSET_PIN_RETRY]--;
-            pinVerified = false;
+            endSession();
             ISOException.throwIt((short)(0x63C0 | cardData[OFFSET_PIN_RETRY]));
         }
         
         // ✅ RE-ENCRYPT 48-byte sensitive block with NEW PIN
-        // 1. Decrypt with OLD PIN
-        // tempBuffer[0..31]: Used by deriveAESKeyFromPIN (SHA-256 output)
-        // tempBuffer[32..79]: Safe zone for decrypted data (48 bytes)
-        deriveAESKeyFromPIN(buf, oldPinOffset, (short) 6);
-        aesCipher.init(aesKey, Cipher.MODE_DECRYPT);
-        aesCipher.doFinal(cardData, OFFSET_BALANCE, ENC_BLOCK_LEN, tempBuffer, (short) 32);
-
-        // 2. Encrypt with NEW PIN (key derivation writes to tempBuffer[0..31], safe)
+        // The plaintext is the session copy from VERIFY: no old-key derive/decrypt.
+        // tempBuffer[0..31]: SHA-256 output (key derivation, PIN hash)
+        // tempBuffer[32..79]: new ciphertext (48 bytes)
         deriveAESKeyFromPIN(buf, newPinOffset, (short) 6);
         aesCipher.init(aesKey, Cipher.MODE_ENCRYPT);
-        aesCipher.doFinal(tempBuffer, (short) 32, ENC_BLOCK_LEN, cardData, OFFSET_BALANCE);
-        
-        // 3. Update PIN hash - hash to tempBuffer[0..15] then copy to card [35..50]
+        aesCipher.doFinal(plainBlock, (short) 0, ENC_BLOCK_LEN, tempBuffer, TEMP_PLAIN);
         hashPIN(buf, newPinOffset, (short) 6, tempBuffer, (short) 0);
-        Util.arrayCopyNonAtomic(tempBuffer, (short) 0, cardData, OFFSET_PIN_HASH, PIN_HASH_SIZE);
+
+        // Block and PIN hash change together, or not at all
+        JCSystem.beginTransaction();
+        Util.arrayCopy(tempBuffer, TEMP_PLAIN, cardData, OFFSET_BALANCE, ENC_BLOCK_LEN);
+        Util.arrayCopy(tempBuffer, (short) 0, cardData, OFFSET_PIN_HASH, PIN_HASH_SIZE);
+        JCSystem.commitTransaction();
         
-        // Giữ session hợp lệ với PIN mới
-        // aesKey đã được derive từ newPin ở bước 2
-        // pinVerified vẫn = true, không cần reset
-        // pinVerified = false; 
+        // Session stays valid under the new PIN: aesKey is the new key, plainBlock unchanged
     }
     
     private void handleGetPublicKey(APDU apdu) {
+        ensureRsaKey();
         RSAPublicKey pubKey = (RSAPublicKey) rsaKeyPair.getPublic();
         
         byte[] buf = apdu.getBuffer();
@@ -326,6 +464,68 @@ public class SmartCard extends Applet {
         JCSystem.requestObjectDeletion();
     }
     
+    /**
+     * IDENTIFY - everything a reader needs before PIN entry, in one short APDU.
+     * Command: 00 CA 00 00 16
+     * Response: userId(2) pinRetry(1) keyFingerprint(8) avatarLength(2) avatarHash(8) keyAlg(1)
+     * keyAlg: 1 = RSA-1024, 2 = EC P-256 (the key the fingerprint covers)
+     */
+    private void handleIdentify(APDU apdu) {
+        byte[] buf = apdu.getBuffer();
+        if (!keyFingerprintValid) {
+            // Once per key pair; the APDU buffer holds the encoded public key meanwhile
+            short len;
+            if (ecKeyPair != null) {
+                len = ((ECPublicKey) ecKeyPair.getPublic()).getW(buf, (short) 0);
+            } else {
+                RSAPublicKey pubKey = (RSAPublicKey) rsaKeyPair.getPublic();
+                len = pubKey.getModulus(buf, (short) 0);
+                len += pubKey.getExponent(buf, len);
+            }
+            sha256.reset();
+            sha256.doFinal(buf, (short) 0, len, tempBuffer, (short) 0);
+            Util.arrayCopy(tempBuffer, (short) 0, keyFingerprint, (short) 0, KEY_FINGERPRINT_SIZE);
+            keyFingerprintValid = true;
+        }
+        Util.arrayCopyNonAtomic(cardData, OFFSET_USER_ID, buf, (short) 0, (short) 2);
+        buf[2] = cardData[OFFSET_PIN_RETRY];
+        Util.arrayCopyNonAtomic(keyFingerprint, (short) 0, buf, (short) 3, KEY_FINGERPRINT_SIZE);
+        Util.arrayCopyNonAtomic(avatarInfo, (short) 0, buf, (short) (3 + KEY_FINGERPRINT_SIZE), (short) avatarInfo.length);
+        buf[(short) (IDENTIFY_LENGTH - 1)] = ecKeyPair != null ? KEY_ALG_EC : KEY_ALG_RSA;
+        apdu.setOutgoingAndSend((short) 0, IDENTIFY_LENGTH);
+    }
+
+    /**
+     * GET EC PUBLIC KEY - Command: 00 84 00 00 41
+     * Response: W = 04 || X(32) || Y(32); 6A81 if the chip has no EC.
+     */
+    private void handleGetEcPublicKey(APDU apdu) {
+        if (ecKeyPair == null) {
+            ISOException.throwIt(ISO7816.SW_FUNC_NOT_SUPPORTED);
+        }
+        byte[] buf = apdu.getBuffer();
+        short len = ((ECPublicKey) ecKeyPair.getPublic()).getW(buf, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    /**
+     * EC SIGN CHALLENGE - Command: 00 8A 00 00 20 [challenge 32B]
+     * Response: DER ECDSA-SHA256 signature (70-72 bytes); 6A81 without EC.
+     */
+    private void handleEcSignChallenge(APDU apdu) {
+        if (ecKeyPair == null) {
+            ISOException.throwIt(ISO7816.SW_FUNC_NOT_SUPPORTED);
+        }
+        byte[] buf = apdu.getBuffer();
+        short lc = apdu.setIncomingAndReceive();
+        if (lc != 32) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+        ecSignature.init(ecKeyPair.getPrivate(), Signature.MODE_SIGN);
+        short sigLen = ecSignature.sign(buf, ISO7816.OFFSET_CDATA, lc, buf, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, sigLen);
+    }
+    
     private void handleSignChallenge(APDU apdu) {
         byte[] buf = apdu.getBuffer();
         short lc = apdu.setIncomingAndReceive();
@@ -334,6 +534,7 @@ public class SmartCard extends Applet {
             ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
         }
         
+        ensureRsaKey();
         rsaSignature.sign(buf, ISO7816.OFFSET_CDATA, lc, buf, (short) 0);
         apdu.setOutgoingAndSend((short) 0, (short) 128);
         // Hint GC to collect any temporary objects if needed
@@ -382,34 +583,184 @@ public class SmartCard extends Applet {
 
         // Lưu ý: Khối dữ liệu mã hóa [2-33] vẫn đang mã hóa bằng PIN cũ.
         // Desktop app phải ghi đè dữ liệu hợp lệ ngay sau lệnh này.
+        // Session (if any) belongs to the old PIN
+        endSession();
     }
 
     /**
      * Write avatar chunk into EEPROM storage.
-     * P1/P2: offset (big-endian). LC: chunk size. CDATA: chunk bytes.
+     * P1/P2: offset (big-endian). LC: chunk size, short or extended (up to
+     * MAX_AVATAR_SIZE, so the whole image fits in one APDU). CDATA: chunk bytes.
+     * Extended data larger than the APDU buffer is received in pieces.
      */
     private void handleAvatarWrite(APDU apdu) {
         byte[] buf = apdu.getBuffer();
-        short lc = apdu.setIncomingAndReceive();
+        short received = apdu.setIncomingAndReceive();
+        short lc = apdu.getIncomingLength();
+        short dataOffset = apdu.getOffsetCdata();
         short offset = Util.getShort(buf, ISO7816.OFFSET_P1);
-        if (lc <= 0) {
+        if (lc <= 0 || offset < 0) {
             ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
         }
-        short end = (short) (offset + lc);
-        if (end > MAX_AVATAR_SIZE) {
+        if (offset > (short) (MAX_AVATAR_SIZE - lc)) {
             ISOException.throwIt(ISO7816.SW_FILE_FULL);
         }
-        // Store avatar in plaintext (non-sensitive); fast and simple
-        Util.arrayCopy(buf, ISO7816.OFFSET_CDATA, avatarStore, offset, lc);
-        if (end > avatarLength) avatarLength = end;
+        // Any write makes the committed hash stale until the next COMMIT
+        Util.setShort(avatarInfo, (short) 0, (short) 0);
+        // Store avatar in plaintext (non-sensitive); a torn write is simply re-sent
+        short pos = offset;
+        while (received > 0) {
+            Util.arrayCopyNonAtomic(buf, dataOffset, avatarStore, pos, received);
+            pos += received;
+            received = apdu.receiveBytes(dataOffset);
+        }
+        if (pos > avatarLength) avatarLength = pos;
     }
 
     /**
-     * Clear avatar storage
+     * Clear avatar storage (only the part written so far)
      */
     private void handleAvatarClear(APDU apdu) {
-        Util.arrayFillNonAtomic(avatarStore, (short)0, MAX_AVATAR_SIZE, (byte)0x00);
+        if (avatarLength > 0) {
+            Util.arrayFillNonAtomic(avatarStore, (short)0, avatarLength, (byte)0x00);
+        }
         avatarLength = 0;
+        Util.arrayFillNonAtomic(avatarInfo, (short) 0, (short) avatarInfo.length, (byte) 0x00);
+    }
+
+    /**
+     * Version of the stored avatar: length(2) + hash(8) as given at COMMIT.
+     * Length 0 when no avatar was committed since the last WRITE/CLEAR.
+     */
+    private void handleAvatarInfo(APDU apdu) {
+        byte[] buf = apdu.getBuffer();
+        Util.arrayCopyNonAtomic(avatarInfo, (short) 0, buf, (short) 0, (short) avatarInfo.length);
+        apdu.setOutgoingAndSend((short) 0, (short) avatarInfo.length);
+    }
+
+    /**
+     * Read avatar bytes from offset P1/P2. Returns min(Le, rest of the avatar);
+     * an extended Le gets the whole image in one response. 6B00 past the end.
+     */
+    private void handleAvatarRead(APDU apdu) {
+        byte[] buf = apdu.getBuffer();
+        short offset = Util.getShort(buf, ISO7816.OFFSET_P1);
+        if (offset < 0 || offset >= avatarLength) {
+            ISOException.throwIt(ISO7816.SW_WRONG_P1P2);
+        }
+        short le = apdu.setOutgoing();
+        short len = (short) (avatarLength - offset);
+        if (le > 0 && le < len) len = le;
+        apdu.setOutgoingLength(len);
+        apdu.sendBytesLong(avatarStore, offset, len);
+    }
+
+    /**
+     * Record the hash of the avatar just written. The length must match the
+     * bytes actually stored, otherwise 6A80.
+     */
+    private void handleAvatarCommit(APDU apdu) {
+        byte[] buf = apdu.getBuffer();
+        short lc = apdu.setIncomingAndReceive();
+        if (lc != (short) avatarInfo.length) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+        short length = Util.getShort(buf, ISO7816.OFFSET_CDATA);
+        if (length <= 0 || length != avatarLength) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+        }
+        Util.arrayCopy(buf, ISO7816.OFFSET_CDATA, avatarInfo, (short) 0, lc);
+    }
+
+    /**
+     * DEBIT / CREDIT / CHECKIN - change balance or expiryDays in place.
+     * Requires a verified PIN; works on the session copy of the block
+     * (plainBlock) and aesKey from VERIFY / CHANGE PIN, so neither the host nor
+     * the card re-derives a key or decrypts; only the result is re-encrypted.
+     * DEBIT:   00 E0 00 00 04|06 [amount(4)] [addDays(2)]   (purchase, renew)
+     * CREDIT:  00 E2 00 00 04 [amount(4)]                  (top-up)
+     * CHECKIN: 00 E4 00 00                                 (expiryDays - 1)
+     * Response: balance(4) expiryDays(2), 90 00
+     * SW 6985: balance too low (DEBIT) or card expired (CHECKIN).
+     * The block is updated on a copy and committed in one transaction, so a
+     * card pulled mid-command keeps either the old or the new block.
+     */
+    private void handleBalanceUpdate(APDU apdu, byte ins) {
+        if (!pinVerified[0]) {
+            ISOException.throwIt(ISO7816.SW_SECURITY_STATUS_NOT_SATISFIED);
+        }
+        byte[] buf = apdu.getBuffer();
+        short lc = apdu.setIncomingAndReceive();
+        if ((ins == INS_DEBIT && lc != 4 && lc != 6)
+                || (ins == INS_CREDIT && lc != 4)
+                || (ins == INS_CHECKIN && lc != 0)) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+
+        Util.arrayCopyNonAtomic(plainBlock, (short) 0, tempBuffer, TEMP_PLAIN, ENC_BLOCK_LEN);
+        short balanceOff = (short) (TEMP_PLAIN + PLAIN_BALANCE);
+        short expiryOff = (short) (TEMP_PLAIN + PLAIN_EXPIRY);
+        short expiry = Util.getShort(tempBuffer, expiryOff);
+
+        if (ins == INS_DEBIT) {
+            if (sub32(tempBuffer, balanceOff, buf, ISO7816.OFFSET_CDATA)) {
+                ISOException.throwIt(SW_INSUFFICIENT);
+            }
+            if (lc == 6) {
+                short addDays = Util.getShort(buf, (short) (ISO7816.OFFSET_CDATA + 4));
+                short newExpiry = (short) (expiry + addDays);
+                if (addDays < 0 || newExpiry < expiry) {
+                    ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+                }
+                expiry = newExpiry;
+            }
+        } else if (ins == INS_CREDIT) {
+            if (add32(tempBuffer, balanceOff, buf, ISO7816.OFFSET_CDATA) || tempBuffer[balanceOff] < 0) {
+                ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+            }
+        } else {
+            if (expiry <= 0) {
+                ISOException.throwIt(SW_INSUFFICIENT);
+            }
+            expiry--;
+        }
+        Util.setShort(tempBuffer, expiryOff, expiry);
+
+        // Response before the plaintext is overwritten by encryption
+        Util.arrayCopyNonAtomic(tempBuffer, balanceOff, buf, (short) 0, (short) 4);
+        Util.setShort(buf, (short) 4, expiry);
+
+        aesCipher.init(aesKey, Cipher.MODE_ENCRYPT);
+        aesCipher.doFinal(tempBuffer, TEMP_PLAIN, ENC_BLOCK_LEN, tempBuffer, TEMP_PLAIN);
+        JCSystem.beginTransaction();
+        Util.arrayCopy(tempBuffer, TEMP_PLAIN, cardData, OFFSET_BALANCE, ENC_BLOCK_LEN);
+        JCSystem.commitTransaction();
+        // Committed: bring the session copy up to date from the response
+        Util.arrayCopyNonAtomic(buf, (short) 0, plainBlock, PLAIN_BALANCE, (short) 6);
+
+        apdu.setOutgoingAndSend((short) 0, (short) 6);
+    }
+
+    /** a[aOff..aOff+3] += b[bOff..bOff+3], unsigned big-endian; true on carry out. */
+    private static boolean add32(byte[] a, short aOff, byte[] b, short bOff) {
+        short carry = 0;
+        for (short i = 3; i >= 0; i--) {
+            short sum = (short) ((a[(short) (aOff + i)] & 0xFF) + (b[(short) (bOff + i)] & 0xFF) + carry);
+            a[(short) (aOff + i)] = (byte) sum;
+            carry = (short) ((sum >> 8) & 1);
+        }
+        return carry != 0;
+    }
+
+    /** a[aOff..aOff+3] -= b[bOff..bOff+3], unsigned big-endian; true on borrow (b > a). */
+    private static boolean sub32(byte[] a, short aOff, byte[] b, short bOff) {
+        short borrow = 0;
+        for (short i = 3; i >= 0; i--) {
+            short diff = (short) ((a[(short) (aOff + i)] & 0xFF) - (b[(short) (bOff + i)] & 0xFF) - borrow);
+            a[(short) (aOff + i)] = (byte) diff;
+            borrow = (short) (diff < 0 ? 1 : 0);
+        }
+        return borrow != 0;
     }
 
     // CCCD is included within the main encrypted block; no separate handler
@@ -0,0 +1,167 @@
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Non-blocking APDU API for one reader.
+ *
+ * Commands and scripts are queued on the ReaderStation's worker, so they are
+ * serialized per reader and never run on the caller's thread (in particular
+ * never on the EDT). Each call returns a CompletableFuture:
+ * - cancelling it before the command reaches the card skips the command;
+ * - the timeout (default -Dgym.card.timeoutMs, 5000) counts from the moment
+ *   the worker starts the job, not from when it was queued.
+ * Reads ({@link #submit}, {@link #transmit}, {@link #runScript}) fail with
+ * TimeoutException when it expires. A card exchange cannot be interrupted,
+ * so the session is marked stale and the next command reconnects.
+ * Commands that change card state go through {@link #submitUpdate}: a DEBIT,
+ * CREDIT or WRITE that is slow may still commit on the card, so its future
+ * is never failed by the timer. It completes with the card's answer however
+ * late, and the caller's normal path (DB ledger, emergency log) runs then.
+ * The session is (re)established before every queued job.
+ */
+public final class AsyncCardChannel {
+    private static final long DEFAULT_TIMEOUT_MS = Long.getLong("gym.card.timeoutMs", 5000L);
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "card-timeouts");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Body of a queued job; runs on the reader worker with an established session. */
+    public interface CardWork<T> {
+        T run(CardSession session) throws Exception;
+    }
+
+    private final ReaderStation station;
+
+    AsyncCardChannel(ReaderStation station) {
+        this.station = station;
+    }
+
+    public CompletableFuture<ResponseAPDU> transmit(CommandAPDU cmd) {
+        return transmit(cmd, DEFAULT_TIMEOUT_MS);
+    }
+
+    public CompletableFuture<ResponseAPDU> transmit(CommandAPDU cmd, long timeoutMs) {
+        return submit(session -> session.transmit(cmd), timeoutMs);
+    }
+
+    /**
+     * Send commands in order as one job (nothing else on this reader runs in
+     * between). Stops after the first response whose SW is not 9000; the
+     * result holds the responses received so far, the last one being the
+     * failing one in that case.
+     */
+    public CompletableFuture<List<ResponseAPDU>> runScript(CommandAPDU... cmds) {
+        return runScript(Arrays.asList(cmds), DEFAULT_TIMEOUT_MS * Math.max(1, cmds.length));
+    }
+
+    public CompletableFuture<List<ResponseAPDU>> runScript(List<CommandAPDU> cmds, long timeoutMs) {
+        return submit(script(cmds), timeoutMs);
+    }
+
+    /** {@link #runScript(CommandAPDU...)} for scripts that change card state (see {@link #submitUpdate}). */
+    public CompletableFuture<List<ResponseAPDU>> runUpdateScript(Runnable onSlow, CommandAPDU... cmds) {
+        return submitUpdate(script(Arrays.asList(cmds)), DEFAULT_TIMEOUT_MS * Math.max(1, cmds.length), onSlow);
+    }
+
+    private static CardWork<List<ResponseAPDU>> script(List<CommandAPDU> cmds) {
+        return session -> {
+            List<ResponseAPDU> responses = new ArrayList<>(cmds.size());
+            for (CommandAPDU cmd : cmds) {
+                ResponseAPDU resp = session.transmit(cmd);
+                responses.add(resp);
+                if (resp.getSW() != 0x9000) break;
+            }
+            return responses;
+        };
+    }
+
+    /** Queue arbitrary card work (e.g. a flow with host-side logic between APDUs). */
+    public <T> CompletableFuture<T> submit(CardWork<T> work) {
+        return submit(work, DEFAULT_TIMEOUT_MS);
+    }
+
+    public <T> CompletableFuture<T> submit(CardWork<T> work, long timeoutMs) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        enqueue(work, future, timeoutMs, () -> {
+            if (future.completeExceptionally(new TimeoutException("Card did not answer within " + timeoutMs + " ms"))) {
+                station.session().markStale();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Queue work that changes card state. The future is never failed by the
+     * timer, and cannot be cancelled once the job has started, because the
+     * card may still commit: it completes with the card's answer or error.
+     * If that takes longer than {@code timeoutMs}, {@code onSlow} runs once
+     * (on the timer thread) so the UI can say it is still waiting.
+     */
+    public <T> CompletableFuture<T> submitUpdate(CardWork<T> work, long timeoutMs, Runnable onSlow) {
+        UpdateFuture<T> future = new UpdateFuture<>();
+        enqueue(work, future, timeoutMs, () -> {
+            if (!future.isDone() && onSlow != null) onSlow.run();
+        });
+        return future;
+    }
+
+    public <T> CompletableFuture<T> submitUpdate(CardWork<T> work, Runnable onSlow) {
+        return submitUpdate(work, DEFAULT_TIMEOUT_MS, onSlow);
+    }
+
+    private <T> void enqueue(CardWork<T> work, CompletableFuture<T> future, long timeoutMs, Runnable onTimeout) {
+        station.execute(() -> {
+            if (future instanceof UpdateFuture) {
+                if (!((UpdateFuture<T>) future).start()) return; // cancelled while queued
+            } else if (future.isDone()) {
+                return; // cancelled while queued
+            }
+            ScheduledFuture<?> timeout = TIMER.schedule(onTimeout, timeoutMs, TimeUnit.MILLISECONDS);
+            try {
+                CardSession session = station.session();
+                session.ensureSession();
+                future.complete(work.run(session));
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            } finally {
+                timeout.cancel(false);
+            }
+        });
+    }
+
+    /** Future of a state-changing job: cancel() only succeeds before the worker starts it. */
+    private static final class UpdateFuture<T> extends CompletableFuture<T> {
+        private boolean started;
+
+        synchronized boolean start() {
+            if (isDone()) return false;
+            started = true;
+            return true;
+        }
+
+        @Override
+        public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+            return !started && super.cancel(mayInterruptIfRunning);
+        }
+    }
+
+    /** Unwrap CompletionException; maps cancellation to a readable message. */
+    public static Throwable rootCause(Throwable t) {
+        Throwable cause = (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
+        if (cause instanceof CancellationException) return new CancellationException("Đã hủy thao tác thẻ");
+        return cause;
+    }
+}
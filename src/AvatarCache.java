@@ -0,0 +1,109 @@
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Decoded avatar icons, keyed by userId + avatar hash.
+ *
+ * Holds the ready-to-paint 128x128 icon, so reopening a detail pane skips the
+ * BLOB read, ImageIO.read and rescaling. A new avatar has a new hash and
+ * thus a new key; the old entry just ages out of the LRU. The bound is on
+ * decoded pixel bytes: -Dgym.cache.avatarBytes (default 8 MB, 128 icons).
+ */
+public final class AvatarCache {
+    public static final int ICON_SIZE = 128;
+    private static final AvatarCache INSTANCE = new AvatarCache(Long.getLong("gym.cache.avatarBytes", 8L << 20));
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, ImageIcon> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private AvatarCache(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    public static AvatarCache getInstance() {
+        return INSTANCE;
+    }
+
+    /** Cached icon, or null. */
+    public synchronized ImageIcon get(int userId, String hashHex) {
+        ImageIcon icon = hashHex != null ? entries.get(key(userId, hashHex)) : null;
+        if (icon != null) hits++;
+        else misses++;
+        return icon;
+    }
+
+    /**
+     * Icon for these image bytes: cached, or decoded and cached now (outside
+     * the lock). {@code hashHex} may be null for rows saved before avatar
+     * hashes existed. Null if the bytes are not a readable image.
+     */
+    public ImageIcon icon(int userId, String hashHex, byte[] imageBytes) {
+        if (imageBytes == null || imageBytes.length == 0) return null;
+        String hash = hashHex != null ? hashHex : AvatarService.hashHex(imageBytes);
+        ImageIcon cached = get(userId, hash);
+        if (cached != null) return cached;
+        ImageIcon icon = decode(imageBytes);
+        if (icon != null) put(key(userId, hash), icon);
+        return icon;
+    }
+
+    /** Member's avatar from the DB; a cache hit costs no BLOB read. Null if none. */
+    public ImageIcon fromDb(MembersDao dao, int userId) throws SQLException {
+        String hash = dao.getAvatarHash(userId);
+        ImageIcon cached = get(userId, hash);
+        if (cached != null) return cached;
+        return icon(userId, hash, dao.getAvatar(userId));
+    }
+
+    public synchronized String stats() {
+        return String.format("avatars=%d bytes=%d/%d hits=%d misses=%d evictions=%d",
+                entries.size(), bytes, maxBytes, hits, misses, evictions);
+    }
+
+    private synchronized void put(String key, ImageIcon icon) {
+        ImageIcon old = entries.put(key, icon);
+        if (old != null) bytes -= cost(old);
+        bytes += cost(icon);
+        Iterator<ImageIcon> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= cost(it.next());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private static ImageIcon decode(byte[] imageBytes) {
+        try {
+            BufferedImage img = ImageIO.read(new ByteArrayInputStream(imageBytes));
+            if (img == null) return null;
+            BufferedImage scaled = new BufferedImage(ICON_SIZE, ICON_SIZE, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = scaled.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.drawImage(img, 0, 0, ICON_SIZE, ICON_SIZE, null);
+            g.dispose();
+            return new ImageIcon(scaled);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private static long cost(ImageIcon icon) {
+        return 4L * icon.getIconWidth() * icon.getIconHeight();
+    }
+
+    private static String key(int userId, String hashHex) {
+        return userId + ":" + hashHex;
+    }
+}
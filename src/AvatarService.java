@@ -0,0 +1,148 @@
+import javax.smartcardio.CardException;
+import javax.smartcardio.ResponseAPDU;
+import java.util.Arrays;
+
+/**
+ * Avatar upload to the card.
+ *
+ * Chunk size is negotiated once per session: when the transport can carry
+ * extended-length APDUs the whole image goes in one AVATAR_WRITE; if the card
+ * answers 6700 (applet without extended-length support) the same offset is
+ * re-sent in short 255-byte chunks. The size that worked is kept on the
+ * CardSession, so later uploads on the same connection skip the probe.
+ *
+ * Each avatar is versioned by a short content hash (first 8 bytes of
+ * SHA-256), committed on the card after a complete upload (AVATAR_COMMIT)
+ * and stored in members.avatar_hash. {@link #sync} reads the card's version
+ * in one APDU and skips the upload when it already holds the same image.
+ * {@link #read} fetches the committed image back (AVATAR_READ), for
+ * terminals without DB access.
+ * Must run on the reader worker (inside AsyncCardChannel.submit).
+ */
+public final class AvatarService {
+    /** Committed avatar version as reported by AVATAR_INFO. */
+    public static final class Version {
+        public final int length;
+        public final String hashHex;
+
+        Version(int length, String hashHex) {
+            this.length = length;
+            this.hashHex = hashHex;
+        }
+    }
+
+    private AvatarService() {}
+
+    /** Version hash of an avatar image (see CardHelper.AVATAR_HASH_SIZE). */
+    public static byte[] hash(byte[] image) {
+        byte[] digest = CryptoContext.sha256().digest(image);
+        return Arrays.copyOf(digest, CardHelper.AVATAR_HASH_SIZE);
+    }
+
+    /** Hex form stored in members.avatar_hash; null for no image. */
+    public static String hashHex(byte[] image) {
+        return (image == null || image.length == 0) ? null : RsaKeyService.bytesToHex(hash(image));
+    }
+
+    /**
+     * Make the card hold {@code image}: skip if its committed version already
+     * matches, otherwise upload and commit. Applets without AVATAR_INFO
+     * (6D00) always get the upload, without a commit.
+     * Returns the chunk size used, or 0 if the upload was skipped.
+     */
+    public static int sync(CardSession s, byte[] image) throws CardException {
+        byte[] hash = hash(image);
+        ResponseAPDU info = s.transmit(CardHelper.buildAvatarInfoCommand());
+        boolean versioned = info.getSW() != CardHelper.SW_INS_NOT_SUPPORTED;
+        if (info.getSW() == 0x9000 && matches(info.getData(), image.length, hash)) return 0;
+
+        int chunkSize = upload(s, image);
+        if (versioned) {
+            ResponseAPDU commit = s.transmit(CardHelper.buildAvatarCommitCommand(image.length, hash));
+            if (commit.getSW() != 0x9000) throw failure("AVATAR COMMIT", commit);
+        }
+        return chunkSize;
+    }
+
+    /** Committed avatar on the card, or null (none committed, or applet without AVATAR_INFO). */
+    public static Version readVersion(CardSession s) throws CardException {
+        ResponseAPDU info = s.transmit(CardHelper.buildAvatarInfoCommand());
+        if (info.getSW() != 0x9000) return null;
+        byte[] data = info.getData();
+        if (data.length != 2 + CardHelper.AVATAR_HASH_SIZE) return null;
+        int length = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+        if (length == 0) return null;
+        return new Version(length, RsaKeyService.bytesToHex(Arrays.copyOfRange(data, 2, data.length)));
+    }
+
+    /**
+     * Read {@code version.length} avatar bytes: one extended-length response
+     * when the link allows it, otherwise (or after a 6700) 256-byte reads.
+     * @throws CardException if the card rejects a read or the bytes do not hash to the version
+     */
+    public static byte[] read(CardSession s, Version version) throws CardException {
+        byte[] image = new byte[version.length];
+        boolean extended = s.client().supportsExtendedLength() && s.avatarChunkSize() != CardHelper.AVATAR_SHORT_CHUNK;
+        int offset = 0;
+        while (offset < image.length) {
+            int want = Math.min(extended ? CardHelper.AVATAR_EXTENDED_CHUNK : CardHelper.AVATAR_SHORT_READ, image.length - offset);
+            ResponseAPDU resp = s.transmit(CardHelper.buildAvatarReadCommand(offset, want));
+            if (resp.getSW() == CardHelper.SW_WRONG_LENGTH && want > CardHelper.AVATAR_SHORT_READ) {
+                extended = false;
+                continue;
+            }
+            byte[] data = resp.getData();
+            if (resp.getSW() != 0x9000 || data.length == 0 || data.length > want) throw failure("AVATAR READ @" + offset, resp);
+            System.arraycopy(data, 0, image, offset, data.length);
+            offset += data.length;
+        }
+        if (!RsaKeyService.bytesToHex(hash(image)).equals(version.hashHex)) {
+            throw new CardException("Avatar on card does not match its committed hash");
+        }
+        return image;
+    }
+
+    private static boolean matches(byte[] info, int length, byte[] hash) {
+        if (info.length != 2 + CardHelper.AVATAR_HASH_SIZE) return false;
+        int cardLength = ((info[0] & 0xFF) << 8) | (info[1] & 0xFF);
+        return cardLength == length && Arrays.equals(Arrays.copyOfRange(info, 2, info.length), hash);
+    }
+
+    /**
+     * CLEAR then write the image (no version check, no commit). Returns the chunk size used.
+     * @throws CardException if the card rejects a chunk
+     */
+    public static int upload(CardSession s, byte[] image) throws CardException {
+        if (image == null || image.length == 0) throw new IllegalArgumentException("Avatar is empty");
+        if (image.length > CardHelper.AVATAR_MAX_SIZE) {
+            throw new IllegalArgumentException("Avatar exceeds " + CardHelper.AVATAR_MAX_SIZE + " bytes");
+        }
+        ResponseAPDU clear = s.transmit(CardHelper.buildAvatarClearCommand());
+        if (clear.getSW() != 0x9000) throw failure("AVATAR CLEAR", clear);
+
+        int chunkSize = s.avatarChunkSize();
+        if (chunkSize == 0) {
+            chunkSize = s.client().supportsExtendedLength() ? CardHelper.AVATAR_EXTENDED_CHUNK : CardHelper.AVATAR_SHORT_CHUNK;
+        }
+        int offset = 0;
+        while (offset < image.length) {
+            int len = Math.min(chunkSize, image.length - offset);
+            byte[] chunk = new byte[len];
+            System.arraycopy(image, offset, chunk, 0, len);
+            ResponseAPDU resp = s.transmit(CardHelper.buildAvatarWriteChunk(offset, chunk));
+            if (resp.getSW() == CardHelper.SW_WRONG_LENGTH && len > CardHelper.AVATAR_SHORT_CHUNK) {
+                // Card cannot take extended APDUs: fall back and retry this offset
+                chunkSize = CardHelper.AVATAR_SHORT_CHUNK;
+                continue;
+            }
+            if (resp.getSW() != 0x9000) throw failure("AVATAR WRITE @" + offset, resp);
+            offset += len;
+        }
+        s.rememberAvatarChunkSize(chunkSize);
+        return chunkSize;
+    }
+
+    private static CardException failure(String step, ResponseAPDU resp) {
+        return new CardException(step + " failed (SW: " + Integer.toHexString(resp.getSW()).toUpperCase() + ")");
+    }
+}
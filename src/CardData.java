@@ -172,6 +172,7 @@ public class CardData {
             this.dobYear
         );
         
+        copy.cccd = this.cccd;
         if (this.pinHash != null) {
             copy.pinHash = this.pinHash.clone();
         }
@@ -1,5 +1,6 @@
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Singleton broadcaster để sync thông tin thẻ giữa Customer và Staff windows
@@ -9,6 +10,10 @@ public class CardEventBroadcaster {
     private List<CardEventListener> listeners = new ArrayList<>();
     private List<PurchaseRequestListener> purchaseListeners = new ArrayList<>();
     private List<TopupRequestListener> topupListeners = new ArrayList<>();
+    // Published from the CardPresenceMonitor thread
+    private List<CardPresenceListener> presenceListeners = new CopyOnWriteArrayList<>();
+    
+    public enum PresenceEvent { CARD_INSERTED, CARD_REMOVED }
     
     public interface CardEventListener {
         void onCardSwiped(CardData card);
@@ -22,6 +27,11 @@ public class CardEventBroadcaster {
         boolean onTopupRequest(int amount, String paymentMethod);
     }
     
+    /** Called on the monitor thread; UI listeners must hop to the EDT. */
+    public interface CardPresenceListener {
+        void onCardPresence(PresenceEvent event, String readerName);
+    }
+    
     public static class CartItem {
         public StoreItem item;
         public int quantity;
@@ -34,7 +44,7 @@ public class CardEventBroadcaster {
     
     private CardEventBroadcaster() {}
     
-    public static CardEventBroadcaster getInstance() {
+    public static synchronized CardEventBroadcaster getInstance() {
         if (instance == null) {
             instance = new CardEventBroadcaster();
         }
@@ -53,6 +63,20 @@ public class CardEventBroadcaster {
         topupListeners.add(listener);
     }
     
+    public void addPresenceListener(CardPresenceListener listener) {
+        presenceListeners.add(listener);
+    }
+    
+    public void broadcastCardPresence(PresenceEvent event, String readerName) {
+        for (CardPresenceListener listener : presenceListeners) {
+            try {
+                listener.onCardPresence(event, readerName);
+            } catch (RuntimeException ex) {
+                System.err.println("[CARD] Presence listener failed: " + ex.getMessage());
+            }
+        }
+    }
+    
     public void broadcastCardSwipe(CardData card) {
         for (CardEventListener listener : listeners) {
             listener.onCardSwiped(card);
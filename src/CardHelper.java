@@ -17,18 +17,88 @@ import javax.crypto.spec.SecretKeySpec;
  *  0x24 = CHANGE PIN (change PIN, requires old PIN verification)
  *  0x82 = GET PUBLIC KEY (export RSA public key for authentication)
  *  0x88 = SIGN CHALLENGE (sign challenge with RSA private key)
+ *  0x84 = GET EC PUBLIC KEY (P-256 point; 6A81 on chips without EC)
+ *  0x8A = EC SIGN CHALLENGE (ECDSA-SHA256, DER)
+ *  0xCA = IDENTIFY (userId, retry counter, key fingerprint, avatar version)
+ *  0xC0 = AVATAR WRITE (chunk at offset P1/P2; short or extended APDU)
+ *  0xC3 = AVATAR CLEAR (wipe the bytes written so far)
+ *  0xC4 = AVATAR INFO (length + hash of the committed avatar)
+ *  0xC5 = AVATAR COMMIT (record length + hash after a complete upload)
+ *  0xC6 = AVATAR READ (bytes from offset P1/P2; short or extended Le)
+ *  0xE0 = DEBIT   (balance -= amount [, expiryDays += addDays]; PIN verified)
+ *  0xE2 = CREDIT  (balance += amount; PIN verified)
+ *  0xE4 = CHECKIN (expiryDays -= 1; PIN verified)
  */
 public class CardHelper {
+    /** Gym applet AID: 26 12 20 03 03 00 */
+    public static final byte[] APPLET_AID = {(byte)0x26, (byte)0x12, (byte)0x20, (byte)0x03, (byte)0x03, (byte)0x00};
+
     public static final byte INS_READ = (byte) 0xB0;
     public static final byte INS_WRITE = (byte) 0xD0;
     public static final byte INS_VERIFY_PIN = (byte) 0x20;
     public static final byte INS_CHANGE_PIN = (byte) 0x24;
     public static final byte INS_GET_PUBLIC_KEY = (byte) 0x82;
     public static final byte INS_SIGN_CHALLENGE = (byte) 0x88;
+    public static final byte INS_GET_EC_PUBLIC_KEY = (byte) 0x84;
+    public static final byte INS_EC_SIGN_CHALLENGE = (byte) 0x8A;
+    public static final byte INS_IDENTIFY = (byte) 0xCA;
     public static final byte INS_ADMIN_UNLOCK = (byte) 0xAA;
     public static final byte INS_ADMIN_RESET_PIN = (byte) 0xAB;
     public static final byte INS_AVATAR_WRITE = (byte) 0xC0;
     public static final byte INS_AVATAR_CLEAR = (byte) 0xC3;
+    public static final byte INS_AVATAR_INFO = (byte) 0xC4;
+    public static final byte INS_AVATAR_COMMIT = (byte) 0xC5;
+    public static final byte INS_AVATAR_READ = (byte) 0xC6;
+    public static final byte INS_DEBIT = (byte) 0xE0;
+    public static final byte INS_CREDIT = (byte) 0xE2;
+    public static final byte INS_CHECKIN = (byte) 0xE4;
+
+    /** Avatar store size on the card. */
+    public static final int AVATAR_MAX_SIZE = 4096;
+    /** Largest avatar chunk in a short APDU (Lc is one byte). */
+    public static final int AVATAR_SHORT_CHUNK = 255;
+    /** Largest avatar read in a short APDU (Le 00 = 256). */
+    public static final int AVATAR_SHORT_READ = 256;
+    /** Avatar chunk for extended-length APDUs: the whole store in one command. */
+    public static final int AVATAR_EXTENDED_CHUNK = AVATAR_MAX_SIZE;
+    /** Avatar version hash on card and in members.avatar_hash: SHA-256 prefix. */
+    public static final int AVATAR_HASH_SIZE = 8;
+    public static final int SW_WRONG_LENGTH = 0x6700;
+    /** RSA key fingerprint: SHA-256 prefix of modulus || exponent. */
+    public static final int KEY_FINGERPRINT_SIZE = 8;
+    /** IDENTIFY response: userId(2) retry(1) keyFingerprint(8) avatarLength(2) avatarHash(8) keyAlg(1). */
+    public static final int IDENTIFY_LENGTH = 3 + KEY_FINGERPRINT_SIZE + 2 + AVATAR_HASH_SIZE + 1;
+    /** keyAlg in IDENTIFY: which card key the fingerprint covers. */
+    public static final byte KEY_ALG_RSA = 1;
+    public static final byte KEY_ALG_EC = 2;
+    /** Uncompressed P-256 point: 04 || X(32) || Y(32). */
+    public static final int EC_POINT_SIZE = 65;
+    /** Chip without EC support (GET EC PUBLIC KEY / EC SIGN). */
+    public static final int SW_FUNC_NOT_SUPPORTED = 0x6A81;
+
+    /** DEBIT: balance too low; CHECKIN: card already expired. */
+    public static final int SW_INSUFFICIENT = 0x6985;
+    /** CREDIT: new balance would overflow; DEBIT: invalid day count. */
+    public static final int SW_WRONG_DATA = 0x6A80;
+    /** Applet predates the instruction (e.g. DEBIT on an old card). */
+    public static final int SW_INS_NOT_SUPPORTED = 0x6D00;
+    /** PIN not verified on this connection (a reconnect resets the card's verified state). */
+    public static final int SW_SECURITY_STATUS_NOT_SATISFIED = 0x6982;
+
+    /**
+     * Build: 00 A4 04 00 06 [AID] (SELECT gym applet)
+     */
+    public static CommandAPDU buildSelectCommand() {
+        return new CommandAPDU(0x00, 0xA4, 0x04, 0x00, APPLET_AID);
+    }
+
+    /**
+     * Build: 00 CA 00 00 16 (IDENTIFY: what a reader needs before PIN entry)
+     * Parse with CardIdentity.parse; old applets answer 6D00.
+     */
+    public static CommandAPDU buildIdentifyCommand() {
+        return new CommandAPDU(0x00, INS_IDENTIFY, 0x00, 0x00, IDENTIFY_LENGTH);
+    }
 
     /**
      * Build: 00 B0 00 00 40 (read 64 bytes)
@@ -50,20 +120,18 @@ public class CardHelper {
      * [51-63] Reserved (zeros)
      */
     public static CommandAPDU buildWriteCommand(CardData card) throws Exception {
-        byte[] data = CryptoHelper.buildCardData(
-            card.userId,
-            card.balance,
-            card.expiryDays,
-            card.pin,
-            card.pinRetry,
-            card.dobDay,
-            card.dobMonth,
-            card.dobYear,
-            card.fullName != null ? card.fullName : "",
-            card.cccd != null ? card.cccd : ""
-        );
-        
-        return new CommandAPDU(0x00, INS_WRITE, 0x00, 0x00, data);
+        byte[] data = CardImageCodec.forThread().encode(card);
+        return new CommandAPDU(0x00, INS_WRITE, 0x00, 0x00, data, 0, CardImageCodec.IMAGE_SIZE);
+    }
+
+    /**
+     * WRITE of {@code card} encrypted with {@code pinKey} (a CardSession's
+     * verified key); falls back to deriving it from card.pin when null.
+     */
+    public static CommandAPDU buildWriteCommand(CardData card, SecretKeySpec pinKey) throws Exception {
+        if (pinKey == null) return buildWriteCommand(card);
+        byte[] data = CardImageCodec.forThread().encode(card, pinKey);
+        return new CommandAPDU(0x00, INS_WRITE, 0x00, 0x00, data, 0, CardImageCodec.IMAGE_SIZE);
     }
 
     /**
@@ -135,6 +203,25 @@ public class CardHelper {
         return new CommandAPDU(0x00, INS_SIGN_CHALLENGE, 0x00, 0x00, challenge, 128);
     }
 
+    /**
+     * Build: 00 84 00 00 41 (GET EC PUBLIC KEY)
+     * Response: [65-byte uncompressed P-256 point]
+     */
+    public static CommandAPDU buildGetEcPublicKeyCommand() {
+        return new CommandAPDU(0x00, INS_GET_EC_PUBLIC_KEY, 0x00, 0x00, EC_POINT_SIZE);
+    }
+
+    /**
+     * Build: 00 8A 00 00 20 [32-byte challenge] 00 (EC SIGN CHALLENGE)
+     * Response: [DER ECDSA-SHA256 signature, 70-72 bytes]
+     */
+    public static CommandAPDU buildEcSignChallengeCommand(byte[] challenge) {
+        if (challenge == null || challenge.length != 32) {
+            throw new IllegalArgumentException("Challenge must be exactly 32 bytes");
+        }
+        return new CommandAPDU(0x00, INS_EC_SIGN_CHALLENGE, 0x00, 0x00, challenge, 256);
+    }
+
     /**
      * Avatar: Clear stored image on card
      */
@@ -143,16 +230,112 @@ public class CardHelper {
     }
 
     /**
-     * Avatar: Write chunk to card at offset (P1/P2 = offset high/low)
+     * Avatar: Write chunk to card at offset (P1/P2 = offset high/low).
+     * Chunks over 255 bytes are encoded as extended-length APDUs; only send
+     * those when the transport supports them (see AvatarService).
      */
     public static CommandAPDU buildAvatarWriteChunk(int offset, byte[] chunk) {
-        if (offset < 0 || offset > 0xFFFF) throw new IllegalArgumentException("Offset must be 0..65535");
+        if (offset < 0 || offset > 0x7FFF) throw new IllegalArgumentException("Offset must be 0..32767");
         if (chunk == null || chunk.length == 0) throw new IllegalArgumentException("Chunk cannot be empty");
+        if (chunk.length > AVATAR_EXTENDED_CHUNK) throw new IllegalArgumentException("Chunk must be at most " + AVATAR_EXTENDED_CHUNK + " bytes");
         int p1 = (offset >> 8) & 0xFF;
         int p2 = offset & 0xFF;
         return new CommandAPDU(0x00, INS_AVATAR_WRITE, p1, p2, chunk);
     }
 
+    /**
+     * Build: 00 C4 00 00 0A - Avatar version on card.
+     * Response: length(2) + hash(8); length 0 = nothing committed
+     */
+    public static CommandAPDU buildAvatarInfoCommand() {
+        return new CommandAPDU(0x00, INS_AVATAR_INFO, 0x00, 0x00, 2 + AVATAR_HASH_SIZE);
+    }
+
+    /**
+     * Build: 00 C6 [offset 2B] Le - Read up to {@code length} avatar bytes from
+     * offset. Le over 256 is sent as an extended-length APDU.
+     */
+    public static CommandAPDU buildAvatarReadCommand(int offset, int length) {
+        if (offset < 0 || offset > 0x7FFF) throw new IllegalArgumentException("Offset must be 0..32767");
+        if (length <= 0 || length > AVATAR_EXTENDED_CHUNK) throw new IllegalArgumentException("Length must be 1.." + AVATAR_EXTENDED_CHUNK);
+        return new CommandAPDU(0x00, INS_AVATAR_READ, (offset >> 8) & 0xFF, offset & 0xFF, length);
+    }
+
+    /**
+     * Build: 00 C5 00 00 0A [length 2B] [hash 8B] - Record the version of the
+     * avatar just written (length must equal the bytes on card)
+     */
+    public static CommandAPDU buildAvatarCommitCommand(int length, byte[] hash) {
+        if (length <= 0 || length > AVATAR_MAX_SIZE) throw new IllegalArgumentException("Invalid avatar length");
+        if (hash == null || hash.length != AVATAR_HASH_SIZE) throw new IllegalArgumentException("Hash must be " + AVATAR_HASH_SIZE + " bytes");
+        byte[] data = new byte[2 + AVATAR_HASH_SIZE];
+        data[0] = (byte) (length >> 8);
+        data[1] = (byte) length;
+        System.arraycopy(hash, 0, data, 2, AVATAR_HASH_SIZE);
+        return new CommandAPDU(0x00, INS_AVATAR_COMMIT, 0x00, 0x00, data);
+    }
+
+    /**
+     * Build: 00 E0 00 00 04|06 [amount 4B] [addDays 2B] - Debit balance
+     * (purchase, or renew when addDays > 0). Response: balance(4) expiry(2)
+     */
+    public static CommandAPDU buildDebitCommand(int amount, int addDays) {
+        if (amount < 0 || addDays < 0 || addDays > Short.MAX_VALUE) throw new IllegalArgumentException("Invalid debit");
+        byte[] data = new byte[addDays > 0 ? 6 : 4];
+        putInt(data, amount);
+        if (addDays > 0) {
+            data[4] = (byte) (addDays >> 8);
+            data[5] = (byte) addDays;
+        }
+        return new CommandAPDU(0x00, INS_DEBIT, 0x00, 0x00, data, 6);
+    }
+
+    /**
+     * Build: 00 E2 00 00 04 [amount 4B] - Credit balance (top-up)
+     * Response: balance(4) expiry(2)
+     */
+    public static CommandAPDU buildCreditCommand(int amount) {
+        if (amount < 0) throw new IllegalArgumentException("Invalid credit");
+        byte[] data = new byte[4];
+        putInt(data, amount);
+        return new CommandAPDU(0x00, INS_CREDIT, 0x00, 0x00, data, 6);
+    }
+
+    /**
+     * Build: 00 E4 00 00 - Check-in (expiryDays - 1)
+     * Response: balance(4) expiry(2)
+     */
+    public static CommandAPDU buildCheckinCommand() {
+        return new CommandAPDU(0x00, INS_CHECKIN, 0x00, 0x00, 6);
+    }
+
+    /** Copy balance/expiry from a successful DEBIT/CREDIT/CHECKIN response into card. */
+    public static void applyBalanceResponse(ResponseAPDU response, CardData card) {
+        byte[] data = response.getData();
+        if (response.getSW() != 0x9000 || data.length != 6) {
+            throw new IllegalArgumentException("Not a balance response: SW=0x" + Integer.toHexString(response.getSW()).toUpperCase());
+        }
+        card.balance = ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+        card.expiryDays = (short) (((data[4] & 0xFF) << 8) | (data[5] & 0xFF));
+    }
+
+    /** Response APDU carrying balance(4) expiry(2) + 90 00, as DEBIT/CREDIT/CHECKIN return. */
+    static ResponseAPDU balanceResponse(int balance, short expiryDays) {
+        byte[] raw = new byte[8];
+        putInt(raw, balance);
+        raw[4] = (byte) (expiryDays >> 8);
+        raw[5] = (byte) expiryDays;
+        raw[6] = (byte) 0x90;
+        return new ResponseAPDU(raw);
+    }
+
+    private static void putInt(byte[] out, int value) {
+        out[0] = (byte) (value >> 24);
+        out[1] = (byte) (value >> 16);
+        out[2] = (byte) (value >> 8);
+        out[3] = (byte) value;
+    }
+
     // No CCCD write APDU: CCCD is inside the main encrypted block
 
     /**
@@ -199,7 +382,7 @@ public class CardHelper {
      * @param pin PIN to decrypt Balance & Expiry (6-digit string)
      */
     public static CardData parseReadResponse(byte[] data, String pin) throws Exception {
-        return CryptoHelper.parseEncryptedCardData(data, pin);
+        return CardImageCodec.forThread().decodeEncrypted(data, 0, pin, null);
     }
     
     /**
@@ -218,8 +401,8 @@ public class CardHelper {
             if (data == null || data.length < 80) {
                 throw new Exception("Invalid response data length: " + (data != null ? data.length : 0));
             }
-            // ✅ Use parseDecryptedCardData - data is already plaintext from card
-            return CryptoHelper.parseDecryptedCardData(data, pin);
+            // ✅ Block is already plaintext from card
+            return CardImageCodec.forThread().decodePlain(data, 0, null);
         } else if ((sw & 0xFF00) == 0x6300) {
             // Wrong PIN - extract retry counter
             int retriesLeft = sw & 0x0F;
@@ -0,0 +1,82 @@
+import javax.smartcardio.ResponseAPDU;
+import java.util.Arrays;
+
+/**
+ * Pre-PIN view of a card from one IDENTIFY exchange: user id, PIN retry
+ * counter, key fingerprint (+ which key: RSA or EC) and avatar version.
+ *
+ * Enough to look the member up, show "card locked", check the card's key
+ * against the one registered in the DB (RsaKeyService.fingerprintHex) and
+ * pick the cached avatar, without READ (80 bytes) or GET PUBLIC KEY.
+ */
+public class CardIdentity {
+    public int userId;
+    public byte pinRetry;
+    /** Hex; null when read through the READ fallback. */
+    public String keyFingerprint;
+    /** CardHelper.KEY_ALG_RSA or KEY_ALG_EC: the key keyFingerprint covers. */
+    public byte keyAlg = CardHelper.KEY_ALG_RSA;
+    public int avatarLength;
+    /** Hex version hash of the committed avatar; null if none. */
+    public String avatarHash;
+
+    public static CardIdentity parse(byte[] data) {
+        if (data == null || data.length != CardHelper.IDENTIFY_LENGTH) {
+            throw new IllegalArgumentException("Invalid IDENTIFY length: expected " + CardHelper.IDENTIFY_LENGTH + " bytes");
+        }
+        CardIdentity id = new CardIdentity();
+        id.userId = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+        id.pinRetry = data[2];
+        int off = 3;
+        id.keyFingerprint = RsaKeyService.bytesToHex(Arrays.copyOfRange(data, off, off + CardHelper.KEY_FINGERPRINT_SIZE));
+        off += CardHelper.KEY_FINGERPRINT_SIZE;
+        id.avatarLength = ((data[off] & 0xFF) << 8) | (data[off + 1] & 0xFF);
+        off += 2;
+        id.avatarHash = id.avatarLength > 0
+                ? RsaKeyService.bytesToHex(Arrays.copyOfRange(data, off, off + CardHelper.AVATAR_HASH_SIZE))
+                : null;
+        id.keyAlg = data[CardHelper.IDENTIFY_LENGTH - 1];
+        return id;
+    }
+
+    /**
+     * IDENTIFY on the current session; applets without it (6D00) are read
+     * with READ instead, leaving fingerprint and avatar unknown.
+     * @throws IllegalStateException if the card answers neither
+     */
+    public static CardIdentity read(CardSession session) throws Exception {
+        ResponseAPDU resp = session.transmitIdempotent(CardHelper.buildIdentifyCommand());
+        if (resp.getSW() == 0x9000) return parse(resp.getData());
+        if (resp.getSW() != CardHelper.SW_INS_NOT_SUPPORTED) {
+            throw new IllegalStateException("IDENTIFY failed (SW: " + Integer.toHexString(resp.getSW()).toUpperCase() + ")");
+        }
+        ResponseAPDU readResp = session.transmitIdempotent(CardHelper.buildReadCommand());
+        if ((readResp.getSW() & 0xFF00) != 0x9000) {
+            throw new IllegalStateException("READ failed (SW: " + Integer.toHexString(readResp.getSW()).toUpperCase() + ")");
+        }
+        CardData card = CardHelper.parseReadResponse(readResp.getData());
+        CardIdentity id = new CardIdentity();
+        id.userId = card.userId;
+        id.pinRetry = card.pinRetry;
+        return id;
+    }
+
+    public boolean isBlank() {
+        return userId == 0;
+    }
+
+    public boolean isLocked() {
+        return pinRetry == 0;
+    }
+
+    /** Safe CardData view (no PII, balance/expiry unknown), as parseReadResponse returns. */
+    public CardData toCardData() {
+        CardData card = new CardData();
+        card.userId = userId;
+        card.pinRetry = pinRetry;
+        card.balance = -1;
+        card.expiryDays = -1;
+        card.pin = null;
+        return card;
+    }
+}
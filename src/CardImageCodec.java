@@ -0,0 +1,272 @@
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Encoder/decoder of the 80-byte card image (layout in CryptoHelper).
+ *
+ * Works directly on caller buffers: the payload is built in a scratch block
+ * and encrypted straight into the image, a READ image is decrypted into the
+ * same scratch block, and only the name/CCCD Strings are allocated. The
+ * AES cipher is created once per codec; the PIN key is derived from
+ * {@code card.pin} (CryptoContext.pinKey) unless the caller passes the one
+ * its CardSession kept after VERIFY.
+ *
+ * Not thread-safe: use {@link #forThread()} (one codec per thread) or keep
+ * an instance confined to one worker, e.g. a ReaderStation's card thread.
+ *
+ * Payload byte 44 (inside the encrypted block, formerly zero padding) holds
+ * the layout version. Cards written before it existed read as version 0,
+ * which has the same field layout as version 1.
+ */
+public final class CardImageCodec {
+    public static final int IMAGE_SIZE = 80;
+    public static final int LAYOUT_VERSION = 1;
+
+    private static final int OFFSET_USER_ID = 0;
+    private static final int OFFSET_BLOCK = 2;
+    private static final int BLOCK_SIZE = 48;
+    private static final int OFFSET_PIN_RETRY = 50;
+    private static final int OFFSET_PIN_HASH = 51;
+    private static final int PIN_HASH_SIZE = 16;
+    private static final int OFFSET_RESERVED = 67;
+
+    // Offsets inside the 48-byte payload
+    private static final int P_BALANCE = 0;
+    private static final int P_EXPIRY = 4;
+    private static final int P_DOB_DAY = 6;
+    private static final int P_DOB_MONTH = 7;
+    private static final int P_DOB_YEAR = 8;
+    private static final int P_NAME_LEN = 10;
+    private static final int P_NAME = 11;
+    private static final int NAME_MAX = 21;
+    private static final int P_CCCD = 32;
+    private static final int CCCD_SIZE = 12;
+    private static final int P_VERSION = 44;
+
+    private static final ThreadLocal<CardImageCodec> CODECS = ThreadLocal.withInitial(CardImageCodec::new);
+
+    private final Cipher aes;
+    private final byte[] payload = new byte[BLOCK_SIZE];
+    private final byte[] image = new byte[IMAGE_SIZE];
+
+    public CardImageCodec() {
+        try {
+            aes = Cipher.getInstance("AES/ECB/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Codec of the calling thread. */
+    public static CardImageCodec forThread() {
+        return CODECS.get();
+    }
+
+    /**
+     * Encode {@code card} (PIN in {@code card.pin}) into this codec's image
+     * buffer and return it. The array is reused by the next call on this
+     * codec: send or copy it first.
+     */
+    public byte[] encode(CardData card) throws GeneralSecurityException {
+        encode(card, image, 0);
+        return image;
+    }
+
+    /** As {@link #encode(CardData)}, encrypting with {@code key} instead of deriving it from card.pin. */
+    public byte[] encode(CardData card, SecretKeySpec key) throws GeneralSecurityException {
+        encode(card, key, image, 0);
+        return image;
+    }
+
+    /** Encode {@code card} into {@code out[off .. off+80)}. */
+    public void encode(CardData card, byte[] out, int off) throws GeneralSecurityException {
+        if (card.pin == null || card.pin.isEmpty()) {
+            throw new IllegalArgumentException("PIN required to encrypt card data");
+        }
+        encode(card, CryptoContext.pinKey(card.pin), out, off);
+    }
+
+    /** Encode {@code card} into {@code out[off .. off+80)} with the PIN key {@code key}. */
+    public void encode(CardData card, SecretKeySpec key, byte[] out, int off) throws GeneralSecurityException {
+        out[off + OFFSET_USER_ID] = (byte) (card.userId >> 8);
+        out[off + OFFSET_USER_ID + 1] = (byte) card.userId;
+
+        byte[] p = payload;
+        Arrays.fill(p, (byte) 0);
+        putInt(p, P_BALANCE, card.balance);
+        putShort(p, P_EXPIRY, card.expiryDays);
+        p[P_DOB_DAY] = card.dobDay;
+        p[P_DOB_MONTH] = card.dobMonth;
+        putShort(p, P_DOB_YEAR, card.dobYear);
+        p[P_NAME_LEN] = (byte) putUtf8(card.fullName, p, P_NAME, NAME_MAX);
+        putAscii(card.cccd, p, P_CCCD, CCCD_SIZE);
+        p[P_VERSION] = LAYOUT_VERSION;
+
+        aes.init(Cipher.ENCRYPT_MODE, key);
+        aes.doFinal(p, 0, BLOCK_SIZE, out, off + OFFSET_BLOCK);
+        Arrays.fill(p, (byte) 0);
+
+        // The AES key bytes (SHA-256(PIN) truncated) double as the stored PIN hash
+        byte[] pinHash = key.getEncoded();
+        out[off + OFFSET_PIN_RETRY] = card.pinRetry;
+        System.arraycopy(pinHash, 0, out, off + OFFSET_PIN_HASH, PIN_HASH_SIZE);
+        Arrays.fill(pinHash, (byte) 0);
+        Arrays.fill(out, off + OFFSET_RESERVED, off + IMAGE_SIZE, (byte) 0);
+    }
+
+    /** Encode {@code card} at the buffer's position and advance it by 80 bytes. */
+    public void encode(CardData card, ByteBuffer out) throws GeneralSecurityException {
+        if (out.hasArray()) {
+            encode(card, out.array(), out.arrayOffset() + out.position());
+            out.position(out.position() + IMAGE_SIZE);
+        } else {
+            encode(card, image, 0);
+            out.put(image);
+        }
+    }
+
+    /**
+     * Decode a READ image (encrypted block) using {@code pin}. Fills and
+     * returns {@code into}, or a new CardData if null.
+     */
+    public CardData decodeEncrypted(byte[] src, int off, String pin, CardData into) throws GeneralSecurityException {
+        checkLength(src, off);
+        if (pin == null || pin.isEmpty()) {
+            throw new IllegalArgumentException("PIN required to decrypt data");
+        }
+        aes.init(Cipher.DECRYPT_MODE, CryptoContext.pinKey(pin));
+        aes.doFinal(src, off + OFFSET_BLOCK, BLOCK_SIZE, payload, 0);
+        try {
+            return decode(src, off, payload, 0, into);
+        } finally {
+            Arrays.fill(payload, (byte) 0);
+        }
+    }
+
+    /**
+     * Decode a VERIFY PIN image (block already decrypted by the card). Fills
+     * and returns {@code into}, or a new CardData if null.
+     */
+    public CardData decodePlain(byte[] src, int off, CardData into) {
+        checkLength(src, off);
+        return decode(src, off, src, off + OFFSET_BLOCK, into);
+    }
+
+    /** {@link #decodePlain(byte[], int, CardData)} at the buffer's position, advancing it by 80 bytes. */
+    public CardData decodePlain(ByteBuffer src, CardData into) {
+        if (src.remaining() < IMAGE_SIZE) {
+            throw new IllegalArgumentException("Card data must be " + IMAGE_SIZE + " bytes");
+        }
+        CardData card;
+        if (src.hasArray()) {
+            card = decodePlain(src.array(), src.arrayOffset() + src.position(), into);
+            src.position(src.position() + IMAGE_SIZE);
+        } else {
+            src.get(image);
+            card = decodePlain(image, 0, into);
+        }
+        return card;
+    }
+
+    private CardData decode(byte[] img, int off, byte[] p, int pOff, CardData into) {
+        int version = p[pOff + P_VERSION] & 0xFF;
+        if (version > LAYOUT_VERSION) {
+            throw new IllegalArgumentException("Unsupported card layout version " + version + " (wrong PIN?)");
+        }
+        // Versions 0 and 1 share the field layout
+        CardData card = into != null ? into : new CardData();
+        card.userId = ((img[off + OFFSET_USER_ID] & 0xFF) << 8) | (img[off + OFFSET_USER_ID + 1] & 0xFF);
+        card.balance = getInt(p, pOff + P_BALANCE);
+        card.expiryDays = getShort(p, pOff + P_EXPIRY);
+        card.dobDay = p[pOff + P_DOB_DAY];
+        card.dobMonth = p[pOff + P_DOB_MONTH];
+        card.dobYear = getShort(p, pOff + P_DOB_YEAR);
+        int nameLen = Math.min(NAME_MAX, p[pOff + P_NAME_LEN] & 0xFF);
+        card.fullName = trimmed(p, pOff + P_NAME, nameLen, true);
+        card.cccd = trimmed(p, pOff + P_CCCD, CCCD_SIZE, false);
+        card.pinRetry = img[off + OFFSET_PIN_RETRY];
+        return card;
+    }
+
+    private static void checkLength(byte[] src, int off) {
+        if (src == null || src.length - off < IMAGE_SIZE) {
+            throw new IllegalArgumentException("Card data must be " + IMAGE_SIZE + " bytes");
+        }
+    }
+
+    /** String without surrounding whitespace/NULs (as String.trim) from {@code len} bytes. */
+    private static String trimmed(byte[] b, int off, int len, boolean utf8) {
+        int start = off;
+        int end = off + len;
+        while (start < end && (b[start] & 0xFF) <= ' ') start++;
+        while (end > start && (b[end - 1] & 0xFF) <= ' ') end--;
+        if (start == end) return "";
+        return new String(b, start, end - start, utf8 ? StandardCharsets.UTF_8 : StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * UTF-8 of {@code s} into {@code out}, at most {@code max} bytes and
+     * never splitting a character. Returns the byte count.
+     */
+    private static int putUtf8(String s, byte[] out, int off, int max) {
+        if (s == null) return 0;
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            int cp = s.codePointAt(i);
+            int size = cp < 0x80 ? 1 : cp < 0x800 ? 2 : cp < 0x10000 ? 3 : 4;
+            if (n + size > max) break;
+            int o = off + n;
+            if (size == 1) {
+                out[o] = (byte) cp;
+            } else if (size == 2) {
+                out[o] = (byte) (0xC0 | (cp >> 6));
+                out[o + 1] = (byte) (0x80 | (cp & 0x3F));
+            } else if (size == 3) {
+                out[o] = (byte) (0xE0 | (cp >> 12));
+                out[o + 1] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                out[o + 2] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                out[o] = (byte) (0xF0 | (cp >> 18));
+                out[o + 1] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                out[o + 2] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                out[o + 3] = (byte) (0x80 | (cp & 0x3F));
+                i++;
+            }
+            n += size;
+        }
+        return n;
+    }
+
+    private static void putAscii(String s, byte[] out, int off, int max) {
+        if (s == null) return;
+        int n = Math.min(s.length(), max);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            out[off + i] = (byte) (c < 0x80 ? c : '?');
+        }
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >> 24);
+        b[off + 1] = (byte) (v >> 16);
+        b[off + 2] = (byte) (v >> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    private static void putShort(byte[] b, int off, short v) {
+        b[off] = (byte) (v >> 8);
+        b[off + 1] = (byte) v;
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    private static short getShort(byte[] b, int off) {
+        return (short) (((b[off] & 0xFF) << 8) | (b[off + 1] & 0xFF));
+    }
+}
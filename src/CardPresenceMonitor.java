@@ -0,0 +1,68 @@
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+import javax.smartcardio.TerminalFactory;
+
+/**
+ * Background thread that watches all PC/SC readers and publishes
+ * CARD_INSERTED / CARD_REMOVED through CardEventBroadcaster.
+ *
+ * Blocks in CardTerminals.waitForChange, so it costs nothing while no card
+ * moves. If no reader is attached (or the PC/SC service restarts) it backs
+ * off and retries. Cards already present at startup are reported as
+ * inserted on the first pass.
+ */
+public final class CardPresenceMonitor implements Runnable {
+    private static final long WAIT_TIMEOUT_MS = 1000;
+    private static final long RETRY_DELAY_MS = 2000;
+
+    private static CardPresenceMonitor instance;
+
+    private final TerminalFactory factory;
+    private volatile boolean running = true;
+
+    private CardPresenceMonitor(TerminalFactory factory) {
+        this.factory = factory;
+    }
+
+    /** Start the shared monitor on the default terminal factory (idempotent). */
+    public static synchronized void ensureStarted() {
+        if (instance != null) return;
+        instance = new CardPresenceMonitor(TerminalFactory.getDefault());
+        Thread t = new Thread(instance, "card-presence-monitor");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public static synchronized void stop() {
+        if (instance != null) {
+            instance.running = false;
+            instance = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        CardEventBroadcaster events = CardEventBroadcaster.getInstance();
+        CardTerminals terminals = factory.terminals();
+        while (running) {
+            try {
+                terminals.waitForChange(WAIT_TIMEOUT_MS);
+                for (CardTerminal t : terminals.list(CardTerminals.State.CARD_REMOVAL)) {
+                    events.broadcastCardPresence(CardEventBroadcaster.PresenceEvent.CARD_REMOVED, t.getName());
+                }
+                for (CardTerminal t : terminals.list(CardTerminals.State.CARD_INSERTION)) {
+                    events.broadcastCardPresence(CardEventBroadcaster.PresenceEvent.CARD_INSERTED, t.getName());
+                }
+            } catch (CardException | IllegalStateException ex) {
+                // No readers yet, or the PC/SC context went away: retry with a fresh list
+                try {
+                    Thread.sleep(RETRY_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                terminals = factory.terminals();
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import javax.crypto.spec.SecretKeySpec;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Long-lived card session on top of a CardTransport (PcscClient or the
+ * simulator).
+ *
+ * Keeps the reader connection and the selected-applet state while the same
+ * card stays in the field, so a flow calls {@link #ensureSession()} (a no-op
+ * when already selected) instead of reconnecting and re-sending SELECT.
+ * A CARD_REMOVED event for the session's reader marks the session stale
+ * without taking its lock (the presence monitor thread is shared by every
+ * reader and must not wait behind a long transmit); a CardException on
+ * transmit (card removed, swapped or reset by another application) drops
+ * it. Either way the next ensureSession() reconnects and re-selects.
+ * Failed commands are never replayed, since a write must not be retried
+ * onto a different card.
+ *
+ * The AES key of the PIN the card accepted on this connection is kept here
+ * (never the PIN itself) and dropped on reconnect, invalidate() and card
+ * removal from this session's reader only.
+ *
+ * One session per transport, shared by every window using it.
+ */
+public final class CardSession {
+    /** SELECT of the gym applet was answered with a non-9000 status word. */
+    public static final class SelectFailedException extends CardException {
+        private static final long serialVersionUID = 1L;
+        public final int sw;
+
+        SelectFailedException(int sw) {
+            super("SELECT applet failed (SW: 0x" + Integer.toHexString(sw).toUpperCase()
+                    + "). Applet AID: " + PcscClient.toHex(CardHelper.APPLET_AID));
+            this.sw = sw;
+        }
+    }
+
+    private static final Map<CardTransport, CardSession> SESSIONS = new IdentityHashMap<>();
+
+    private final CardTransport transport;
+    private boolean selected;
+    /** Set without the lock (e.g. by a timeout while a transmit is stuck); forces a reconnect. */
+    private volatile boolean stale;
+    /** Reader of the current connection, readable without the session or transport lock. */
+    private volatile String connectedReader;
+    /** Avatar write chunk size that worked on this connection; 0 until negotiated. */
+    private int avatarChunkSize;
+    /** Key of the PIN verified on this connection, or null. */
+    private volatile SecretKeySpec pinKey;
+
+    private CardSession(CardTransport transport) {
+        this.transport = transport;
+    }
+
+    /** Shared session for the given transport. */
+    public static CardSession of(CardTransport transport) {
+        synchronized (SESSIONS) {
+            CardSession session = SESSIONS.get(transport);
+            if (session == null) {
+                session = new CardSession(transport);
+                SESSIONS.put(transport, session);
+                final CardSession s = session;
+                // Mark the session stale as soon as its card leaves the reader
+                CardEventBroadcaster.getInstance().addPresenceListener((event, reader) -> {
+                    if (event == CardEventBroadcaster.PresenceEvent.CARD_REMOVED) s.onCardRemoved(reader);
+                });
+            }
+            return session;
+        }
+    }
+
+    public CardTransport client() {
+        return transport;
+    }
+
+    /**
+     * Connect and select the gym applet unless that is already done.
+     * @throws SelectFailedException if SELECT fails (applet not installed / wrong card)
+     */
+    public synchronized void ensureSession() throws Exception {
+        if (selected && !stale && transport.isConnected()) return;
+        selected = false;
+        stale = false;
+        avatarChunkSize = 0;
+        pinKey = null;
+        transport.close();
+        transport.connectFirstPresentOrFirst();
+        connectedReader = transport.terminalName();
+        ResponseAPDU resp = transport.transmit(CardHelper.buildSelectCommand());
+        if ((resp.getSW() & 0xFF00) != 0x9000) {
+            transport.close();
+            throw new SelectFailedException(resp.getSW());
+        }
+        selected = true;
+    }
+
+    /** Transmit on the current session; drops the session if the card went away. */
+    public synchronized ResponseAPDU transmit(CommandAPDU cmd) throws CardException {
+        try {
+            return transport.transmit(cmd);
+        } catch (CardException | IllegalStateException ex) {
+            invalidate();
+            throw ex;
+        }
+    }
+
+    /**
+     * Transmit a read-only command. If the session turns out to be stale (the
+     * card was swapped since the last command), reconnect and send it once
+     * more. Use only for commands that are safe to repeat, e.g. READ.
+     * The reconnect resets the card's PIN verification, so afterwards
+     * {@link #pinVerified()} is false and the PIN must be verified again.
+     */
+    public synchronized ResponseAPDU transmitIdempotent(CommandAPDU cmd) throws Exception {
+        try {
+            return transport.transmit(cmd);
+        } catch (CardException | IllegalStateException ex) {
+            invalidate();
+            ensureSession();
+            return transmit(cmd);
+        }
+    }
+
+    public synchronized int avatarChunkSize() {
+        return avatarChunkSize;
+    }
+
+    /** Remember the negotiated avatar chunk size until the next reconnect. */
+    public synchronized void rememberAvatarChunkSize(int size) {
+        avatarChunkSize = size;
+    }
+
+    /** Keep the key of {@code pin} after the card answered its VERIFY with 9000. */
+    public void rememberPinKey(String pin) {
+        pinKey = CryptoContext.pinKey(pin);
+    }
+
+    /** Key of the PIN verified on this connection, or null if none was. */
+    public SecretKeySpec pinKey() {
+        return pinKey;
+    }
+
+    /**
+     * Whether the card still holds a PIN verified through rememberPinKey. A
+     * reconnect (ensureSession, transmitIdempotent, invalidate) or removal
+     * of the card resets the card's verified state and clears this.
+     */
+    public boolean pinVerified() {
+        return pinKey != null;
+    }
+
+    /** Reader of the current (or last) connection, or null; lock-free. */
+    public String connectedReader() {
+        return connectedReader;
+    }
+
+    /** Force a reconnect on the next ensureSession() without waiting for the session lock. */
+    public void markStale() {
+        stale = true;
+    }
+
+    /** Forget the connection; the next ensureSession() reconnects and re-selects. */
+    public synchronized void invalidate() {
+        selected = false;
+        pinKey = null;
+        transport.close();
+    }
+
+    /** Runs on the presence monitor thread: flag only, the session's own thread reconnects. */
+    private void onCardRemoved(String readerName) {
+        String connected = connectedReader;
+        if (connected != null && connected.equals(readerName)) {
+            pinKey = null;
+            markStale();
+        }
+    }
+
+    public synchronized boolean isActive() {
+        return selected && !stale && transport.isConnected();
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test of the card flows on virtual cards, no reader needed.
+ *
+ * Usage: java CardSimBench [cards=1000] [readers=8]
+ * Each reader (own SimulatedCardTransport + CardSession, like a
+ * ReaderStation) takes cards off a shared pile; per card it runs the
+ * customer flow: personalise (WRITE), swipe (READ + VERIFY), pay (DEBIT),
+ * re-read. Latency per APDU comes from -Dgym.sim.latencyMs / jitterMs.
+ */
+public class CardSimBench {
+    public static void main(String[] args) throws Exception {
+        int cardCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int readerCount = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        List<SmartCardSimulator> cards = new ArrayList<>(cardCount);
+        for (int i = 0; i < cardCount; i++) cards.add(new SmartCardSimulator());
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+
+        System.out.println("[BENCH] " + cardCount + " cards, " + readerCount + " readers, latency "
+                + SimulatedCardTransport.DEFAULT_LATENCY_MS + " ms (+" + SimulatedCardTransport.DEFAULT_JITTER_MS + " jitter)");
+        ExecutorService pool = Executors.newFixedThreadPool(readerCount);
+        List<Future<long[]>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int r = 0; r < readerCount; r++) {
+            final String name = "Bench Reader " + r;
+            results.add(pool.submit(() -> {
+                SimulatedCardTransport reader = new SimulatedCardTransport(name, null);
+                CardSession session = CardSession.of(reader);
+                List<Long> times = new ArrayList<>();
+                int i;
+                while ((i = next.getAndIncrement()) < cardCount) {
+                    reader.insert(cards.get(i));
+                    long t0 = System.nanoTime();
+                    try {
+                        runFlow(session, i + 1);
+                    } catch (Exception ex) {
+                        failures.incrementAndGet();
+                        System.err.println("[BENCH] Card " + (i + 1) + ": " + ex.getMessage());
+                    }
+                    times.add(System.nanoTime() - t0);
+                    reader.remove();
+                }
+                long[] out = new long[times.size()];
+                for (int k = 0; k < out.length; k++) out[k] = times.get(k);
+                return out;
+            }));
+        }
+        List<Long> all = new ArrayList<>();
+        for (Future<long[]> f : results) {
+            for (long t : f.get()) all.add(t);
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        pool.shutdown();
+
+        long[] sorted = new long[all.size()];
+        for (int k = 0; k < sorted.length; k++) sorted[k] = all.get(k);
+        Arrays.sort(sorted);
+        System.out.println("[BENCH] Done in " + elapsedMs + " ms, " + failures.get() + " failures");
+        System.out.printf("[BENCH] Throughput: %.1f cards/s%n", cardCount * 1000.0 / Math.max(1, elapsedMs));
+        System.out.printf("[BENCH] Flow latency p50 %.1f ms, p99 %.1f ms%n",
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6);
+    }
+
+    private static void runFlow(CardSession session, int userId) throws Exception {
+        String pin = String.format("%06d", userId % 1_000_000);
+        CardData card = new CardData();
+        card.userId = userId;
+        card.fullName = "Thanh vien " + userId;
+        card.balance = 500000;
+        card.expiryDays = 30;
+        card.pin = pin;
+        card.pinRetry = 5;
+
+        session.ensureSession();
+        expectOk(session.transmit(CardHelper.buildWriteCommand(card)), "WRITE");
+        expectOk(session.transmitIdempotent(CardHelper.buildReadCommand()), "READ");
+        javax.smartcardio.ResponseAPDU verify = session.transmit(CardHelper.buildVerifyPinCommand(pin));
+        expectOk(verify, "VERIFY");
+        javax.smartcardio.ResponseAPDU debit = session.transmit(CardHelper.buildDebitCommand(50000, 0));
+        expectOk(debit, "DEBIT");
+        CardData decrypted = CardHelper.parseVerifyPinResponse(verify, pin);
+        CardHelper.applyBalanceResponse(debit, decrypted);
+        if (decrypted.balance != 450000) throw new IllegalStateException("DEBIT left balance " + decrypted.balance);
+        expectOk(session.transmitIdempotent(CardHelper.buildReadCommand()), "READ");
+    }
+
+    private static void expectOk(javax.smartcardio.ResponseAPDU resp, String step) {
+        if (resp.getSW() != 0x9000) {
+            throw new IllegalStateException(step + " failed (SW: " + Integer.toHexString(resp.getSW()).toUpperCase() + ")");
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+}
@@ -0,0 +1,32 @@
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+/**
+ * Link to one card reader: connect to the card in it and exchange APDUs.
+ *
+ * PcscClient talks to real PC/SC readers; SimulatedCardTransport runs the
+ * gym applet in-process (SmartCardSimulator). CardSession, ReaderStation and
+ * everything above them only see this interface.
+ */
+public interface CardTransport extends AutoCloseable {
+    /** Connect to the card (for an unbound transport: the first reader with a card). */
+    CardTransport connectFirstPresentOrFirst() throws Exception;
+
+    /** @throws IllegalStateException if not connected */
+    ResponseAPDU transmit(CommandAPDU apdu) throws CardException;
+
+    boolean isConnected();
+
+    /**
+     * Whether the link can carry extended-length APDUs (Lc up to 65535) to
+     * the connected card. False for T=0 connections.
+     */
+    boolean supportsExtendedLength();
+
+    /** Name of the bound or connected reader, or null. */
+    String terminalName();
+
+    @Override
+    void close();
+}
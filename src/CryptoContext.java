@@ -0,0 +1,128 @@
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shared crypto primitives for the host side.
+ *
+ * - JCA instances (SHA-256, AES/ECB, KeyFactory, Signature) are created once
+ *   per thread and reused; callers must not hand them to another thread.
+ * - One SecureRandom (DRBG where available), seeded at class load, serves
+ *   every challenge.
+ * - PIN-derived AES keys are not cached here (a PIN must never be a map
+ *   key); the key of the PIN verified on a connection is kept by its
+ *   CardSession.
+ *
+ * Each ReaderStation runs {@link #prewarm()} on its worker thread, which
+ * moves provider lookup and seeding off the first card operation.
+ */
+public final class CryptoContext {
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final ThreadLocal<Cipher> AES = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/ECB/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final ThreadLocal<Map<String, KeyFactory>> KEY_FACTORIES = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<String, Signature>> SIGNATURES = ThreadLocal.withInitial(HashMap::new);
+
+    private static final SecureRandom RANDOM = newSeededRandom();
+
+    private CryptoContext() {}
+
+    /** Seed the shared random and create this thread's instances now. */
+    public static void prewarm() {
+        sha256();
+        aesEcb();
+        try {
+            keyFactory("RSA");
+            keyFactory("EC");
+            signature("SHA1withRSA");
+            signature("SHA256withECDSA");
+        } catch (GeneralSecurityException e) {
+            System.err.println("[CRYPTO] Prewarm: " + e.getMessage());
+        }
+    }
+
+    /** This thread's SHA-256 digest, reset. */
+    public static MessageDigest sha256() {
+        MessageDigest md = SHA256.get();
+        md.reset();
+        return md;
+    }
+
+    /** This thread's AES/ECB/NoPadding cipher; init it before use. */
+    public static Cipher aesEcb() {
+        return AES.get();
+    }
+
+    public static KeyFactory keyFactory(String algorithm) throws NoSuchAlgorithmException {
+        Map<String, KeyFactory> factories = KEY_FACTORIES.get();
+        KeyFactory kf = factories.get(algorithm);
+        if (kf == null) {
+            kf = KeyFactory.getInstance(algorithm);
+            factories.put(algorithm, kf);
+        }
+        return kf;
+    }
+
+    /** This thread's Signature for {@code algorithm}; initVerify/initSign resets it. */
+    public static Signature signature(String algorithm) throws NoSuchAlgorithmException {
+        Map<String, Signature> signatures = SIGNATURES.get();
+        Signature sig = signatures.get(algorithm);
+        if (sig == null) {
+            sig = Signature.getInstance(algorithm);
+            signatures.put(algorithm, sig);
+        }
+        return sig;
+    }
+
+    /** Shared, already seeded SecureRandom (thread-safe). */
+    public static SecureRandom random() {
+        return RANDOM;
+    }
+
+    /**
+     * AES-128 key of the card block for this PIN: first 16 bytes of
+     * SHA-256(ASCII PIN), which is also the PIN hash stored on the card.
+     * Derived on every call with this thread's digest; the intermediate
+     * digest is zeroed.
+     */
+    public static SecretKeySpec pinKey(String pin) {
+        byte[] full = sha256().digest(pin.getBytes(StandardCharsets.US_ASCII));
+        byte[] raw = Arrays.copyOf(full, 16);
+        SecretKeySpec spec = new SecretKeySpec(raw, "AES");
+        Arrays.fill(full, (byte) 0);
+        Arrays.fill(raw, (byte) 0);
+        return spec;
+    }
+
+    private static SecureRandom newSeededRandom() {
+        SecureRandom random;
+        try {
+            random = SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            random = new SecureRandom();
+        }
+        // First nextBytes does the (possibly blocking) seeding
+        random.nextBytes(new byte[1]);
+        return random;
+    }
+}
@@ -3,6 +3,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.function.Consumer;
 
 /**
  * Cửa sổ riêng cho khách hàng - Quẹt thẻ và xem thông tin
@@ -17,12 +18,14 @@ public class CustomerWindow extends JFrame {
     private final JButton topupBtn;
     private final JButton checkinBtn;
     private final JLabel statusLabel;
-    private final PcscClient pcsc;
+    private final ReaderStation station;
+    private final CardSession session;
     private CardData currentCard;
 
-    public CustomerWindow(PcscClient pcsc) {
-        this.pcsc = pcsc;
-        setTitle("KHÁCH HÀNG - Dịch Vụ Tự Phục Vụ");
+    public CustomerWindow(ReaderStation station) {
+        this.station = station;
+        this.session = station.session();
+        setTitle("KHÁCH HÀNG - Dịch Vụ Tự Phục Vụ [" + station.name() + "]");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(700, 600);
         setLocationRelativeTo(null);
@@ -57,7 +60,7 @@ public class CustomerWindow extends JFrame {
         infoArea.setBackground(new Color(245, 245, 250));
         infoArea.setForeground(new Color(30, 40, 50));
         infoArea.setMargin(new Insets(10, 10, 10, 10));
-        infoArea.setText("Vui lòng nhấn 'Quẹt Thẻ' để bắt đầu\n\n");
+        infoArea.setText("Vui lòng đặt thẻ vào đầu đọc hoặc nhấn 'Quẹt Thẻ' để bắt đầu\n\n");
         JScrollPane scrollPane = new JScrollPane(infoArea);
         scrollPane.setBorder(BorderFactory.createLineBorder(new Color(200, 200, 210), 1));
         add(scrollPane, BorderLayout.CENTER);
@@ -123,22 +126,47 @@ public class CustomerWindow extends JFrame {
         buttonRow.add(checkinBtn);
 
         JButton logoutBtn = createModernButton("Thoát", new Color(120, 120, 120));
-        logoutBtn.addActionListener(e -> {
-        currentCard = null;
-        disableButtons();
-        statusLabel.setText("✓ Sẵn sàng");
-        statusLabel.setForeground(new Color(60, 180, 60));
-        infoArea.setText("Vui lòng nhấn 'Quẹt Thẻ' để bắt đầu\n");
-    });
+        logoutBtn.addActionListener(e -> logout());
 
         buttonRow.add(logoutBtn);
 
         bottomPanel.add(buttonRow);
         add(bottomPanel, BorderLayout.SOUTH);
 
+        // Tự động quẹt khi đặt thẻ, tự thoát khi rút thẻ
+        CardEventBroadcaster.getInstance().addPresenceListener((event, reader) -> {
+            if (station.handles(reader)) SwingUtilities.invokeLater(() -> onCardPresence(event, reader));
+        });
+        CardPresenceMonitor.ensureStarted();
+
         setVisible(true);
     }
-    private boolean verifyPinDialog() {
+
+    private void onCardPresence(CardEventBroadcaster.PresenceEvent event, String reader) {
+        if (event == CardEventBroadcaster.PresenceEvent.CARD_INSERTED) {
+            // Bỏ qua nếu đang quẹt hoặc đã có phiên thẻ
+            if (swipeBtn.isEnabled() && currentCard == null) {
+                swipeCard();
+            }
+        } else if (currentCard != null) {
+            logout();
+            infoArea.append("[THẺ] Thẻ đã được rút khỏi đầu đọc (" + reader + ")\n");
+        }
+    }
+
+    private void logout() {
+        currentCard = null;
+        disableButtons();
+        statusLabel.setText("✓ Sẵn sàng");
+        statusLabel.setForeground(new Color(60, 180, 60));
+        infoArea.setText("Vui lòng đặt thẻ vào đầu đọc hoặc nhấn 'Quẹt Thẻ' để bắt đầu\n");
+    }
+    /**
+     * Ask for the PIN and VERIFY it on the card without blocking the EDT.
+     * done is called on the EDT with true once currentCard holds the
+     * decrypted data, or false if the user cancelled or the PIN was rejected.
+     */
+    private void verifyPinAsync(Consumer<Boolean> done) {
     JPasswordField pinField = new JPasswordField();
     int opt = JOptionPane.showConfirmDialog(
         this,
@@ -146,20 +174,120 @@ public class CustomerWindow extends JFrame {
         "Xác Thực PIN",
         JOptionPane.OK_CANCEL_OPTION
     );
-    if (opt != JOptionPane.OK_OPTION) return false;
+    if (opt != JOptionPane.OK_OPTION) {
+        done.accept(false);
+        return;
+    }
 
-    try {
-        String pinStr = new String(pinField.getPassword());
-        // Kiểm tra phải đúng 6 chữ số
-        if (!pinStr.matches("\\d{6}")) {
-            throw new NumberFormatException("PIN phải là 6 chữ số");
-        }
-        String pin = pinStr;
+    String pinStr = new String(pinField.getPassword());
+    // Kiểm tra phải đúng 6 chữ số
+    if (!pinStr.matches("\\d{6}")) {
+        JOptionPane.showMessageDialog(this, "❌ PIN phải là 6 chữ số", "Lỗi", JOptionPane.ERROR_MESSAGE);
+        done.accept(false);
+        return;
+    }
+    final String pin = pinStr;
+
+    station.channel().submit(s -> {
+        ResponseAPDU r = s.transmit(CardHelper.buildVerifyPinCommand(pin));
+        // Later WRITEs on this connection reuse the key instead of re-deriving it
+        if (r.getSW() == 0x9000) s.rememberPinKey(pin);
+        return r;
+    }).whenComplete((r, ex) -> SwingUtilities.invokeLater(() -> done.accept(onVerifyResponse(r, ex, pin))));
+}
 
-        ResponseAPDU r = pcsc.transmit(
-            CardHelper.buildVerifyPinCommand(pin)
-        );
+    /**
+     * Apply DEBIT / CREDIT / CHECKIN on the card: one short APDU that the
+     * applet commits atomically and answers with the new balance and expiry.
+     * Call only after verifyPinAsync succeeded. Cards with an older applet
+     * answer 6D00; for those the same change is applied to a copy of
+     * currentCard and the whole image is rewritten (WRITE), and an equivalent
+     * balance response is returned so callers handle both cases alike.
+     * A slow card is waited for (submitUpdate), never reported as failed.
+     * If the session reconnected since VERIFY (the card then answers 6982
+     * and nothing changed), the PIN is asked for again and the command is
+     * sent once more.
+     */
+    private java.util.concurrent.CompletableFuture<ResponseAPDU> adjustCardAsync(javax.smartcardio.CommandAPDU cmd,
+                                                                                int balanceDelta, int expiryDelta) {
+        return adjustOnCard(cmd, balanceDelta, expiryDelta).thenCompose(resp -> {
+            if (resp.getSW() != CardHelper.SW_SECURITY_STATUS_NOT_SATISFIED) {
+                return java.util.concurrent.CompletableFuture.completedFuture(resp);
+            }
+            java.util.concurrent.CompletableFuture<ResponseAPDU> retried = new java.util.concurrent.CompletableFuture<>();
+            SwingUtilities.invokeLater(() -> {
+                infoArea.append("[PIN] Kết nối thẻ đã được làm mới, vui lòng nhập lại PIN.\n");
+                verifyPinAsync(ok -> {
+                    if (!ok) {
+                        retried.complete(resp);
+                        return;
+                    }
+                    adjustOnCard(cmd, balanceDelta, expiryDelta).whenComplete((r, ex) -> {
+                        if (ex != null) retried.completeExceptionally(ex);
+                        else retried.complete(r);
+                    });
+                });
+            });
+            return retried;
+        });
+    }
+
+    /** One attempt of adjustCardAsync; answers 6982 without sending if the PIN is no longer verified. */
+    private java.util.concurrent.CompletableFuture<ResponseAPDU> adjustOnCard(javax.smartcardio.CommandAPDU cmd,
+                                                                             int balanceDelta, int expiryDelta) {
+        final CardData card = currentCard.copy();
+        return station.channel().submitUpdate(s -> {
+            if (!s.pinVerified()) {
+                return new ResponseAPDU(new byte[]{(byte) (CardHelper.SW_SECURITY_STATUS_NOT_SATISFIED >> 8),
+                        (byte) CardHelper.SW_SECURITY_STATUS_NOT_SATISFIED});
+            }
+            ResponseAPDU resp = s.transmit(cmd);
+            if (resp.getSW() != CardHelper.SW_INS_NOT_SUPPORTED) return resp;
+
+            long balance = (long) card.balance + balanceDelta;
+            if (balance < 0 || (expiryDelta < 0 && card.expiryDays <= 0)) {
+                return new ResponseAPDU(new byte[]{(byte) (CardHelper.SW_INSUFFICIENT >> 8), (byte) CardHelper.SW_INSUFFICIENT});
+            }
+            if (balance > Integer.MAX_VALUE) {
+                // Same answer as the applet's CREDIT overflow
+                return new ResponseAPDU(new byte[]{(byte) (CardHelper.SW_WRONG_DATA >> 8), (byte) CardHelper.SW_WRONG_DATA});
+            }
+            card.balance = (int) balance;
+            card.expiryDays = (short) (card.expiryDays + expiryDelta);
+            ResponseAPDU writeResp = s.transmit(CardHelper.buildWriteCommand(card, s.pinKey()));
+            if ((writeResp.getSW() & 0xFF00) != 0x9000) return writeResp;
+            return CardHelper.balanceResponse(card.balance, card.expiryDays);
+        }, slowCardNotice());
+    }
+
+    /**
+     * onSlow for AsyncCardChannel.submitUpdate: the card may still commit, so
+     * the flow keeps waiting for its answer (and then writes the DB) instead
+     * of reporting a failure.
+     */
+    private Runnable slowCardNotice() {
+        return () -> SwingUtilities.invokeLater(() ->
+                infoArea.append("[CHỜ] Thẻ phản hồi chậm, đang chờ kết quả... Vui lòng không rút thẻ.\n"));
+    }
+
+    /**
+     * Message for a failed adjustCardAsync (exception or non-9000 status word).
+     * {@code rejectedSw} is the status word the card uses to refuse this
+     * command (6985 for DEBIT/CHECKIN, 6A80 for a CREDIT that would overflow).
+     */
+    private static String adjustFailure(ResponseAPDU resp, Throwable ex, int rejectedSw, String rejectedMsg) {
+        if (ex != null) return AsyncCardChannel.rootCause(ex).getMessage();
+        if (resp.getSW() == rejectedSw) return rejectedMsg;
+        return "SW: " + Integer.toHexString(resp.getSW()).toUpperCase();
+    }
 
+    /** EDT half of verifyPinAsync: sync the retry counter and decrypt the card data. */
+    private boolean onVerifyResponse(ResponseAPDU r, Throwable ex, String pin) {
+    if (ex != null) {
+        JOptionPane.showMessageDialog(this, "❌ " + AsyncCardChannel.rootCause(ex).getMessage(), "Lỗi", JOptionPane.ERROR_MESSAGE);
+        return false;
+    }
+    try {
         if (r.getSW() != 0x9000) {
             // Cập nhật retry counter vào DB dựa trên SW
             try {
@@ -172,7 +300,7 @@ public class CustomerWindow extends JFrame {
                     retries = -1; // unknown
                 }
                 if (currentCard != null && currentCard.userId > 0 && retries >= 0) {
-                    new MembersDao().updatePinRetry(currentCard.userId, retries);
+                    new MembersDao().updatePinRetryAsync(currentCard.userId, retries);
                 }
             } catch (Exception ignored) {}
 
@@ -190,7 +318,7 @@ public class CustomerWindow extends JFrame {
         // Đồng bộ retry counter về 5 khi verify thành công
         try {
             if (currentCard != null && currentCard.userId > 0) {
-                new MembersDao().updatePinRetry(currentCard.userId, (short)5);
+                new MembersDao().updatePinRetryAsync(currentCard.userId, (short)5);
             }
         } catch (Exception ignored) {}
         // ✅ LƯU PIN để các thao tác WRITE sau dùng đúng PIN
@@ -252,51 +380,37 @@ public class CustomerWindow extends JFrame {
         statusLabel.setForeground(new Color(200, 100, 0));
         swipeBtn.setEnabled(false);
 
-        new Thread(() -> {
+        // Chạy trên worker của đầu đọc: các thao tác thẻ cùng đầu đọc không chồng nhau
+        station.execute(() -> {
             try {
-                Thread.sleep(500); // Delay để người dùng có thể đặt thẻ vào
-
-                pcsc.connectFirstPresentOrFirst();
-                infoArea.append("[OK] Kết nối thẻ thành công!\n\n");
-
-                // Select applet - ✅ AID đã fix: 26 12 20 03 03 00 (6 bytes)
-                javax.smartcardio.CommandAPDU selectCmd = new javax.smartcardio.CommandAPDU(0x00, 0xA4, 0x04, 0x00,
-                        new byte[]{(byte)0x26,(byte)0x12,(byte)0x20,(byte)0x03,(byte)0x03,(byte)0x00});
-                javax.smartcardio.ResponseAPDU selectResp = pcsc.transmit(selectCmd);
-                if ((selectResp.getSW() & 0xFF00) != 0x9000) {
-                    infoArea.append("[LỖI] Không thể kết nối ứng dụng trên thẻ (SW: 0x" + 
-                        Integer.toHexString(selectResp.getSW()).toUpperCase() + ")\n");
+                try {
+                    session.ensureSession();
+                } catch (CardSession.SelectFailedException selectEx) {
+                    infoArea.append("[LỖI] Không thể kết nối ứng dụng trên thẻ (SW: 0x" +
+                        Integer.toHexString(selectEx.sw).toUpperCase() + ")\n");
                     infoArea.append("[INFO] Đảm bảo applet đã được install với AID: 26 12 20 03 03 00\n");
                     statusLabel.setText("Lỗi: Thẻ không hợp lệ");
                     statusLabel.setForeground(Color.RED);
                     swipeBtn.setEnabled(true);
                     return;
                 }
+                infoArea.append("[OK] Kết nối thẻ thành công!\n\n");
 
-                // Read card data
-                javax.smartcardio.CommandAPDU readCmd = CardHelper.buildReadCommand();
-                javax.smartcardio.ResponseAPDU readResp = pcsc.transmit(readCmd);                
-                // Handle 6C xx (Wrong LE) - retry with correct length
-                if ((readResp.getSW() & 0xFF00) == 0x6C00) {
-                    int correctLE = readResp.getSW2();
-                    infoArea.append("[INFO] Applet yêu cầu LE=" + correctLE + " bytes, retry...\n");
-                    readCmd = new javax.smartcardio.CommandAPDU(0x00, 0x11, 0x00, 0x00, correctLE);
-                    readResp = pcsc.transmit(readCmd);
-                }
-                                if ((readResp.getSW() & 0xFF00) != 0x9000) {
-                    infoArea.append("[LỖI] Không thể đọc dữ liệu thẻ - SW: " + Integer.toHexString(readResp.getSW()) + "\n");
+                // Identify card: userId + retry counter (+ key fingerprint) in one short APDU
+                CardIdentity identity;
+                try {
+                    identity = CardIdentity.read(session);
+                } catch (IllegalStateException readEx) {
+                    infoArea.append("[LỖI] Không thể đọc dữ liệu thẻ - " + readEx.getMessage() + "\n");
                     statusLabel.setText("Lỗi: Đọc dữ liệu thất bại");
                     statusLabel.setForeground(Color.RED);
                     swipeBtn.setEnabled(true);
                     return;
                 }
 
-                byte[] responseData = readResp.getData();
-                infoArea.append("[DEBUG] Response length: " + responseData.length + " bytes\n");
-                infoArea.append("[DEBUG] Response HEX: " + PcscClient.toHex(responseData) + "\n");
-
-                // Parse safe view (no PII) - full details will appear after PIN verify
-                currentCard = CardHelper.parseReadResponse(responseData);
+                // Safe view (no PII) - full details will appear after PIN verify
+                currentCard = identity.toCardData();
+                warnOnKeyMismatch(identity);
                 infoArea.append("[INFO] UserID: " + currentCard.userId + "\n");
 
                 // ===== XÁC THỰC PIN =====
@@ -307,8 +421,8 @@ public class CustomerWindow extends JFrame {
             }
 
                 // Yêu cầu nhập PIN ngay sau khi quẹt thẻ
-                SwingUtilities.invokeLater(() -> {
-                    if (!verifyPinDialog()) {
+                SwingUtilities.invokeLater(() -> verifyPinAsync(ok -> {
+                    if (!ok) {
                         infoArea.append("[HỦY] Xác thực PIN thất bại\n");
                         statusLabel.setText("Thất bại: Sai PIN");
                         statusLabel.setForeground(Color.RED);
@@ -334,7 +448,7 @@ public class CustomerWindow extends JFrame {
                     purchaseBtn.setEnabled(true);
                     topupBtn.setEnabled(true);
                     checkinBtn.setEnabled(true);
-                });
+                }));
 
             } catch (Exception ex) {
                 infoArea.append("[LỖI] " + ex.getMessage() + "\n");
@@ -343,7 +457,7 @@ public class CustomerWindow extends JFrame {
             } finally {
                 swipeBtn.setEnabled(true);
             }
-        }).start();
+        });
     }
 
     private void checkIn() {
@@ -353,7 +467,7 @@ public class CustomerWindow extends JFrame {
         }
         try {
             MembersDao dao = new MembersDao();
-            MemberRecord rec = dao.getByUserId(currentCard.userId);
+            MemberCheckinView rec = dao.getCheckinView(currentCard.userId);
             java.time.LocalDate today = java.time.LocalDate.now();
             if (rec != null && rec.lastCheckinDate != null) {
                 try {
@@ -371,34 +485,38 @@ public class CustomerWindow extends JFrame {
             }
 
             // Xác thực PIN để ghi thẻ an toàn
-            if (!verifyPinDialog()) {
-                infoArea.append("[HỦY] Check-in: Không thể xác thực PIN\n");
-                return;
-            }
-
-            // Trừ 1 ngày trên thẻ (expiryDays)
-            currentCard.expiryDays = (short)(currentCard.expiryDays - 1);
-            javax.smartcardio.ResponseAPDU writeResp = pcsc.transmit(CardHelper.buildWriteCommand(currentCard));
-            if ((writeResp.getSW() & 0xFF00) != 0x9000) {
-                infoArea.append("[LỖI] Ghi thẻ check-in thất bại\n");
-                JOptionPane.showMessageDialog(this, "Lỗi ghi thẻ khi check-in");
-                // Rollback in memory
-                currentCard.expiryDays = (short)(currentCard.expiryDays + 1);
-                return;
-            }
-
-            // Cập nhật DB: giảm expiry_date 1 ngày và lưu last_checkin_date
-            java.time.LocalDate newExpiry = (rec != null && rec.expiryDate != null) ? rec.expiryDate.minusDays(1) : null;
-            try {
-                dao.updateExpiryAndCheckin(currentCard.userId, newExpiry, today.toString());
-                infoArea.append("[DB] Đã cập nhật check-in hôm nay\n");
-            } catch (Exception dbEx) {
-                infoArea.append("[DB] Lỗi cập nhật check-in: " + dbEx.getMessage() + "\n");
-            }
+            final java.time.LocalDate newExpiry = (rec != null && rec.expiryDate != null) ? rec.expiryDate.minusDays(1) : null;
+            verifyPinAsync(ok -> {
+                if (!ok) {
+                    infoArea.append("[HỦY] Check-in: Không thể xác thực PIN\n");
+                    return;
+                }
 
-            // Hiển thị
-            infoArea.append("✅ Check-in thành công. Đã trừ 1 ngày. Còn: " + currentCard.expiryDays + " ngày\n");
-            CardEventBroadcaster.getInstance().broadcastCardSwipe(currentCard);
+                // Trừ 1 ngày trên thẻ (CHECKIN, thẻ tự trừ expiryDays)
+                adjustCardAsync(CardHelper.buildCheckinCommand(), 0, -1)
+                    .whenComplete((resp, cardEx) -> SwingUtilities.invokeLater(() -> {
+                        if (cardEx != null || resp.getSW() != 0x9000) {
+                            infoArea.append("[LỖI] Ghi thẻ check-in thất bại: " + adjustFailure(resp, cardEx, CardHelper.SW_INSUFFICIENT, "Thẻ đã hết hạn") + "\n");
+                            JOptionPane.showMessageDialog(this, "Lỗi ghi thẻ khi check-in");
+                            return;
+                        }
+                        CardHelper.applyBalanceResponse(resp, currentCard);
+
+                        // Cập nhật DB: giảm expiry_date 1 ngày và lưu last_checkin_date
+                        dao.updateExpiryAndCheckinAsync(currentCard.userId, newExpiry, today.toString())
+                            .whenComplete((n, dbEx) -> SwingUtilities.invokeLater(() -> {
+                                if (dbEx == null) {
+                                    infoArea.append("[DB] Đã cập nhật check-in hôm nay\n");
+                                } else {
+                                    infoArea.append("[DB] Lỗi cập nhật check-in: " + DbWriter.rootCause(dbEx).getMessage() + "\n");
+                                }
+                            }));
+
+                        // Hiển thị
+                        infoArea.append("✅ Check-in thành công. Đã trừ 1 ngày. Còn: " + currentCard.expiryDays + " ngày\n");
+                        CardEventBroadcaster.getInstance().broadcastCardSwipe(currentCard);
+                    }));
+            });
         } catch (Exception ex) {
             infoArea.append("[LỖI] " + ex.getMessage() + "\n");
         }
@@ -452,8 +570,9 @@ public class CustomerWindow extends JFrame {
             info.append("CCCD: ").append(currentCard.cccd).append("\n");
         }
         short retriesToShow = currentCard.pinRetry;
-        MemberRecord rec = null;
-        try { rec = new MembersDao().getByUserId(currentCard.userId); } catch (Exception ignored) {}
+        MembersDao dao = new MembersDao();
+        MemberCheckinView rec = null;
+        try { rec = dao.getCheckinView(currentCard.userId); } catch (Exception ignored) {}
         if (rec != null) {
             retriesToShow = rec.pinretry;
         }
@@ -463,21 +582,60 @@ public class CustomerWindow extends JFrame {
         text.setText(info.toString());
         panel.add(new JScrollPane(text), BorderLayout.CENTER);
 
-        // Avatar hiển thị từ DB nếu có
-        if (rec != null && rec.avatarData != null && rec.avatarData.length > 0) {
-            try {
-                java.io.ByteArrayInputStream bais = new java.io.ByteArrayInputStream(rec.avatarData);
-                java.awt.image.BufferedImage img = javax.imageio.ImageIO.read(bais);
-                Image scaled = img.getScaledInstance(128, 128, Image.SCALE_SMOOTH);
-                JLabel avatarLabel = new JLabel(new ImageIcon(scaled));
-                avatarLabel.setBorder(BorderFactory.createTitledBorder("Ảnh Đại Diện"));
-                panel.add(avatarLabel, BorderLayout.EAST);
-            } catch (Exception ignored) {}
+        // Avatar: cache/DB trước; không có (kiosk offline) thì đọc từ thẻ
+        JLabel avatarLabel = new JLabel();
+        avatarLabel.setBorder(BorderFactory.createTitledBorder("Ảnh Đại Diện"));
+        ImageIcon avatar = null;
+        if (rec != null) {
+            try { avatar = AvatarCache.getInstance().fromDb(dao, currentCard.userId); } catch (Exception ignored) {}
+        }
+        if (avatar != null) {
+            avatarLabel.setIcon(avatar);
+            panel.add(avatarLabel, BorderLayout.EAST);
+        } else {
+            avatarLabel.setText("Đang tải ảnh...");
+            panel.add(avatarLabel, BorderLayout.EAST);
+            loadAvatarFromCard(currentCard.userId, avatarLabel);
         }
 
         JOptionPane.showMessageDialog(this, panel, "Thông Tin Cá Nhân", JOptionPane.INFORMATION_MESSAGE);
     }
 
+    /** Log if the card's RSA key is not the one registered for this member (cloned or re-keyed card). */
+    private void warnOnKeyMismatch(CardIdentity identity) {
+        if (identity.keyFingerprint == null) return;
+        try {
+            MemberRecord rec = new MembersDao().getScalarRow(identity.userId);
+            String registered = RsaKeyService.registeredFingerprintHex(rec);
+            String expectedAlg = identity.keyAlg == CardHelper.KEY_ALG_EC ? "EC" : "RSA";
+            boolean sameAlg = rec != null && expectedAlg.equals(rec.keyAlg != null ? rec.keyAlg : "RSA");
+            if (registered != null && (!sameAlg || !registered.equals(identity.keyFingerprint))) {
+                infoArea.append("[CẢNH BÁO] Khóa " + expectedAlg + " trên thẻ không khớp với Database!\n");
+                MemberRecord owner = new MembersDao().findByKeyFingerprint(HexCodec.decode(identity.keyFingerprint));
+                if (owner != null && owner.id != identity.userId) {
+                    infoArea.append("[CẢNH BÁO] Khóa này đã đăng ký cho thành viên ID " + owner.id + "\n");
+                }
+            }
+        } catch (Exception ignored) {}
+    }
+
+    /** Fill {@code label} with the avatar read from the card (checks the cache by hash first). */
+    private void loadAvatarFromCard(int userId, JLabel label) {
+        station.channel().submit(s -> {
+            AvatarService.Version version = AvatarService.readVersion(s);
+            if (version == null) return null;
+            ImageIcon cached = AvatarCache.getInstance().get(userId, version.hashHex);
+            if (cached != null) return cached;
+            return AvatarCache.getInstance().icon(userId, version.hashHex, AvatarService.read(s, version));
+        }).whenComplete((icon, ex) -> SwingUtilities.invokeLater(() -> {
+            label.setText(icon != null ? null : "Không có ảnh");
+            label.setIcon(icon);
+            // The dialog was laid out around the "Đang tải ảnh..." text; grow it to fit the icon
+            java.awt.Window dialog = SwingUtilities.getWindowAncestor(label);
+            if (dialog != null) dialog.pack();
+        }));
+    }
+
     private void renewPackage() {
         if (currentCard == null) {
             JOptionPane.showMessageDialog(this, "Vui lòng quẹt thẻ trước");
@@ -552,59 +710,58 @@ public class CustomerWindow extends JFrame {
         if (confirm != JOptionPane.YES_OPTION) return;
 
         // Xác thực PIN trước khi ghi
-        if (!verifyPinDialog()) {
-            infoArea.append("[HỦY] Không thể xác thực PIN\n");
-            return;
-        }
+        final String selectedPackage = selected;
+        final int renewDays = daysToAdd;
+        final int renewPrice = price;
+        verifyPinAsync(ok -> {
+            if (!ok) {
+                infoArea.append("[HỦY] Không thể xác thực PIN\n");
+                return;
+            }
 
-        try {
-            // Trừ tiền và cộng ngày
-            currentCard.balance = currentCard.balance - price;
-            currentCard.expiryDays = (short) (currentCard.expiryDays + daysToAdd);
-
-            infoArea.append("\n[TIẾN HÀNH] Gia hạn " + selected + "...\n");
-
-            // Write updated card
-            javax.smartcardio.CommandAPDU writeCmd = CardHelper.buildWriteCommand(currentCard);
-            javax.smartcardio.ResponseAPDU writeResp = pcsc.transmit(writeCmd);
-
-            if ((writeResp.getSW() & 0xFF00) == 0x9000) {
-                infoArea.append("[OK] Gia hạn thành công!\n");
-                infoArea.append("Đã trừ: " + String.format("%,d VND", price) + "\n");
-                infoArea.append("Gia hạn: +" + daysToAdd + " ngày\n");
-                infoArea.append("Hạn mới: " + currentCard.expiryDays + " ngày\n");
-                infoArea.append("Số dư còn: " + String.format("%,d VND", currentCard.balance) + "\n");
-                displayCardInfo();
-          
-                // �🔄 Broadcast để Staff thấy thay đổi
-                CardEventBroadcaster.getInstance().broadcastCardSwipe(currentCard);
-
-                // [DB] Log renew and update balance/expiry
-                try {
-                    TransactionsDao txDao = new TransactionsDao();
-                    txDao.logRenew(currentCard.userId, daysToAdd, price);
-                    MembersDao mDao = new MembersDao();
+            infoArea.append("\n[TIẾN HÀNH] Gia hạn " + selectedPackage + "...\n");
+
+            // Trừ tiền và cộng ngày trên thẻ (DEBIT kèm số ngày)
+            adjustCardAsync(CardHelper.buildDebitCommand(renewPrice, renewDays), -renewPrice, renewDays)
+                .whenComplete((resp, cardEx) -> SwingUtilities.invokeLater(() -> {
+                    if (cardEx != null || resp.getSW() != 0x9000) {
+                        infoArea.append("[LỖI] Gia hạn thất bại: " + adjustFailure(resp, cardEx, CardHelper.SW_INSUFFICIENT, "Số dư không đủ") + "\n");
+                        return;
+                    }
+                    CardHelper.applyBalanceResponse(resp, currentCard);
+
+                    infoArea.append("[OK] Gia hạn thành công!\n");
+                    infoArea.append("Đã trừ: " + String.format("%,d VND", renewPrice) + "\n");
+                    infoArea.append("Gia hạn: +" + renewDays + " ngày\n");
+                    infoArea.append("Hạn mới: " + currentCard.expiryDays + " ngày\n");
+                    infoArea.append("Số dư còn: " + String.format("%,d VND", currentCard.balance) + "\n");
+                    displayCardInfo();
+
+                    // 🔄 Broadcast để Staff thấy thay đổi
+                    CardEventBroadcaster.getInstance().broadcastCardSwipe(currentCard);
+
+                    // [DB] Log renew and update balance/expiry atomically
+                    final int userId = currentCard.userId;
+                    final int newBalance = currentCard.balance;
                     java.time.LocalDate expiryDate = currentCard.expiryDays > 0 ? java.time.LocalDate.now().plusDays(currentCard.expiryDays) : null;
-                    mDao.updateBalanceAndExpiry(currentCard.userId, currentCard.balance, expiryDate);
-                    infoArea.append("[DB] Đã ghi gia hạn vào Database\n");
-                } catch (Exception dbEx) {
-                    infoArea.append("[DB] Lỗi ghi gia hạn: " + dbEx.getMessage() + "\n");
-                    // Fail-safe: ghi log khẩn cấp nếu DB lỗi
-                    try {
-                        FileLogger.logRenew(currentCard.userId, price, currentCard.balance, daysToAdd);
-                        infoArea.append("[LOG] Đã lưu emergency log (RENEW) để đối soát.\n");
-                        JOptionPane.showMessageDialog(this, "⚠️ Giao dịch đã ghi lên thẻ nhưng DB lỗi. Đã lưu log khẩn cấp!", "Cảnh báo", JOptionPane.WARNING_MESSAGE);
-                    } catch (Exception ignored) {}
-                }
-            } else {
-                infoArea.append("[LỖI] Gia hạn thất bại\n");
-                // Rollback
-                currentCard.balance = currentCard.balance + price;
-                currentCard.expiryDays = (short) (currentCard.expiryDays - daysToAdd);
-            }
-        } catch (Exception ex) {
-            infoArea.append("[LỖI] " + ex.getMessage() + "\n");
-        }
+                    new PaymentService().recordRenew(userId, renewDays, renewPrice, newBalance, expiryDate)
+                        .whenComplete((v, dbEx) -> {
+                            // Fail-safe: ghi log khẩn cấp nếu DB lỗi, synchronously on the DB completion thread (not the EDT)
+                            if (dbEx != null) FileLogger.logRenew(userId, renewPrice, newBalance, renewDays);
+                            SwingUtilities.invokeLater(() -> {
+                                if (dbEx == null) {
+                                    infoArea.append("[DB] Đã ghi gia hạn vào Database\n");
+                                    return;
+                                }
+                                infoArea.append("[DB] Lỗi ghi gia hạn: " + DbWriter.rootCause(dbEx).getMessage() + "\n");
+                                try {
+                                    infoArea.append("[LOG] Đã lưu emergency log (RENEW) để đối soát.\n");
+                                    JOptionPane.showMessageDialog(this, "⚠️ Giao dịch đã ghi lên thẻ nhưng DB lỗi. Đã lưu log khẩn cấp!", "Cảnh báo", JOptionPane.WARNING_MESSAGE);
+                                } catch (Exception ignored) {}
+                            });
+                        });
+                }));
+        });
     }
 
     private void changePin() {
@@ -639,8 +796,23 @@ public class CustomerWindow extends JFrame {
         // ✅ VERIFY PIN cũ và lấy dữ liệu đã giải mã
         javax.smartcardio.CommandAPDU verifyCmd =
                 CardHelper.buildVerifyPinCommand(oldPin);
-        javax.smartcardio.ResponseAPDU verifyResp = pcsc.transmit(verifyCmd);
+        station.channel().transmit(verifyCmd)
+            .whenComplete((verifyResp, ex) -> SwingUtilities.invokeLater(() -> {
+                if (ex != null) {
+                    infoArea.append("[LỖI] " + AsyncCardChannel.rootCause(ex).getMessage() + "\n");
+                    return;
+                }
+                onOldPinVerified(verifyResp, oldPin);
+            }));
 
+    } catch (Exception ex) {
+        infoArea.append("[LỖI] " + ex.getMessage() + "\n");
+    }
+}
+
+    /** Second step of changePin, on the EDT once the old PIN was checked by the card. */
+    private void onOldPinVerified(javax.smartcardio.ResponseAPDU verifyResp, String oldPin) {
+    try {
         if (verifyResp.getSW() != 0x9000) {
             // Cập nhật retry counter vào DB nếu sai PIN
             try {
@@ -653,7 +825,7 @@ public class CustomerWindow extends JFrame {
                     retries = -1;
                 }
                 if (currentCard != null && currentCard.userId > 0 && retries >= 0) {
-                    new MembersDao().updatePinRetry(currentCard.userId, retries);
+                    new MembersDao().updatePinRetryAsync(currentCard.userId, retries);
                 }
             } catch (Exception ignored) {}
 
@@ -662,7 +834,7 @@ public class CustomerWindow extends JFrame {
             return;
         }
         // Thành công: reset về 5
-        try { if (currentCard != null && currentCard.userId > 0) new MembersDao().updatePinRetry(currentCard.userId, (short)5); } catch (Exception ignored) {}
+        try { if (currentCard != null && currentCard.userId > 0) new MembersDao().updatePinRetryAsync(currentCard.userId, (short)5); } catch (Exception ignored) {}
         
         // 💾 Lưu dữ liệu đã giải mã (sẽ re-encrypt với PIN mới)
         CardData decryptedData = CardHelper.parseVerifyPinResponse(verifyResp, oldPin);
@@ -670,7 +842,7 @@ public class CustomerWindow extends JFrame {
 
         // 🔁 Nhập PIN mới
         JPasswordField newPinField = new JPasswordField();
-        opt = JOptionPane.showConfirmDialog(
+        int opt = JOptionPane.showConfirmDialog(
             this,
             new Object[]{"PIN mới (6 chữ số):", newPinField},
             "Đổi PIN",
@@ -696,25 +868,42 @@ public class CustomerWindow extends JFrame {
             return;
         }
 
-        // 🔄 Gọi CHANGE_PIN command trên thẻ
+        // 🔄 Gọi CHANGE_PIN rồi đọc lại thẻ trong cùng một lượt trên đầu đọc
         infoArea.append("\n[TIẾN HÀNH] Đổi PIN...\n");
 
         javax.smartcardio.CommandAPDU changeCmd =
                 CardHelper.buildChangePinCommand(oldPin, newPin);
-        javax.smartcardio.ResponseAPDU changeResp = pcsc.transmit(changeCmd);
+        javax.smartcardio.CommandAPDU readCmd = CardHelper.buildReadCommand();
+        station.channel().runUpdateScript(slowCardNotice(), changeCmd, readCmd)
+            .whenComplete((responses, ex) -> SwingUtilities.invokeLater(() -> {
+                if (ex != null) {
+                    infoArea.append("[LỖI] " + AsyncCardChannel.rootCause(ex).getMessage() + "\n");
+                    JOptionPane.showMessageDialog(this, "❌ Đổi PIN thất bại: " + AsyncCardChannel.rootCause(ex).getMessage());
+                    return;
+                }
+                onPinChanged(responses, newPin);
+            }));
+
+    } catch (Exception ex) {
+        infoArea.append("[LỖI] " + ex.getMessage() + "\n");
+    }
+}
+
+    /** Last step of changePin: responses are CHANGE_PIN and, if it succeeded, READ. */
+    private void onPinChanged(List<javax.smartcardio.ResponseAPDU> responses, String newPin) {
+        javax.smartcardio.ResponseAPDU changeResp = responses.get(0);
 
         if (changeResp.getSW() == 0x9000) {
             infoArea.append("[OK] Đổi PIN thành công!\n");
             infoArea.append("[INFO] Card đã tự động re-encrypt dữ liệu với PIN mới\n");
             // Sau khi đổi PIN thành công, retry counter đã về 5 trên thẻ
-            try { if (currentCard != null && currentCard.userId > 0) new MembersDao().updatePinRetry(currentCard.userId, (short)5); } catch (Exception ignored) {}
+            try { if (currentCard != null && currentCard.userId > 0) new MembersDao().updatePinRetryAsync(currentCard.userId, (short)5); } catch (Exception ignored) {}
             
             // ✅ ĐỌC LẠI THẺ thay vì VERIFY (vì session vẫn hợp lệ)
             try {
-                javax.smartcardio.CommandAPDU readCmd = CardHelper.buildReadCommand();
-                javax.smartcardio.ResponseAPDU readResp = pcsc.transmit(readCmd);
+                javax.smartcardio.ResponseAPDU readResp = responses.size() > 1 ? responses.get(1) : null;
                 
-                if (readResp.getSW() == 0x9000) {
+                if (readResp != null && readResp.getSW() == 0x9000) {
                     // ✅ DEBUG: In ra raw bytes để kiểm tra
                     byte[] rawData = readResp.getData();
                     infoArea.append("[DEBUG] Raw response length: " + rawData.length + " bytes\n");
@@ -761,16 +950,11 @@ public class CustomerWindow extends JFrame {
                     retries = 0;
                 }
                 if (retries >= 0 && currentCard != null && currentCard.userId > 0) {
-                    new MembersDao().updatePinRetry(currentCard.userId, retries);
+                    new MembersDao().updatePinRetryAsync(currentCard.userId, retries);
                 }
             } catch (Exception ignored) {}
         }
-
-    } catch (Exception ex) {
-        infoArea.append("[LỖI] " + ex.getMessage() + "\n");
     }
-}
-
 
     private void purchaseItem() {
         if (currentCard == null) {
@@ -953,63 +1137,58 @@ public class CustomerWindow extends JFrame {
                     }
                     
                     infoArea.append("[✓ CHẤP NHẬN] Nhân viên đã xác nhận!\n");
-                    if (!verifyPinDialog()) {
-                        infoArea.append("[HỦY] Xác thực PIN thất bại\n");
-                        return;
-}
-                    // ✅ Trừ tiền ĐÚNG - SAU KHI được xác nhận
-                    currentCard.balance = currentCard.balance - finalTotalPrice;
-                    
-                    try {
-                        javax.smartcardio.CommandAPDU writeCmd = CardHelper.buildWriteCommand(currentCard);
-                        javax.smartcardio.ResponseAPDU writeResp = pcsc.transmit(writeCmd);
-
-                        if ((writeResp.getSW() & 0xFF00) == 0x9000) {
-                            infoArea.append("[OK] Thanh toán thành công!\n");
-                            infoArea.append("Số dư mới: " + String.format("%,d VND", currentCard.balance) + "\n");
-                            displayCardInfo();
-
-                            // Firebase sync removed
-
-                            // 🔄 Broadcast để Staff thấy số dư mới
-                            CardEventBroadcaster.getInstance().broadcastCardSwipe(currentCard);
-
-                            // [DB] Log purchase and update balance
-                            try {
-                                TransactionsDao txDao = new TransactionsDao();
-                                java.util.List<CardEventBroadcaster.CartItem> itemsForDb = approvalItems;
-                                txDao.logPurchase(currentCard.userId, itemsForDb, finalTotalPrice);
-                                MembersDao mDao = new MembersDao();
-                                java.time.LocalDate expiryDate = currentCard.expiryDays > 0 ? java.time.LocalDate.now().plusDays(currentCard.expiryDays) : null;
-                                mDao.updateBalanceAndExpiry(currentCard.userId, currentCard.balance, expiryDate);
-                                infoArea.append("[DB] Đã ghi giao dịch vào Database\n");
-                            } catch (Exception dbEx) {
-                                infoArea.append("[DB] Lỗi ghi giao dịch: " + dbEx.getMessage() + "\n");
-                                try {
-                                    FileLogger.logPurchase(currentCard.userId, finalTotalPrice, currentCard.balance, null);
-                                    infoArea.append("[LOG] Đã lưu emergency log (PURCHASE) để đối soát.\n");
-                                    JOptionPane.showMessageDialog(this, "⚠️ Giao dịch đã ghi lên thẻ nhưng DB lỗi. Đã lưu log khẩn cấp!", "Cảnh báo", JOptionPane.WARNING_MESSAGE);
-                                } catch (Exception ignored) {}
-                            }
-                            
-                            JOptionPane.showMessageDialog(
-                                shopFrame, 
-                                "✅ Thanh toán thành công!\nSố dư còn: " + String.format("%,d VND", currentCard.balance), 
-                                "Hoàn Tất", 
-                                JOptionPane.INFORMATION_MESSAGE
-                            );
-                            
-                            cart.clear();
-                            shopFrame.dispose();
-                        } else {
-                            infoArea.append("[LỖI] Thanh toán thất bại\n");
-                            // Rollback
-                            currentCard.balance = currentCard.balance + finalTotalPrice;
+                    verifyPinAsync(ok -> {
+                        if (!ok) {
+                            infoArea.append("[HỦY] Xác thực PIN thất bại\n");
+                            return;
                         }
-                    } catch (Exception ex) {
-                        infoArea.append("[LỖI] " + ex.getMessage() + "\n");
-                        currentCard.balance = currentCard.balance + finalTotalPrice;
-                    }
+                        // ✅ Trừ tiền ĐÚNG - SAU KHI được xác nhận (DEBIT trên thẻ)
+                        adjustCardAsync(CardHelper.buildDebitCommand(finalTotalPrice, 0), -finalTotalPrice, 0)
+                            .whenComplete((resp, cardEx) -> SwingUtilities.invokeLater(() -> {
+                                if (cardEx != null || resp.getSW() != 0x9000) {
+                                    infoArea.append("[LỖI] Thanh toán thất bại: " + adjustFailure(resp, cardEx, CardHelper.SW_INSUFFICIENT, "Số dư không đủ") + "\n");
+                                    return;
+                                }
+                                CardHelper.applyBalanceResponse(resp, currentCard);
+
+                                infoArea.append("[OK] Thanh toán thành công!\n");
+                                infoArea.append("Số dư mới: " + String.format("%,d VND", currentCard.balance) + "\n");
+                                displayCardInfo();
+
+                                // 🔄 Broadcast để Staff thấy số dư mới
+                                CardEventBroadcaster.getInstance().broadcastCardSwipe(currentCard);
+
+                                // [DB] Log purchase and update balance atomically
+                                final int userId = currentCard.userId;
+                                final int newBalance = currentCard.balance;
+                                java.time.LocalDate expiryDate = currentCard.expiryDays > 0 ? java.time.LocalDate.now().plusDays(currentCard.expiryDays) : null;
+                                new PaymentService().recordPurchase(userId, approvalItems, finalTotalPrice, newBalance, expiryDate)
+                                    .whenComplete((v, dbEx) -> {
+                                        if (dbEx != null) FileLogger.logPurchase(userId, finalTotalPrice, newBalance, null);
+                                        SwingUtilities.invokeLater(() -> {
+                                            if (dbEx == null) {
+                                                infoArea.append("[DB] Đã ghi giao dịch vào Database\n");
+                                                return;
+                                            }
+                                            infoArea.append("[DB] Lỗi ghi giao dịch: " + DbWriter.rootCause(dbEx).getMessage() + "\n");
+                                            try {
+                                                infoArea.append("[LOG] Đã lưu emergency log (PURCHASE) để đối soát.\n");
+                                                JOptionPane.showMessageDialog(this, "⚠️ Giao dịch đã ghi lên thẻ nhưng DB lỗi. Đã lưu log khẩn cấp!", "Cảnh báo", JOptionPane.WARNING_MESSAGE);
+                                            } catch (Exception ignored) {}
+                                        });
+                                    });
+
+                                JOptionPane.showMessageDialog(
+                                    shopFrame, 
+                                    "✅ Thanh toán thành công!\nSố dư còn: " + String.format("%,d VND", currentCard.balance), 
+                                    "Hoàn Tất", 
+                                    JOptionPane.INFORMATION_MESSAGE
+                                );
+
+                                cart.clear();
+                                shopFrame.dispose();
+                            }));
+                    });
                 });
             }).start();
         });
@@ -1147,59 +1326,51 @@ public class CustomerWindow extends JFrame {
     SwingUtilities.invokeLater(() -> {
         infoArea.append("[✓ CHẤP NHẬN] Nhân viên đã xác nhận!\n");
         
-        // 🔐 VERIFY PIN – Phải chạy trong EDT để dialog hiển thị đúng
-        if (!verifyPinDialog()) {
-            infoArea.append("[HỦY] Xác thực PIN thất bại\n");
-            return;
-        }
+        // 🔐 VERIFY PIN – Dialog chạy trong EDT, APDU chạy trên worker của đầu đọc
+        verifyPinAsync(ok -> {
+            if (!ok) {
+                infoArea.append("[HỦY] Xác thực PIN thất bại\n");
+                return;
+            }
 
-        // 💾 WRITE – Sau khi PIN đã verify
-        currentCard.balance += finalAmount;
+            // 💾 CREDIT – Sau khi PIN đã verify
+            adjustCardAsync(CardHelper.buildCreditCommand(finalAmount), finalAmount, 0)
+                .whenComplete((resp, cardEx) -> SwingUtilities.invokeLater(() -> {
+                    if (cardEx != null || resp.getSW() != 0x9000) {
+                        infoArea.append("[LỖI] Nạp tiền thất bại: " + adjustFailure(resp, cardEx, CardHelper.SW_WRONG_DATA, "Số dư vượt giới hạn") + "\n");
+                        return;
+                    }
+                    CardHelper.applyBalanceResponse(resp, currentCard);
 
-        try {
-            javax.smartcardio.CommandAPDU writeCmd =
-                CardHelper.buildWriteCommand(currentCard);
-            javax.smartcardio.ResponseAPDU writeResp =
-                pcsc.transmit(writeCmd);
-
-            if (writeResp.getSW() == 0x9000) {
-                infoArea.append("[OK] Nạp tiền thành công!\n");
-                infoArea.append("💰 Đã nạp: " + String.format("%,d VND", finalAmount) + "\n");
-                infoArea.append("💳 Số dư mới: " + String.format("%,d VND", currentCard.balance) + "\n");
-                displayCardInfo();
-            
-                
-                CardEventBroadcaster.getInstance()
-                    .broadcastCardSwipe(currentCard);
+                    infoArea.append("[OK] Nạp tiền thành công!\n");
+                    infoArea.append("💰 Đã nạp: " + String.format("%,d VND", finalAmount) + "\n");
+                    infoArea.append("💳 Số dư mới: " + String.format("%,d VND", currentCard.balance) + "\n");
+                    displayCardInfo();
 
-                // [DB] Log topup and update balance
-                try {
-                    TransactionsDao txDao = new TransactionsDao();
-                    txDao.logTopup(currentCard.userId, finalAmount, finalPaymentMethod);
-                    MembersDao mDao = new MembersDao();
-                    java.time.LocalDate expiryDate = currentCard.expiryDays > 0 ? java.time.LocalDate.now().plusDays(currentCard.expiryDays) : null;
-                    mDao.updateBalanceAndExpiry(currentCard.userId, currentCard.balance, expiryDate);
-                    infoArea.append("[DB] Đã ghi giao dịch vào Database\n");
-                } catch (Exception dbEx) {
-                    infoArea.append("[DB] Lỗi ghi giao dịch: " + dbEx.getMessage() + "\n");
-                    try {
-                        FileLogger.logTopup(currentCard.userId, finalAmount, currentCard.balance);
-                        infoArea.append("[LOG] Đã lưu emergency log (TOPUP) để đối soát.\n");
-                        JOptionPane.showMessageDialog(this, "⚠️ Giao dịch đã ghi lên thẻ nhưng DB lỗi. Đã lưu log khẩn cấp!", "Cảnh báo", JOptionPane.WARNING_MESSAGE);
-                    } catch (Exception ignored) {}
-                }
-            } else {
-                infoArea.append("[LỖI] Nạp tiền thất bại (SW: " +
-                    Integer.toHexString(writeResp.getSW()) + ")\n");
-                // Rollback
-                currentCard.balance -= finalAmount;
-            }
+                    CardEventBroadcaster.getInstance()
+                        .broadcastCardSwipe(currentCard);
 
-        } catch (Exception e) {
-            infoArea.append("[LỖI] " + e.getMessage() + "\n");
-            // Rollback
-            currentCard.balance -= finalAmount;
-        }
+                    // [DB] Log topup and update balance atomically
+                    final int userId = currentCard.userId;
+                    final int newBalance = currentCard.balance;
+                    java.time.LocalDate expiryDate = currentCard.expiryDays > 0 ? java.time.LocalDate.now().plusDays(currentCard.expiryDays) : null;
+                    new PaymentService().recordTopup(userId, finalAmount, finalPaymentMethod, newBalance, expiryDate)
+                        .whenComplete((v, dbEx) -> {
+                            if (dbEx != null) FileLogger.logTopup(userId, finalAmount, newBalance);
+                            SwingUtilities.invokeLater(() -> {
+                                if (dbEx == null) {
+                                    infoArea.append("[DB] Đã ghi giao dịch vào Database\n");
+                                    return;
+                                }
+                                infoArea.append("[DB] Lỗi ghi giao dịch: " + DbWriter.rootCause(dbEx).getMessage() + "\n");
+                                try {
+                                    infoArea.append("[LOG] Đã lưu emergency log (TOPUP) để đối soát.\n");
+                                    JOptionPane.showMessageDialog(this, "⚠️ Giao dịch đã ghi lên thẻ nhưng DB lỗi. Đã lưu log khẩn cấp!", "Cảnh báo", JOptionPane.WARNING_MESSAGE);
+                                } catch (Exception ignored) {}
+                            });
+                        });
+                }));
+        });
     });
 
 }).start();
@@ -1208,8 +1379,8 @@ public class CustomerWindow extends JFrame {
 
     public static void main(String[] args) {
         try {
-            PcscClient pcsc = new PcscClient();
-            SwingUtilities.invokeLater(() -> new CustomerWindow(pcsc));
+            ReaderStation station = ReaderRegistry.discover().forRole(ReaderRegistry.ROLE_CUSTOMER);
+            SwingUtilities.invokeLater(() -> new CustomerWindow(station));
         } catch (Exception e) {
             JOptionPane.showMessageDialog(null, "Lỗi: " + e.getMessage());
         }
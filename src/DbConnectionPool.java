@@ -0,0 +1,198 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Small SQLite connection pool shared by MembersDao and TransactionsDao.
+ *
+ * One writer connection (SQLite allows a single writer anyway) plus N
+ * read-only connections, all opened lazily and kept for the life of the
+ * JVM. Each connection caches its prepared statements, so a swipe that
+ * triggers several DAO calls no longer opens a file per call.
+ *
+ * Writes from the DAOs go through {@link #writes()}, a single-writer actor
+ * that group-commits queued writes on the writer connection.
+ *
+ * Reader count: -Dgym.db.readers=N (default 2). Pools are closed by a
+ * shutdown hook, or explicitly via {@link #shutdownAll()}.
+ */
+public final class DbConnectionPool {
+    /** Unit of work run on a pooled connection. */
+    public interface SqlWork<T> {
+        T run(PooledConnection conn) throws SQLException;
+    }
+
+    private static final Map<String, DbConnectionPool> POOLS = new ConcurrentHashMap<>();
+    private static volatile boolean hookInstalled;
+
+    private final String dbUrl;
+    private final int readerCount;
+    private final BlockingQueue<PooledConnection> idleReaders;
+    private final List<PooledConnection> allReaders = new ArrayList<>();
+    private final ReentrantLock writerLock = new ReentrantLock();
+    private PooledConnection writer;
+    private volatile DbWriter writeActor;
+    private volatile boolean closed;
+
+    private DbConnectionPool(String dbUrl, int readerCount) {
+        this.dbUrl = dbUrl;
+        this.readerCount = Math.max(1, readerCount);
+        this.idleReaders = new ArrayBlockingQueue<>(this.readerCount);
+    }
+
+    /** Shared pool for the given JDBC URL. Does no I/O until first use. */
+    public static DbConnectionPool forUrl(String dbUrl) {
+        DbConnectionPool pool = POOLS.computeIfAbsent(dbUrl,
+                url -> new DbConnectionPool(url, Integer.getInteger("gym.db.readers", 2)));
+        installShutdownHook();
+        return pool;
+    }
+
+    private static void installShutdownHook() {
+        if (hookInstalled) return;
+        synchronized (POOLS) {
+            if (hookInstalled) return;
+            Runtime.getRuntime().addShutdownHook(new Thread(DbConnectionPool::shutdownAll, "db-pool-shutdown"));
+            hookInstalled = true;
+        }
+    }
+
+    /** Close every pool (idempotent). */
+    public static void shutdownAll() {
+        for (DbConnectionPool pool : POOLS.values()) {
+            pool.close();
+        }
+        POOLS.clear();
+    }
+
+    /** Single-writer actor for this database, started on first use. */
+    public DbWriter writes() {
+        DbWriter actor = writeActor;
+        if (actor == null) {
+            synchronized (this) {
+                actor = writeActor;
+                if (actor == null) {
+                    actor = new DbWriter(this, dbUrl.substring(dbUrl.lastIndexOf(':') + 1));
+                    writeActor = actor;
+                }
+            }
+        }
+        return actor;
+    }
+
+    public <T> T read(SqlWork<T> work) throws SQLException {
+        PooledConnection conn = acquireReader();
+        try {
+            return work.run(conn);
+        } finally {
+            releaseReader(conn);
+        }
+    }
+
+    /**
+     * Run work on the single writer connection. Used by {@link DbWriter};
+     * DAOs should submit writes through {@link #writes()} instead.
+     */
+    public <T> T write(SqlWork<T> work) throws SQLException {
+        writerLock.lock();
+        try {
+            ensureOpen();
+            if (writer == null || !writer.isUsable()) {
+                writer = open(false);
+            }
+            return work.run(writer);
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    private PooledConnection acquireReader() throws SQLException {
+        ensureOpen();
+        PooledConnection conn = idleReaders.poll();
+        if (conn == null) {
+            synchronized (allReaders) {
+                if (allReaders.size() < readerCount) {
+                    conn = open(true);
+                    allReaders.add(conn);
+                }
+            }
+        }
+        if (conn == null) {
+            try {
+                conn = idleReaders.take();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a DB connection", ie);
+            }
+        }
+        if (!conn.isUsable()) {
+            synchronized (allReaders) {
+                allReaders.remove(conn);
+                conn = open(true);
+                allReaders.add(conn);
+            }
+        }
+        return conn;
+    }
+
+    private void releaseReader(PooledConnection conn) {
+        if (closed) {
+            conn.close();
+            return;
+        }
+        idleReaders.offer(conn);
+    }
+
+    private void ensureOpen() throws SQLException {
+        if (closed) throw new SQLException("Connection pool closed: " + dbUrl);
+        SchemaMigrations.ensureMigrated(dbUrl);
+    }
+
+    private PooledConnection open(boolean readOnly) throws SQLException {
+        Connection conn = DriverManager.getConnection(dbUrl);
+        try (Statement st = conn.createStatement()) {
+            // WAL lets readers run while the writer commits
+            st.execute("PRAGMA busy_timeout = 5000");
+            if (!readOnly) {
+                st.execute("PRAGMA journal_mode = WAL");
+            } else {
+                st.execute("PRAGMA query_only = 1");
+            }
+        }
+        return new PooledConnection(conn);
+    }
+
+    public void close() {
+        if (closed) return;
+        DbWriter actor = writeActor;
+        if (actor != null) {
+            // Flush queued writes before the writer connection goes away
+            actor.shutdown(5000);
+        }
+        closed = true;
+        writerLock.lock();
+        try {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        } finally {
+            writerLock.unlock();
+        }
+        synchronized (allReaders) {
+            for (PooledConnection conn : allReaders) {
+                conn.close();
+            }
+            allReaders.clear();
+        }
+        idleReaders.clear();
+    }
+}
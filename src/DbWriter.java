@@ -0,0 +1,184 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Single-writer DB actor with group commit.
+ *
+ * All DAO writes are queued here and executed by one dedicated thread on the
+ * pool's writer connection. Whatever is waiting in the queue when the thread
+ * wakes up is committed as a single SQLite transaction (one fsync), each
+ * write wrapped in its own savepoint so a failing write only fails its own
+ * future. Futures complete after the batch has committed.
+ *
+ * Queue size: -Dgym.db.writeQueue (default 1024); max batch: -Dgym.db.maxBatch (default 64);
+ * {@link #await} timeout: -Dgym.db.awaitTimeoutMs (default 30000).
+ *
+ * Anything a write throws (Errors included) fails only that write's future;
+ * the writer thread keeps serving the queue.
+ */
+public final class DbWriter {
+    private static final long OFFER_TIMEOUT_MS = 2000;
+    private static final long AWAIT_TIMEOUT_MS = Long.getLong("gym.db.awaitTimeoutMs", 30_000L);
+
+    private static final class Task<T> {
+        final DbConnectionPool.SqlWork<T> work;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+
+        Task(DbConnectionPool.SqlWork<T> work) {
+            this.work = work;
+        }
+
+        void run(PooledConnection conn) throws SQLException {
+            result = work.run(conn);
+        }
+
+        void complete() {
+            future.complete(result);
+        }
+    }
+
+    private final DbConnectionPool pool;
+    private final BlockingQueue<Task<?>> queue;
+    private final int maxBatch;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    DbWriter(DbConnectionPool pool, String name) {
+        this.pool = pool;
+        this.queue = new ArrayBlockingQueue<>(Integer.getInteger("gym.db.writeQueue", 1024));
+        this.maxBatch = Math.max(1, Integer.getInteger("gym.db.maxBatch", 64));
+        this.thread = new Thread(this::loop, "db-writer-" + name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queue a write. The future completes once the write is committed, or
+     * exceptionally with the SQLException that failed it.
+     */
+    public <T> CompletableFuture<T> submit(DbConnectionPool.SqlWork<T> work) {
+        Task<T> task = new Task<>(work);
+        if (!running) {
+            task.future.completeExceptionally(new SQLException("DB writer stopped"));
+            return task.future;
+        }
+        try {
+            if (!queue.offer(task, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                task.future.completeExceptionally(new SQLException("DB write queue full"));
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            task.future.completeExceptionally(new SQLException("Interrupted while queueing DB write", ie));
+        }
+        return task.future;
+    }
+
+    /**
+     * Block until the write commits, rethrowing its failure as SQLException.
+     * For callers that keep the synchronous DAO contract. Gives up after
+     * -Dgym.db.awaitTimeoutMs; the write itself stays queued and may still
+     * commit later.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.get(AWAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException te) {
+            throw new SQLException("Timed out after " + AWAIT_TIMEOUT_MS + " ms waiting for DB write", te);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for DB write", ie);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof SQLException) throw (SQLException) cause;
+            throw new SQLException(cause != null ? cause.getMessage() : "DB write failed", cause);
+        }
+    }
+
+    /** Unwrap CompletionException from a whenComplete/handle callback. */
+    public static Throwable rootCause(Throwable t) {
+        return (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
+    }
+
+    private void loop() {
+        List<Task<?>> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Task<?> first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                commitBatch(batch);
+            } catch (InterruptedException ie) {
+                running = false;
+            } catch (Throwable t) {
+                // Never let the only writer thread die: fail this batch, keep serving the queue
+                for (Task<?> task : batch) task.future.completeExceptionally(t);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commitBatch(List<Task<?>> batch) {
+        List<Task<?>> applied = new ArrayList<>(batch.size());
+        try {
+            pool.write(conn -> {
+                Connection c = conn.connection();
+                c.setAutoCommit(false);
+                try {
+                    for (Task<?> task : batch) {
+                        Savepoint sp = c.setSavepoint();
+                        try {
+                            task.run(conn);
+                            c.releaseSavepoint(sp);
+                            applied.add(task);
+                        } catch (Throwable ex) {
+                            c.rollback(sp);
+                            c.releaseSavepoint(sp);
+                            task.future.completeExceptionally(ex);
+                        }
+                    }
+                    c.commit();
+                } catch (SQLException ex) {
+                    try { c.rollback(); } catch (SQLException ignored) {}
+                    throw ex;
+                } finally {
+                    c.setAutoCommit(true);
+                }
+                return null;
+            });
+            for (Task<?> task : applied) {
+                task.complete();
+            }
+        } catch (SQLException ex) {
+            for (Task<?> task : batch) {
+                task.future.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /** Stop accepting writes and flush what is already queued. */
+    void shutdown(long timeoutMs) {
+        running = false;
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        Task<?> leftover;
+        while ((leftover = queue.poll()) != null) {
+            leftover.future.completeExceptionally(new SQLException("DB writer stopped"));
+        }
+    }
+}
@@ -1,26 +1,56 @@
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
+/**
+ * Emergency log of transactions the DB could not record, appended to
+ * failed_transactions.log through a JournalWriter that stays open for the
+ * whole run (fsync policy and segment size: see JournalWriter).
+ *
+ * The append is synchronous: when saveEmergencyLog returns, the line is in
+ * the file (and durable per the fsync policy), so it survives a JVM crash.
+ * It may wait for an fsync; call it off the EDT.
+ */
 public class FileLogger {
     private static final String LOG_FILE = "failed_transactions.log";
     private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
-    public static synchronized void saveEmergencyLog(String type, int userId, int amount, int newBalance, String extra) {
-        String time = LocalDateTime.now().format(TS);
-        String line = String.format("Time=%s | Type=%s | UserID=%d | Amount=%d | NewBalance=%d | Extra=%s%n",
-                time, type, userId, amount, newBalance, extra != null ? extra : "");
-        try (FileWriter fw = new FileWriter(LOG_FILE, true)) {
-            fw.write(line);
-            fw.flush();
-        } catch (IOException ioe) {
+    private static JournalWriter journal;
+
+    public static void saveEmergencyLog(String type, int userId, int amount, int newBalance, String extra) {
+        StringBuilder line = new StringBuilder(128)
+                .append("Time=").append(LocalDateTime.now().format(TS))
+                .append(" | Type=").append(type)
+                .append(" | UserID=").append(userId)
+                .append(" | Amount=").append(amount)
+                .append(" | NewBalance=").append(newBalance)
+                .append(" | Extra=").append(extra != null ? extra : "");
+        try {
+            journal().append(line);
+        } catch (IOException | RuntimeException ex) {
             // As last resort, print to stderr to not lose context
-            System.err.println("[EMERGENCY-LOG-FAIL] " + ioe.getMessage());
+            System.err.println("[EMERGENCY-LOG-FAIL] " + ex.getMessage());
             System.err.println(line);
         }
     }
 
+    /** Open on first use, so a broken disk only costs the failing call; closed (tail trimmed) at JVM exit. */
+    private static synchronized JournalWriter journal() throws IOException {
+        if (journal == null) {
+            JournalWriter opened = JournalWriter.fromSystemProperties(Paths.get(LOG_FILE));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    opened.close();
+                } catch (IOException ex) {
+                    System.err.println("[EMERGENCY-LOG] Close failed: " + ex.getMessage());
+                }
+            }, "emergency-log-close"));
+            journal = opened;
+        }
+        return journal;
+    }
+
     public static void logTopup(int userId, int amount, int newBalance) {
         saveEmergencyLog("TOPUP", userId, amount, newBalance, null);
     }
@@ -15,11 +15,15 @@ public class FunctionPanel extends JPanel {
     private final JPanel controlPanel;
     private final JLabel roleLabel;
     private String currentRole;
-    private final PcscClient pcsc;
+    private final ReaderStation station;
+    private final CardSession session;
     private CardData currentCard;
+    /** Card creation writes data, waits for RSA key generation and uploads the avatar in one job. */
+    private static final long CREATE_CARD_TIMEOUT_MS = 30000;
 
-    public FunctionPanel(PcscClient pcsc) {
-        this.pcsc = pcsc;
+    public FunctionPanel(ReaderStation station) {
+        this.station = station;
+        this.session = station.session();
         this.currentRole = "EMPLOYEE"; // Mặc định
 
         setLayout(new BorderLayout());
@@ -30,6 +34,12 @@ public class FunctionPanel extends JPanel {
             SwingUtilities.invokeLater(() -> displayCardInfo(card));
         });
         
+        // Card presence on the reader (CardPresenceMonitor)
+        CardEventBroadcaster.getInstance().addPresenceListener((event, reader) -> {
+            if (station.handles(reader)) SwingUtilities.invokeLater(() -> onCardPresence(event, reader));
+        });
+        CardPresenceMonitor.ensureStarted();
+        
         // Register as purchase approval listener
         CardEventBroadcaster.getInstance().addPurchaseListener((items, totalPrice) -> {
             return showPurchaseApprovalDialog(items, totalPrice);
@@ -87,6 +97,15 @@ public class FunctionPanel extends JPanel {
         add(controlPanel, BorderLayout.SOUTH);
     }
 
+    private void onCardPresence(CardEventBroadcaster.PresenceEvent event, String reader) {
+        if (event == CardEventBroadcaster.PresenceEvent.CARD_INSERTED) {
+            logArea.append("[THẺ] Phát hiện thẻ trên đầu đọc: " + reader + "\n");
+        } else {
+            currentCard = null;
+            logArea.append("[THẺ] Thẻ đã được rút khỏi đầu đọc: " + reader + "\n");
+        }
+    }
+
     private void addEmployeeButtons() {
         controlPanel.removeAll();
         logArea.setText("Nhân Viên: Quẹt thẻ khách để xem thông tin\n");
@@ -155,38 +174,27 @@ public class FunctionPanel extends JPanel {
         logArea.setText("");
         logArea.append("[TIẾN HÀNH] Đặt thẻ vào đúng vị trí...\n");
 
-        new Thread(() -> {
+        station.execute(() -> {
             try {
-                Thread.sleep(500);
-                pcsc.connectFirstPresentOrFirst();
+                session.ensureSession();
                 logArea.append("[OK] Kết nối thẻ thành công!\n\n");
 
-                // Select applet
-                javax.smartcardio.CommandAPDU selectCmd = new javax.smartcardio.CommandAPDU(0x00, 0xA4, 0x04, 0x00,
-                        new byte[]{(byte)0x26,(byte)0x12,(byte)0x20,(byte)0x03,(byte)0x03,(byte)0x00});
-                javax.smartcardio.ResponseAPDU selectResp = pcsc.transmit(selectCmd);
-
-                if ((selectResp.getSW() & 0xFF00) != 0x9000) {
-                    logArea.append("[LỖI] Không kết nối được applet\n");
-                    return;
-                }
-
-                // Read
-                javax.smartcardio.CommandAPDU readCmd = CardHelper.buildReadCommand();
-                javax.smartcardio.ResponseAPDU readResp = pcsc.transmit(readCmd);
-
-                if ((readResp.getSW() & 0xFF00) != 0x9000) {
+                // Identify (one short APDU; READ on old applets)
+                CardIdentity identity;
+                try {
+                    identity = CardIdentity.read(session);
+                } catch (IllegalStateException readEx) {
                     logArea.append("[LỖI] Không đọc được dữ liệu\n");
                     return;
                 }
 
-                currentCard = CardHelper.parseReadResponse(readResp.getData());
+                currentCard = identity.toCardData();
                 logArea.append("==== THÔNG TIN KHÁCH HÀNG ====\n");
                 logArea.append("ID: " + currentCard.userId + "\n");
                 if (currentRole.equals("ADMIN")) {
                     try {
                         MembersDao dao = new MembersDao();
-                        MemberRecord rec = dao.getByUserId(currentCard.userId);
+                        MemberSummary rec = dao.getSummary(currentCard.userId);
                         if (rec != null) {
                             logArea.append("Họ Tên: " + (rec.fullName != null ? rec.fullName : "") + "\n");
                             logArea.append("Ngày Sinh: " + (rec.birthdate != null ? rec.birthdate : "") + "\n");
@@ -216,7 +224,7 @@ public class FunctionPanel extends JPanel {
             } catch (Exception ex) {
                 logArea.append("[LỖI] " + ex.getMessage() + "\n");
             }
-        }).start();
+        });
     }
 
     private void createNewCard() {
@@ -351,143 +359,138 @@ public class FunctionPanel extends JPanel {
             newCard.pin = pinStr; // Use full 6-digit string
             newCard.pinRetry = 5; // Default 5 attempts
 
-            logArea.append("\n[BƯỚC 1] Kết nối thẻ...\n");
-            pcsc.connectFirstPresentOrFirst();
-            logArea.append("[OK] Kết nối thành công!\n");
+            final byte[] avatarBytes = imageBytesHolder[0];
+            final String cccd = cccdField.getText().trim();
+            logArea.append("\n[BƯỚC 1] Kết nối thẻ và chọn applet...\n");
+            // Card steps run on the reader worker; only the result dialogs come back to the EDT
+            station.channel().submitUpdate(s -> {
+                logArea.append("[OK] Applet đã sẵn sàng!\n");
 
-            // Select applet
-            logArea.append("[BƯỚC 2] Chọn applet...\n");
-            javax.smartcardio.CommandAPDU selectCmd = new javax.smartcardio.CommandAPDU(0x00, 0xA4, 0x04, 0x00,
-                    new byte[]{(byte)0x26,(byte)0x12,(byte)0x20,(byte)0x03,(byte)0x03,(byte)0x00});
-            javax.smartcardio.ResponseAPDU selectResp = pcsc.transmit(selectCmd);
-            
-            if ((selectResp.getSW() & 0xFF00) != 0x9000) {
-                logArea.append("[LỖI] Không chọn được applet (SW: " + 
-                             Integer.toHexString(selectResp.getSW()).toUpperCase() + ")\n");
-                return;
-            }
-            logArea.append("[OK] Applet đã sẵn sàng!\n");
-
-            // Check if card is blank by reading
-            logArea.append("[BƯỚC 2.5] Kiểm tra trạng thái thẻ...\n");
-            javax.smartcardio.CommandAPDU readCmd = CardHelper.buildReadCommand();
-            javax.smartcardio.ResponseAPDU readResp = pcsc.transmit(readCmd);
+                // Check if card is blank by reading
+                logArea.append("[BƯỚC 2.5] Kiểm tra trạng thái thẻ...\n");
+                javax.smartcardio.CommandAPDU readCmd = CardHelper.buildReadCommand();
+                javax.smartcardio.ResponseAPDU readResp = s.transmitIdempotent(readCmd);
             
-            if ((readResp.getSW() & 0xFF00) == 0x9000) {
-                byte[] data = readResp.getData();
-                int existingUserId = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+                if ((readResp.getSW() & 0xFF00) == 0x9000) {
+                    byte[] data = readResp.getData();
+                    int existingUserId = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
                 
-                if (existingUserId != 0) {
-                    logArea.append("[CẢNH BÁO] Thẻ đã có dữ liệu (UserID: " + existingUserId + ")\n");
-                    logArea.append("[BƯỚC 2.6] Xóa dữ liệu cũ (reset thẻ)...\n");
+                    if (existingUserId != 0) {
+                        logArea.append("[CẢNH BÁO] Thẻ đã có dữ liệu (UserID: " + existingUserId + ")\n");
+                        logArea.append("[BƯỚC 2.6] Xóa dữ liệu cũ (reset thẻ)...\n");
                     
-                    // Write blank data (UserID=0) to reset card - 80 bytes layout
-                    byte[] blankData = new byte[80];
-                    blankData[50] = 5; // Reset PIN retry to 5 (offset 50 in new layout)
+                        // Write blank data (UserID=0) to reset card - 80 bytes layout
+                        byte[] blankData = new byte[80];
+                        blankData[50] = 5; // Reset PIN retry to 5 (offset 50 in new layout)
                     
-                    javax.smartcardio.CommandAPDU deleteCmd = 
-                        new javax.smartcardio.CommandAPDU(0x00, 0xD0, 0x00, 0x00, blankData);
-                    javax.smartcardio.ResponseAPDU deleteResp = pcsc.transmit(deleteCmd);
+                        javax.smartcardio.CommandAPDU deleteCmd = 
+                            new javax.smartcardio.CommandAPDU(0x00, 0xD0, 0x00, 0x00, blankData);
+                        javax.smartcardio.ResponseAPDU deleteResp = s.transmit(deleteCmd);
                     
-                    if ((deleteResp.getSW() & 0xFF00) != 0x9000) {
-                        logArea.append("[LỖI] Không thể xóa dữ liệu cũ (SW: " + 
-                                     Integer.toHexString(deleteResp.getSW()).toUpperCase() + ")\n");
-                        return;
+                        if ((deleteResp.getSW() & 0xFF00) != 0x9000) {
+                            logArea.append("[LỖI] Không thể xóa dữ liệu cũ (SW: " + 
+                                         Integer.toHexString(deleteResp.getSW()).toUpperCase() + ")\n");
+                            return false;
+                        }
+                        logArea.append("[OK] Đã xóa dữ liệu cũ, thẻ đã trống!\n");
+                    } else {
+                        logArea.append("[OK] Thẻ đang trống, sẵn sàng ghi mới\n");
                     }
-                    logArea.append("[OK] Đã xóa dữ liệu cũ, thẻ đã trống!\n");
-                } else {
-                    logArea.append("[OK] Thẻ đang trống, sẵn sàng ghi mới\n");
                 }
-            }
 
-            // Write card data
-            logArea.append("[BƯỚC 3] Ghi dữ liệu vào thẻ...\n");
-            javax.smartcardio.CommandAPDU writeCmd = CardHelper.buildWriteCommand(newCard);
-            javax.smartcardio.ResponseAPDU writeResp = pcsc.transmit(writeCmd);
+                // Write card data
+                logArea.append("[BƯỚC 3] Ghi dữ liệu vào thẻ...\n");
+                javax.smartcardio.CommandAPDU writeCmd = CardHelper.buildWriteCommand(newCard);
+                javax.smartcardio.ResponseAPDU writeResp = s.transmit(writeCmd);
 
-            if ((writeResp.getSW() & 0xFF00) != 0x9000) {
-                logArea.append("[LỖI] Ghi thẻ thất bại (SW: " + 
-                             Integer.toHexString(writeResp.getSW()).toUpperCase() + ")\n");
-                return;
-            }
+                if ((writeResp.getSW() & 0xFF00) != 0x9000) {
+                    logArea.append("[LỖI] Ghi thẻ thất bại (SW: " + 
+                                 Integer.toHexString(writeResp.getSW()).toUpperCase() + ")\n");
+                    return false;
+                }
             
-            logArea.append("[OK] Ghi thẻ thành công!\n\n");
-            logArea.append("════════════════════════════\n");
-            logArea.append("    ✅ TẠO THẺ THÀNH CÔNG\n");
-            logArea.append("════════════════════════════\n");
-            logArea.append(formatCardInfo(newCard));
-            logArea.append("PIN: " + pinStr + "\n");
-            logArea.append("════════════════════════════\n");
+                logArea.append("[OK] Ghi thẻ thành công!\n\n");
+                logArea.append("════════════════════════════\n");
+                logArea.append("    ✅ TẠO THẺ THÀNH CÔNG\n");
+                logArea.append("════════════════════════════\n");
+                logArea.append(formatCardInfo(newCard));
+                logArea.append("PIN: " + pinStr + "\n");
+                logArea.append("════════════════════════════\n");
 
-            // Persist to Database FIRST (so record exists for RSA update)
-            try {
-                MembersDao dao = new MembersDao();
-                MemberRecord rec = new MemberRecord();
-                rec.id = newCard.userId;
-                rec.fullName = newCard.fullName;
-                rec.balanceVnd = newCard.balance;
-                java.time.LocalDate bd = null;
-                if (newCard.dobYear > 0 && newCard.dobMonth > 0 && newCard.dobDay > 0) {
-                    bd = java.time.LocalDate.of(newCard.dobYear, newCard.dobMonth, newCard.dobDay);
+                // Persist to Database FIRST (so record exists for RSA update)
+                try {
+                    MembersDao dao = new MembersDao();
+                    MemberRecord rec = new MemberRecord();
+                    rec.id = newCard.userId;
+                    rec.fullName = newCard.fullName;
+                    rec.balanceVnd = newCard.balance;
+                    java.time.LocalDate bd = null;
+                    if (newCard.dobYear > 0 && newCard.dobMonth > 0 && newCard.dobDay > 0) {
+                        bd = java.time.LocalDate.of(newCard.dobYear, newCard.dobMonth, newCard.dobDay);
+                    }
+                    rec.birthdate = bd;
+                    java.time.LocalDate expiry = (newCard.expiryDays > 0)
+                        ? java.time.LocalDate.now().plusDays(newCard.expiryDays)
+                        : null;
+                    rec.expiryDate = expiry;
+                    rec.cardUid = null; // Not available from reader
+                    rec.pinretry = newCard.pinRetry;
+                    rec.transactionHistory = null;
+                    rec.cccd = cccd;
+                    rec.avatarData = avatarBytes;
+                    rec.avatarHash = AvatarService.hashHex(avatarBytes);
+                    dao.upsert(rec);
+                    logArea.append("[DB] Đã lưu thành viên vào Database (ID=" + rec.id + ")\n");
+                } catch (Exception dbEx) {
+                    logArea.append("[DB] Lỗi lưu Database: " + dbEx.getMessage() + "\n");
                 }
-                rec.birthdate = bd;
-                java.time.LocalDate expiry = (newCard.expiryDays > 0)
-                    ? java.time.LocalDate.now().plusDays(newCard.expiryDays)
-                    : null;
-                rec.expiryDate = expiry;
-                rec.cardUid = null; // Not available from reader
-                rec.pinretry = newCard.pinRetry;
-                rec.transactionHistory = null;
-                rec.cccd = cccdField.getText().trim();
-                rec.avatarData = imageBytesHolder[0];
-                dao.upsert(rec);
-                logArea.append("[DB] Đã lưu thành viên vào Database (ID=" + rec.id + ")\n");
-            } catch (Exception dbEx) {
-                logArea.append("[DB] Lỗi lưu Database: " + dbEx.getMessage() + "\n");
-            }
-
-            // ✅ Đọc RSA public key từ thẻ và lưu vào DB (AFTER upsert so record exists)
-            logArea.append("[BƯỚC 3.5] Đọc RSA Public Key từ thẻ...\n");
-            try {
-                RsaKeyService.registerCardPublicKey(pcsc, newCard.userId);
-                logArea.append("[OK] Đã lưu RSA Public Key vào Database!\n");
-            } catch (Exception rsaEx) {
-                logArea.append("[CẢNH BÁO] Không lấy được RSA: " + rsaEx.getMessage() + "\n");
-            }
 
-            // Gửi ảnh xuống thẻ theo chunks nếu có (thẻ sẽ mã hóa lưu trữ)
-            if (imageBytesHolder[0] != null && imageBytesHolder[0].length > 0) {
+                // ✅ Đọc RSA public key từ thẻ và lưu vào DB (AFTER upsert so record exists)
+                logArea.append("[BƯỚC 3.5] Đọc Public Key (EC/RSA) từ thẻ...\n");
                 try {
-                    logArea.append("[BƯỚC 4] Gửi avatar xuống thẻ (" + imageBytesHolder[0].length + " bytes)...\n");
-                    // Clear trước
-                    pcsc.transmit(CardHelper.buildAvatarClearCommand());
-                    int offset = 0;
-                    int chunkSize = 200;
-                    while (offset < imageBytesHolder[0].length) {
-                        int len = Math.min(chunkSize, imageBytesHolder[0].length - offset);
-                        byte[] chunk = new byte[len];
-                        System.arraycopy(imageBytesHolder[0], offset, chunk, 0, len);
-                        javax.smartcardio.ResponseAPDU resp = pcsc.transmit(CardHelper.buildAvatarWriteChunk(offset, chunk));
-                        if ((resp.getSW() & 0xFF00) != 0x9000) {
-                            logArea.append("[LỖI] Ghi chunk avatar thất bại tại offset " + offset + " (SW=" + Integer.toHexString(resp.getSW()) + ")\n");
-                            break;
+                    RsaKeyService.registerCardPublicKey(s, newCard.userId);
+                    logArea.append("[OK] Đã lưu Public Key vào Database!\n");
+                } catch (Exception rsaEx) {
+                    logArea.append("[CẢNH BÁO] Không lấy được Public Key: " + rsaEx.getMessage() + "\n");
+                }
+
+                // Gửi ảnh xuống thẻ: 1 APDU extended nếu đầu đọc/thẻ hỗ trợ, không thì chunk 255 bytes
+                if (avatarBytes != null && avatarBytes.length > 0) {
+                    try {
+                        logArea.append("[BƯỚC 4] Gửi avatar xuống thẻ (" + avatarBytes.length + " bytes)...\n");
+                        long t0 = System.nanoTime();
+                        int chunkSize = AvatarService.sync(s, avatarBytes);
+                        if (chunkSize == 0) {
+                            logArea.append("[OK] Thẻ đã có đúng avatar này, bỏ qua bước gửi\n");
+                        } else {
+                            logArea.append("[OK] Đã gửi avatar với " + avatarBytes.length + " bytes (chunk " + chunkSize + " bytes, "
+                                    + (System.nanoTime() - t0) / 1_000_000 + " ms)\n");
                         }
-                        offset += len;
+                    } catch (Exception ex) {
+                        logArea.append("[LỖI] Gửi avatar thất bại: " + ex.getMessage() + "\n");
                     }
-                    logArea.append("[OK] Đã gửi avatar với " + offset + " bytes\n");
-                } catch (Exception ex) {
-                    logArea.append("[LỖI] Gửi avatar thất bại: " + ex.getMessage() + "\n");
                 }
-            }
-            
-            JOptionPane.showMessageDialog(this, 
-                "Tạo thẻ thành công!\n\n" +
-                "Họ Tên: " + newCard.fullName + "\n" +
-                "ID: " + newCard.userId + "\n" +
-                "PIN: " + pinStr,
-                "Thành Công",
-                JOptionPane.INFORMATION_MESSAGE);
-                
+                return true;
+            }, CREATE_CARD_TIMEOUT_MS, slowCardNotice()).whenComplete((done, ex) -> SwingUtilities.invokeLater(() -> {
+                if (ex != null) {
+                    Throwable cause = AsyncCardChannel.rootCause(ex);
+                    logArea.append("[LỖI NGHIÊM TRỌNG] " + cause.getMessage() + "\n");
+                    JOptionPane.showMessageDialog(this, 
+                        "❌ Lỗi: " + cause.getMessage(),
+                        "Lỗi",
+                        JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                if (!done) return;
+                JOptionPane.showMessageDialog(this, 
+                    "Tạo thẻ thành công!\n\n" +
+                    "Họ Tên: " + newCard.fullName + "\n" +
+                    "ID: " + newCard.userId + "\n" +
+                    "PIN: " + pinStr,
+                    "Thành Công",
+                    JOptionPane.INFORMATION_MESSAGE);
+            }));
+
         } catch (Exception ex) {
             logArea.append("[LỖI NGHIÊM TRỌNG] " + ex.getMessage() + "\n");
             ex.printStackTrace();
@@ -498,6 +501,15 @@ public class FunctionPanel extends JPanel {
         }
     }
 
+    /**
+     * onSlow for AsyncCardChannel.submitUpdate: a slow write may still commit,
+     * so the flow keeps waiting for the card instead of reporting a failure.
+     */
+    private Runnable slowCardNotice() {
+        return () -> SwingUtilities.invokeLater(() ->
+                logArea.append("[CHỜ] Thẻ phản hồi chậm, đang chờ kết quả... Vui lòng không rút thẻ.\n"));
+    }
+
     /**
      * Helper method to create modern styled buttons for admin panel
      */
@@ -539,10 +551,10 @@ public class FunctionPanel extends JPanel {
         logArea.append("═══ KHÁCH HÀNG ĐÃ XÁC THỰC ═══\n\n");
         
         // Lấy thông tin từ DB để bổ sung (CCCD, RSA, etc.)
-        MemberRecord rec = null;
+        MembersDao dao = new MembersDao();
+        MemberSummary rec = null;
         try {
-            MembersDao dao = new MembersDao();
-            rec = dao.getByUserId(card.userId);
+            rec = dao.getSummary(card.userId);
         } catch (Exception ignored) {}
         
         // ✅ Hiển thị thông tin từ card (đã decrypt sau verify PIN)
@@ -567,14 +579,14 @@ public class FunctionPanel extends JPanel {
         if (rec != null) {
             logArea.append("\n📊 THÔNG TIN TỪ DATABASE:\n");
             // RSA key presence
-            boolean hasRsa = (rec.rsaModulusHex != null && !rec.rsaModulusHex.isEmpty()) &&
-                             (rec.rsaExponentHex != null && !rec.rsaExponentHex.isEmpty());
-            logArea.append("RSA: " + (hasRsa ? "✅ Có" : "❌ Không") + "\n");
+            logArea.append("RSA: " + (rec.hasRsaKey ? "✅ Có" : "❌ Không") + "\n");
             // Last check-in
             logArea.append("Check-in gần nhất: " + (rec.lastCheckinDate != null ? rec.lastCheckinDate : "Chưa") + "\n");
             // Transaction history (summary)
-            if (rec.transactionHistory != null && !rec.transactionHistory.isEmpty()) {
-                logArea.append("Giao Dịch: " + rec.transactionHistory + "\n");
+            String history = null;
+            try { history = dao.getTransactionHistory(card.userId); } catch (Exception ignored) {}
+            if (history != null && !history.isEmpty()) {
+                logArea.append("Giao Dịch: " + history + "\n");
             }
             // Created/Updated timestamps
             logArea.append("Tạo lúc: " + (rec.createdAt != null ? rec.createdAt : "") + "\n");
@@ -679,80 +691,78 @@ public class FunctionPanel extends JPanel {
         logArea.setText("");
         logArea.append("[ADMIN] Xóa thẻ người dùng\n\n");
         
-        try {
-            pcsc.connectFirstPresentOrFirst();
-            logArea.append("[OK] Kết nối thẻ thành công!\n\n");
-            
-            // Select applet
-            javax.smartcardio.CommandAPDU selectCmd = new javax.smartcardio.CommandAPDU(0x00, 0xA4, 0x04, 0x00,
-                    new byte[]{(byte)0x26,(byte)0x12,(byte)0x20,(byte)0x03,(byte)0x03,(byte)0x00});
-            javax.smartcardio.ResponseAPDU selectResp = pcsc.transmit(selectCmd);
-            if ((selectResp.getSW() & 0xFF00) != 0x9000) {
-                logArea.append("[LỖI] Không thể select applet\n");
+        // Read current data first (null = card answered with an error)
+        javax.smartcardio.CommandAPDU readCmd = CardHelper.buildReadCommand();
+        station.channel().submit(s -> {
+            javax.smartcardio.ResponseAPDU readResp = s.transmitIdempotent(readCmd);
+            return (readResp.getSW() & 0xFF00) == 0x9000 ? CardHelper.parseReadResponse(readResp.getData()) : null;
+        }).whenComplete((card, ex) -> SwingUtilities.invokeLater(() -> {
+            if (ex != null) {
+                logArea.append("[LỖI] " + AsyncCardChannel.rootCause(ex).getMessage() + "\n");
                 return;
             }
-            
-            // Read current data first
-            javax.smartcardio.CommandAPDU readCmd = CardHelper.buildReadCommand();
-            javax.smartcardio.ResponseAPDU readResp = pcsc.transmit(readCmd);
-            
-            if ((readResp.getSW() & 0xFF00) != 0x9000) {
+            logArea.append("[OK] Kết nối thẻ thành công!\n\n");
+            if (card == null) {
                 logArea.append("[LỖI] Đọc thẻ thất bại\n");
                 return;
             }
-            
-            CardData card = CardHelper.parseReadResponse(readResp.getData());
-            
-            // Confirm deletion
-            String confirmMsg = "XÓA THẺ NGƯỜI DÙNG?\n\n" +
-                              formatCardInfo(card) + "\n" +
-                              "Hành động này KHÔNG THỂ HOÀN TÁC!";
-            
-            int confirm = JOptionPane.showConfirmDialog(
-                this,
-                confirmMsg,
-                "Xác Nhận Xóa",
-                JOptionPane.YES_NO_OPTION,
-                JOptionPane.WARNING_MESSAGE
-            );
-            
-            if (confirm != JOptionPane.YES_OPTION) {
-                logArea.append("[HỦY] Không xóa thẻ\n");
-                return;
-            }
-            
-            // Reset card to zero values
-            CardData emptyCard = new CardData();
-            emptyCard.userId = 0;
-            emptyCard.balance = 0;
-            emptyCard.expiryDays = 0;
-            emptyCard.pin = "000000"; 
-            emptyCard.pinRetry = 5;
-            emptyCard.fullName = "";
-            emptyCard.dobDay = 0;
-            emptyCard.dobMonth = 0;
-            emptyCard.dobYear = 0;
-            
-            javax.smartcardio.CommandAPDU writeCmd = CardHelper.buildWriteCommand(emptyCard);
-            javax.smartcardio.ResponseAPDU writeResp = pcsc.transmit(writeCmd);
-            
-            if ((writeResp.getSW() & 0xFF00) == 0x9000) {
-                logArea.append("[THÀNH CÔNG] Đã xóa thẻ:\n");
-                logArea.append(" Họ Tên: [Mã hóa - xem Database]\n");
-                logArea.append(" ID: " + card.userId + "\n");
-                logArea.append("Thẻ đã được reset về mặc định\n");
-                JOptionPane.showMessageDialog(this, 
-                    "Xóa thẻ thành công!\nThẻ đã được reset.",
-                    "Thành Công",
-                    JOptionPane.INFORMATION_MESSAGE);
-            } else {
-                logArea.append("[LỖI] Xóa thẻ thất bại (SW: " + 
-                             Integer.toHexString(writeResp.getSW()).toUpperCase() + ")\n");
-            }
-            
-        } catch (Exception ex) {
-            logArea.append("[LỖI] " + ex.getMessage() + "\n");
+            confirmDeleteCard(card);
+        }));
+    }
+
+    private void confirmDeleteCard(CardData card) {
+        // Confirm deletion
+        String confirmMsg = "XÓA THẺ NGƯỜI DÙNG?\n\n" +
+                          formatCardInfo(card) + "\n" +
+                          "Hành động này KHÔNG THỂ HOÀN TÁC!";
+        
+        int confirm = JOptionPane.showConfirmDialog(
+            this,
+            confirmMsg,
+            "Xác Nhận Xóa",
+            JOptionPane.YES_NO_OPTION,
+            JOptionPane.WARNING_MESSAGE
+        );
+        
+        if (confirm != JOptionPane.YES_OPTION) {
+            logArea.append("[HỦY] Không xóa thẻ\n");
+            return;
         }
+        
+        // Reset card to zero values
+        CardData emptyCard = new CardData();
+        emptyCard.userId = 0;
+        emptyCard.balance = 0;
+        emptyCard.expiryDays = 0;
+        emptyCard.pin = "000000"; 
+        emptyCard.pinRetry = 5;
+        emptyCard.fullName = "";
+        emptyCard.dobDay = 0;
+        emptyCard.dobMonth = 0;
+        emptyCard.dobYear = 0;
+        
+        station.channel().submitUpdate(s -> s.transmit(CardHelper.buildWriteCommand(emptyCard)), slowCardNotice())
+            .whenComplete((writeResp, ex) -> SwingUtilities.invokeLater(() -> {
+                if (ex != null) {
+                    logArea.append("[LỖI] " + AsyncCardChannel.rootCause(ex).getMessage() + "\n");
+                    return;
+                }
+                if ((writeResp.getSW() & 0xFF00) == 0x9000) {
+                    // The card now has a new key pair; the registered one is dead
+                    PublicKeyCache.getInstance().invalidate(card.userId);
+                    logArea.append("[THÀNH CÔNG] Đã xóa thẻ:\n");
+                    logArea.append(" Họ Tên: [Mã hóa - xem Database]\n");
+                    logArea.append(" ID: " + card.userId + "\n");
+                    logArea.append("Thẻ đã được reset về mặc định\n");
+                    JOptionPane.showMessageDialog(this, 
+                        "Xóa thẻ thành công!\nThẻ đã được reset.",
+                        "Thành Công",
+                        JOptionPane.INFORMATION_MESSAGE);
+                } else {
+                    logArea.append("[LỖI] Xóa thẻ thất bại (SW: " + 
+                                 Integer.toHexString(writeResp.getSW()).toUpperCase() + ")\n");
+                }
+            }));
     }
     
     /**
@@ -787,42 +797,32 @@ public class FunctionPanel extends JPanel {
             return;
         }
         
-        try {
-            pcsc.connectFirstPresentOrFirst();
-            
-            // Select applet
-            javax.smartcardio.CommandAPDU selectCmd = new javax.smartcardio.CommandAPDU(0x00, 0xA4, 0x04, 0x00,
-                    new byte[]{(byte)0x26,(byte)0x12,(byte)0x20,(byte)0x03,(byte)0x03,(byte)0x00});
-            javax.smartcardio.ResponseAPDU selectResp = pcsc.transmit(selectCmd);
-            if ((selectResp.getSW() & 0xFF00) != 0x9000) {
-                logArea.append("[LỖI] Không thể select applet\n");
-                return;
-            }
-            
-            // Use admin unlock command (no PIN required)
-            logArea.append("[BƯỚC 1] Gửi lệnh admin unlock...\n");
-            javax.smartcardio.CommandAPDU unlockCmd = CardHelper.buildAdminUnlockCommand();
-            javax.smartcardio.ResponseAPDU unlockResp = pcsc.transmit(unlockCmd);
-            
-            if ((unlockResp.getSW() & 0xFF00) == 0x9000) {
-                logArea.append("[✅ THÀNH CÔNG] Đã mở khóa thẻ!\n");
-                logArea.append("Retry counter: 5/5\n");
-                
-                JOptionPane.showMessageDialog(this, 
-                    "✅ Mở khóa thành công!\n\n" +
-                    "Retry counter đã reset về 5/5",
-                    "Thành Công",
-                    JOptionPane.INFORMATION_MESSAGE);
+        // Use admin unlock command (no PIN required)
+        logArea.append("[BƯỚC 1] Gửi lệnh admin unlock...\n");
+        final CardData card = currentCard;
+        javax.smartcardio.CommandAPDU unlockCmd = CardHelper.buildAdminUnlockCommand();
+        station.channel().submitUpdate(s -> s.transmit(unlockCmd), slowCardNotice())
+            .whenComplete((unlockResp, ex) -> SwingUtilities.invokeLater(() -> {
+                if (ex != null) {
+                    logArea.append("[LỖI] " + AsyncCardChannel.rootCause(ex).getMessage() + "\n");
+                    return;
+                }
+                if ((unlockResp.getSW() & 0xFF00) == 0x9000) {
+                    logArea.append("[✅ THÀNH CÔNG] Đã mở khóa thẻ!\n");
+                    logArea.append("Retry counter: 5/5\n");
                     
-                currentCard.pinRetry = 5;
-            } else {
-                logArea.append("[LỖI] Mở khóa thất bại (SW: " + 
-                             Integer.toHexString(unlockResp.getSW()).toUpperCase() + ")\n");
-            }
-            
-        } catch (Exception ex) {
-            logArea.append("[LỖI] " + ex.getMessage() + "\n");
-        }
+                    JOptionPane.showMessageDialog(this, 
+                        "✅ Mở khóa thành công!\n\n" +
+                        "Retry counter đã reset về 5/5",
+                        "Thành Công",
+                        JOptionPane.INFORMATION_MESSAGE);
+                        
+                    card.pinRetry = 5;
+                } else {
+                    logArea.append("[LỖI] Mở khóa thất bại (SW: " + 
+                                 Integer.toHexString(unlockResp.getSW()).toUpperCase() + ")\n");
+                }
+            }));
     }
     
     /**
@@ -854,72 +854,66 @@ public class FunctionPanel extends JPanel {
         String newPin = JOptionPane.showInputDialog(this, "Nhập PIN mới (6 số):");
         if (newPin == null || !newPin.matches("\\d{6}")) return;
 
-        try {
-            pcsc.connectFirstPresentOrFirst();
-
-            // Select applet
-            javax.smartcardio.CommandAPDU selectCmd = new javax.smartcardio.CommandAPDU(0x00, 0xA4, 0x04, 0x00,
-                    new byte[]{(byte)0x26,(byte)0x12,(byte)0x20,(byte)0x03,(byte)0x03,(byte)0x00});
-            javax.smartcardio.ResponseAPDU selectResp = pcsc.transmit(selectCmd);
-            if ((selectResp.getSW() & 0xFF00) != 0x9000) {
-                logArea.append("[LỖI] Không thể select applet\n");
-                return;
-            }
+        // B3 (chuẩn bị trước): dữ liệu khôi phục từ Database
+        final int userId = currentCard.userId;
+        CardData dataToRestore = new CardData();
+        dataToRestore.userId = dbRecord.id;
+        dataToRestore.fullName = dbRecord.fullName;
+        dataToRestore.balance = dbRecord.balanceVnd;
+        if (dbRecord.expiryDate != null) {
+            long daysBetween = java.time.temporal.ChronoUnit.DAYS.between(
+                java.time.LocalDate.now(),
+                dbRecord.expiryDate
+            );
+            dataToRestore.expiryDays = (short) Math.max(0, daysBetween);
+        } else {
+            dataToRestore.expiryDays = 0;
+        }
+        if (dbRecord.birthdate != null) {
+            dataToRestore.dobDay = (byte) dbRecord.birthdate.getDayOfMonth();
+            dataToRestore.dobMonth = (byte) dbRecord.birthdate.getMonthValue();
+            dataToRestore.dobYear = (short) dbRecord.birthdate.getYear();
+        }
+        dataToRestore.pin = newPin;
+        dataToRestore.pinRetry = 5;
 
+        // B1-B4 chạy liền nhau trên worker của đầu đọc; null = dừng giữa chừng (đã ghi log)
+        station.channel().submitUpdate(s -> {
             // B1: Cập nhật PIN mới xuống thẻ
             logArea.append("[B1] Cập nhật PIN mới xuống thẻ...\n");
-            javax.smartcardio.CommandAPDU resetCmd = CardHelper.buildAdminResetPinCommand(newPin);
-            javax.smartcardio.ResponseAPDU resetResp = pcsc.transmit(resetCmd);
+            javax.smartcardio.ResponseAPDU resetResp = s.transmit(CardHelper.buildAdminResetPinCommand(newPin));
             if ((resetResp.getSW() & 0xFF00) != 0x9000) {
                 logArea.append("[LỖI] Lệnh Reset PIN thất bại\n");
-                return;
+                return null;
             }
 
             // B2: Xác thực bằng PIN mới (để mở khóa quyền Ghi)
             logArea.append("[B2] Xác thực bằng PIN mới...\n");
-            javax.smartcardio.CommandAPDU verifyCmd = CardHelper.buildVerifyPinCommand(newPin);
-            javax.smartcardio.ResponseAPDU verifyResp = pcsc.transmit(verifyCmd);
+            javax.smartcardio.ResponseAPDU verifyResp = s.transmit(CardHelper.buildVerifyPinCommand(newPin));
             if ((verifyResp.getSW() & 0xFF00) != 0x9000) {
                 logArea.append("[LỖI] Verify PIN mới thất bại\n");
                 // Cập nhật retry trong DB nếu có mã 63Cx hoặc 6983
                 try {
                     short retries;
                     if (verifyResp.getSW() == 0x6983) retries = 0; else if ((verifyResp.getSW() & 0xFFF0) == 0x63C0) retries = (short)(verifyResp.getSW() & 0xF); else retries = -1;
-                    if (retries >= 0) new MembersDao().updatePinRetry(currentCard.userId, retries);
+                    if (retries >= 0) new MembersDao().updatePinRetryAsync(userId, retries);
                 } catch (Exception ignored) {}
-                return;
+                return null;
             }
 
             // Verify thành công: sync retry=5 vào DB trước khi ghi
-            try { new MembersDao().updatePinRetry(currentCard.userId, (short)5); } catch (Exception ignored) {}
-
-            // B3: Chuẩn bị dữ liệu từ Database
+            try { new MembersDao().updatePinRetryAsync(userId, (short)5); } catch (Exception ignored) {}
             logArea.append("[B3] Đồng bộ dữ liệu từ Database...\n");
-            CardData dataToRestore = new CardData();
-            dataToRestore.userId = dbRecord.id;
-            dataToRestore.fullName = dbRecord.fullName;
-            dataToRestore.balance = dbRecord.balanceVnd;
-            if (dbRecord.expiryDate != null) {
-                long daysBetween = java.time.temporal.ChronoUnit.DAYS.between(
-                    java.time.LocalDate.now(),
-                    dbRecord.expiryDate
-                );
-                dataToRestore.expiryDays = (short) Math.max(0, daysBetween);
-            } else {
-                dataToRestore.expiryDays = 0;
-            }
-            if (dbRecord.birthdate != null) {
-                dataToRestore.dobDay = (byte) dbRecord.birthdate.getDayOfMonth();
-                dataToRestore.dobMonth = (byte) dbRecord.birthdate.getMonthValue();
-                dataToRestore.dobYear = (short) dbRecord.birthdate.getYear();
-            }
-            dataToRestore.pin = newPin;
-            dataToRestore.pinRetry = 5;
 
             // B4: Ghi đè dữ liệu xuống thẻ
             logArea.append("[B4] Ghi đè dữ liệu đã mã hóa...\n");
-            javax.smartcardio.CommandAPDU writeCmd = CardHelper.buildWriteCommand(dataToRestore);
-            javax.smartcardio.ResponseAPDU writeResp = pcsc.transmit(writeCmd);
+            return s.transmit(CardHelper.buildWriteCommand(dataToRestore));
+        }, slowCardNotice()).whenComplete((writeResp, ex) -> SwingUtilities.invokeLater(() -> {
+            if (ex != null) {
+                logArea.append("[LỖI] " + AsyncCardChannel.rootCause(ex).getMessage() + "\n");
+                return;
+            }
+            if (writeResp == null) return;
             if ((writeResp.getSW() & 0xFF00) == 0x9000) {
                 JOptionPane.showMessageDialog(this, "✅ Reset PIN & Khôi phục dữ liệu thành công!");
                 currentCard = dataToRestore;
@@ -927,10 +921,7 @@ public class FunctionPanel extends JPanel {
             } else {
                 JOptionPane.showMessageDialog(this, "❌ Lỗi khi ghi dữ liệu!");
             }
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        }));
     }
     
     /**
@@ -942,56 +933,71 @@ public class FunctionPanel extends JPanel {
         logArea.append("[ADMIN] SỬA THÔNG TIN THÀNH VIÊN\n");
         logArea.append("════════════════════════════════\n\n");
         
-        try {
-            // B1: Quẹt thẻ
-            logArea.append("[B1] Đang kết nối thẻ...\n");
-            pcsc.connectFirstPresentOrFirst();
-            
-            javax.smartcardio.CommandAPDU selectCmd = new javax.smartcardio.CommandAPDU(0x00, 0xA4, 0x04, 0x00,
-                    new byte[]{(byte)0x26,(byte)0x12,(byte)0x20,(byte)0x03,(byte)0x03,(byte)0x00});
-            javax.smartcardio.ResponseAPDU selectResp = pcsc.transmit(selectCmd);
-            if ((selectResp.getSW() & 0xFF00) != 0x9000) {
-                logArea.append("[LỖI] Không thể select applet\n");
+        // B1: Quẹt thẻ (null = không đọc được)
+        logArea.append("[B1] Đang kết nối thẻ...\n");
+        javax.smartcardio.CommandAPDU readCmd = CardHelper.buildReadCommand();
+        station.channel().submit(s -> {
+            javax.smartcardio.ResponseAPDU readResp = s.transmitIdempotent(readCmd);
+            return (readResp.getSW() & 0xFF00) == 0x9000 ? CardHelper.parseReadResponse(readResp.getData()) : null;
+        }).whenComplete((cardData, ex) -> SwingUtilities.invokeLater(() -> {
+            if (ex != null) {
+                logArea.append("[LỖI] " + AsyncCardChannel.rootCause(ex).getMessage() + "\n");
                 return;
             }
-            
-            javax.smartcardio.CommandAPDU readCmd = CardHelper.buildReadCommand();
-            javax.smartcardio.ResponseAPDU readResp = pcsc.transmit(readCmd);
-            if ((readResp.getSW() & 0xFF00) != 0x9000) {
+            if (cardData == null) {
                 logArea.append("[LỖI] Không đọc được thẻ\n");
                 return;
             }
-            CardData cardData = CardHelper.parseReadResponse(readResp.getData());
             logArea.append("[OK] Đọc thẻ ID=" + cardData.userId + "\n");
-            
-            // B2: User nhập PIN
-            JPasswordField pinField = new JPasswordField();
-            int pinOpt = JOptionPane.showConfirmDialog(this, 
-                new Object[]{"Nhập PIN của thẻ (6 số):", pinField}, 
-                "Xác thực PIN", JOptionPane.OK_CANCEL_OPTION);
-            if (pinOpt != JOptionPane.OK_OPTION) return;
-            
-            String pin = new String(pinField.getPassword());
-            if (!pin.matches("\\d{6}")) {
-                JOptionPane.showMessageDialog(this, "❌ PIN phải là 6 chữ số!");
-                return;
-            }
-            
-            logArea.append("[B2] Xác thực PIN...\n");
-            javax.smartcardio.CommandAPDU verifyCmd = CardHelper.buildVerifyPinCommand(pin);
-            javax.smartcardio.ResponseAPDU verifyResp = pcsc.transmit(verifyCmd);
-            if ((verifyResp.getSW() & 0xFF00) != 0x9000) {
-                String status = CardHelper.parsePinStatus(verifyResp.getSW());
-                JOptionPane.showMessageDialog(this, "❌ " + status);
-                logArea.append("[LỖI] " + status + "\n");
-                return;
-            }
-            logArea.append("[OK] PIN chính xác!\n");
-            
-            // Parse decrypted data từ thẻ
-            CardData decrypted = CryptoHelper.parseDecryptedCardData(verifyResp.getData(), pin);
-            decrypted.userId = cardData.userId;
-            
+            verifyForEdit(cardData);
+        }));
+    }
+
+    /** B2 of editMemberInfo: the member types the PIN, the card decrypts its data. */
+    private void verifyForEdit(CardData cardData) {
+        JPasswordField pinField = new JPasswordField();
+        int pinOpt = JOptionPane.showConfirmDialog(this, 
+            new Object[]{"Nhập PIN của thẻ (6 số):", pinField}, 
+            "Xác thực PIN", JOptionPane.OK_CANCEL_OPTION);
+        if (pinOpt != JOptionPane.OK_OPTION) return;
+        
+        String pin = new String(pinField.getPassword());
+        if (!pin.matches("\\d{6}")) {
+            JOptionPane.showMessageDialog(this, "❌ PIN phải là 6 chữ số!");
+            return;
+        }
+        
+        logArea.append("[B2] Xác thực PIN...\n");
+        station.channel().submit(s -> {
+            javax.smartcardio.ResponseAPDU r = s.transmit(CardHelper.buildVerifyPinCommand(pin));
+            if ((r.getSW() & 0xFF00) == 0x9000) s.rememberPinKey(pin);
+            return r;
+        }).whenComplete((verifyResp, ex) -> SwingUtilities.invokeLater(() -> {
+                if (ex != null) {
+                    logArea.append("[LỖI] " + AsyncCardChannel.rootCause(ex).getMessage() + "\n");
+                    return;
+                }
+                if ((verifyResp.getSW() & 0xFF00) != 0x9000) {
+                    String status = CardHelper.parsePinStatus(verifyResp.getSW());
+                    JOptionPane.showMessageDialog(this, "❌ " + status);
+                    logArea.append("[LỖI] " + status + "\n");
+                    return;
+                }
+                logArea.append("[OK] PIN chính xác!\n");
+                try {
+                    // Parse decrypted data từ thẻ
+                    CardData decrypted = CardImageCodec.forThread().decodePlain(verifyResp.getData(), 0, null);
+                    decrypted.userId = cardData.userId;
+                    showEditForm(decrypted, pin);
+                } catch (Exception parseEx) {
+                    logArea.append("[LỖI] " + parseEx.getMessage() + "\n");
+                }
+            }));
+    }
+
+    /** B3-B5 of editMemberInfo: edit form, then write the card and the DB. */
+    private void showEditForm(CardData decrypted, String pin) {
+        try {
             // B3: Hiển thị form sửa với dữ liệu từ thẻ
             JPanel panel = new JPanel(new GridBagLayout());
             GridBagConstraints gbc = new GridBagConstraints();
@@ -1069,37 +1075,44 @@ public class FunctionPanel extends JPanel {
             newData.pin = pin;
             newData.pinRetry = 5;
             
-            javax.smartcardio.CommandAPDU writeCmd = CardHelper.buildWriteCommand(newData);
-            javax.smartcardio.ResponseAPDU writeResp = pcsc.transmit(writeCmd);
-            if ((writeResp.getSW() & 0xFF00) != 0x9000) {
-                logArea.append("[LỖI] Ghi thẻ thất bại\n");
-                return;
-            }
-            logArea.append("[OK] Ghi thẻ thành công!\n");
-            
-            // B5: Cập nhật DB
-            logArea.append("[B4] Cập nhật Database...\n");
-            MembersDao dao = new MembersDao();
-            MemberRecord record = dao.getByUserId(decrypted.userId);
-            if (record == null) {
-                record = new MemberRecord();
-                record.id = decrypted.userId;
-            }
-            record.fullName = newName;
-            record.balanceVnd = newBalance;
-            record.birthdate = java.time.LocalDate.of(newDobYear, newDobMonth, newDobDay);
-            record.expiryDate = java.time.LocalDate.now().plusDays(newExpiry);
-            record.cccd = newCccd;
-            dao.upsert(record);
-            logArea.append("[OK] Cập nhật DB thành công!\n");
+            station.channel().submitUpdate(s -> s.transmit(CardHelper.buildWriteCommand(newData, s.pinKey())), slowCardNotice())
+                .whenComplete((writeResp, ex) -> SwingUtilities.invokeLater(() -> {
+                    if (ex != null) {
+                        logArea.append("[LỖI] " + AsyncCardChannel.rootCause(ex).getMessage() + "\n");
+                        return;
+                    }
+                    if ((writeResp.getSW() & 0xFF00) != 0x9000) {
+                        logArea.append("[LỖI] Ghi thẻ thất bại\n");
+                        return;
+                    }
+                    logArea.append("[OK] Ghi thẻ thành công!\n");
+                    try {
+                        // B5: Cập nhật DB
+                        logArea.append("[B4] Cập nhật Database...\n");
+                        MembersDao dao = new MembersDao();
+                        MemberRecord record = dao.getByUserId(decrypted.userId);
+                        if (record == null) {
+                            record = new MemberRecord();
+                            record.id = decrypted.userId;
+                        }
+                        record.fullName = newName;
+                        record.balanceVnd = newBalance;
+                        record.birthdate = java.time.LocalDate.of(newDobYear, newDobMonth, newDobDay);
+                        record.expiryDate = java.time.LocalDate.now().plusDays(newExpiry);
+                        record.cccd = newCccd;
+                        dao.upsert(record);
+                        logArea.append("[OK] Cập nhật DB thành công!\n");
             
-            logArea.append("\n✅ SỬA THÔNG TIN THÀNH CÔNG!\n");
-            JOptionPane.showMessageDialog(this, "✅ Sửa thông tin thành công!");
+                        logArea.append("\n✅ SỬA THÔNG TIN THÀNH CÔNG!\n");
+                        
+                        JOptionPane.showMessageDialog(this, "✅ Sửa thông tin thành công!");
+                    } catch (Exception dbEx) {
+                        logArea.append("[LỖI] " + dbEx.getMessage() + "\n");
+                    }
+                }));
             
         } catch (NumberFormatException e) {
             JOptionPane.showMessageDialog(this, "❌ Số dư hoặc hạn tập không hợp lệ!");
-        } catch (Exception ex) {
-            logArea.append("[LỖI] " + ex.getMessage() + "\n");
         }
     }
-}
\ No newline at end of file
+}
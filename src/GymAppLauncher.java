@@ -38,13 +38,30 @@ public class GymAppLauncher extends JFrame {
         // Launch both windows in background
         new Thread(() -> {
             try {
-                // Initialize PC/SC
-                PcscClient pcsc = new PcscClient();
+                // Apply pending DB schema migrations once, before any DAO is used
+                SwingUtilities.invokeLater(() -> statusLabel.setText("Đang kiểm tra cơ sở dữ liệu..."));
+                try {
+                    SchemaMigrations.migrate(SchemaMigrations.DEFAULT_DB_URL);
+                } catch (Exception dbEx) {
+                    System.err.println("[DB] Migration failed: " + dbEx.getMessage());
+                }
+
+                // Discover readers (one station each) and start watching them for card insert/remove
+                SwingUtilities.invokeLater(() -> statusLabel.setText("Đang tìm đầu đọc thẻ..."));
+                ReaderRegistry readers = ReaderRegistry.discover();
+                ReaderStation customerStation = readers.forRole(ReaderRegistry.ROLE_CUSTOMER);
+                ReaderStation staffStation = readers.forRole(ReaderRegistry.ROLE_STAFF);
+                CardPresenceMonitor.ensureStarted();
+                try {
+                    System.out.println("[KEYS] Prewarmed " + PublicKeyCache.getInstance().prewarm(new MembersDao()) + " card public keys");
+                } catch (Exception keyEx) {
+                    System.err.println("[KEYS] Prewarm failed: " + keyEx.getMessage());
+                }
                 
                 // Open Customer Window
                 SwingUtilities.invokeLater(() -> {
                     try {
-                        new CustomerWindow(pcsc);
+                        new CustomerWindow(customerStation);
                     } catch (Exception ex) {
                         JOptionPane.showMessageDialog(null, "Lỗi Khách Hàng: " + ex.getMessage());
                     }
@@ -56,7 +73,7 @@ public class GymAppLauncher extends JFrame {
                 // Open Staff Window
                 SwingUtilities.invokeLater(() -> {
                     try {
-                        new StaffWindow(pcsc);
+                        new StaffWindow(staffStation);
                     } catch (Exception ex) {
                         JOptionPane.showMessageDialog(null, "Lỗi Admin/Nhân Viên: " + ex.getMessage());
                     }
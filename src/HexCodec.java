@@ -0,0 +1,57 @@
+/**
+ * Hex text for display and logs. Keys are stored and compared as bytes;
+ * only what a person reads (detail panes, logs, IDENTIFY fingerprints)
+ * goes through here.
+ */
+public final class HexCodec {
+    private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private HexCodec() {}
+
+    /** Uppercase hex without separators; null for null. */
+    public static String encode(byte[] data) {
+        if (data == null) return null;
+        char[] out = new char[data.length * 2];
+        for (int i = 0, j = 0; i < data.length; i++) {
+            int b = data[i] & 0xFF;
+            out[j++] = DIGITS[b >>> 4];
+            out[j++] = DIGITS[b & 0x0F];
+        }
+        return new String(out);
+    }
+
+    /** Bytes of a hex string, either case, whitespace ignored; null for null. */
+    public static byte[] decode(String hex) {
+        if (hex == null) return null;
+        int digits = 0;
+        for (int i = 0; i < hex.length(); i++) {
+            if (!Character.isWhitespace(hex.charAt(i))) digits++;
+        }
+        if ((digits & 1) != 0) throw new IllegalArgumentException("Hex length must be even");
+        byte[] out = new byte[digits / 2];
+        int hi = -1;
+        int j = 0;
+        for (int i = 0; i < hex.length(); i++) {
+            char c = hex.charAt(i);
+            if (Character.isWhitespace(c)) continue;
+            int v = Character.digit(c, 16);
+            if (v < 0) throw new IllegalArgumentException("Invalid hex");
+            if (hi < 0) {
+                hi = v;
+            } else {
+                out[j++] = (byte) ((hi << 4) | v);
+                hi = -1;
+            }
+        }
+        return out;
+    }
+
+    /** Whether {@code s} is exactly {@code digits} hex digits. */
+    public static boolean isHex(String s, int digits) {
+        if (s == null || s.length() != digits) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+}
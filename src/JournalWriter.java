@@ -0,0 +1,299 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only line journal on one open FileChannel.
+ *
+ * Lines are UTF-8 encoded into a reused direct buffer and written at the
+ * end of the data. Once the data reaches the segment size the active file
+ * is renamed to {@code <name>.<yyyyMMdd-HHmmss>.<ext>} and a new one is
+ * started.
+ *
+ * Preallocation is opt-in (-Dgym.journal.preallocate=true): the active
+ * segment is then filled with zeros up to its full size when opened, so
+ * appends do not grow or allocate and an fdatasync (force(false)) only
+ * flushes data. The price is a segment-sized write plus force(true) on
+ * every roll, inside append, and a NUL tail in the active file: a reader
+ * of the log must stop at the first NUL byte, and after an unclean exit
+ * the tail stays until the journal is next opened (the tail is found again
+ * on reopen and cut off when the segment is rolled or closed).
+ *
+ * Durability per {@link FsyncPolicy}:
+ * RECORD forces before append returns; GROUP makes append wait for a force
+ * that covers its record, one force serving every appender that arrived
+ * meanwhile; INTERVAL forces in the background every N ms.
+ */
+public final class JournalWriter implements AutoCloseable {
+    public enum FsyncPolicy { RECORD, INTERVAL, GROUP }
+
+    private static final DateTimeFormatter ARCHIVE_TS = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final int SCAN_CHUNK = 64 * 1024;
+
+    private final Path active;
+    private final long segmentBytes;
+    private final FsyncPolicy policy;
+    private final boolean preallocate;
+    private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ScheduledExecutorService flusher;
+
+    // Guarded by this
+    private ByteBuffer buf = ByteBuffer.allocateDirect(4096);
+    private FileChannel channel;
+    private long writePos;
+    private long written;
+    private boolean closed;
+
+    // Guarded by syncLock: bytes known durable (across segments) and whether a force is running
+    private final Object syncLock = new Object();
+    private long durable;
+    private boolean syncing;
+
+    /**
+     * Open (or continue) the journal at {@code active}.
+     * @param intervalMs force period for INTERVAL, ignored otherwise
+     * @param preallocate zero-fill each segment to its full size (see class comment)
+     */
+    public JournalWriter(Path active, long segmentBytes, FsyncPolicy policy, long intervalMs,
+                         boolean preallocate) throws IOException {
+        this.active = active;
+        this.segmentBytes = Math.max(SCAN_CHUNK, segmentBytes);
+        this.policy = policy;
+        this.preallocate = preallocate;
+        synchronized (this) {
+            openSegment();
+        }
+        if (policy == FsyncPolicy.INTERVAL) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "journal-fsync-" + active.getFileName());
+                t.setDaemon(true);
+                return t;
+            });
+            long period = Math.max(1, intervalMs);
+            flusher.scheduleWithFixedDelay(() -> {
+                try {
+                    sync();
+                } catch (IOException ex) {
+                    System.err.println("[JOURNAL] fsync failed: " + ex.getMessage());
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Journal configured from system properties: -Dgym.journal.fsync
+     * (record|interval|group, default group), -Dgym.journal.fsyncMs (100),
+     * -Dgym.journal.segmentBytes (4 MB) and -Dgym.journal.preallocate (false).
+     */
+    public static JournalWriter fromSystemProperties(Path active) throws IOException {
+        FsyncPolicy policy = FsyncPolicy.valueOf(System.getProperty("gym.journal.fsync", "group").toUpperCase(Locale.ROOT));
+        return new JournalWriter(active, Long.getLong("gym.journal.segmentBytes", 4L << 20), policy,
+                Long.getLong("gym.journal.fsyncMs", 100L), Boolean.getBoolean("gym.journal.preallocate"));
+    }
+
+    /** Append {@code line} plus a newline; durable on return per the fsync policy. */
+    public void append(CharSequence line) throws IOException {
+        long ticket;
+        synchronized (this) {
+            if (closed) throw new IOException("Journal closed: " + active);
+            if (!channel.isOpen()) {
+                // An interrupted appender closes the channel (ClosedByInterruptException)
+                openSegment();
+            }
+            encode(line);
+            int len = buf.remaining();
+            if (writePos > 0 && writePos + len > segmentBytes) roll();
+            while (buf.hasRemaining()) {
+                writePos += channel.write(buf, writePos);
+            }
+            written += len;
+            ticket = written;
+            if (policy == FsyncPolicy.RECORD) {
+                channel.force(false);
+                markDurable(ticket);
+                return;
+            }
+        }
+        if (policy == FsyncPolicy.GROUP) awaitDurable(ticket);
+    }
+
+    /** Force everything appended so far. */
+    public void sync() throws IOException {
+        long target;
+        synchronized (this) {
+            target = written;
+        }
+        awaitDurable(target);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            // No interrupt: it would close the channel under a running force (ClosedByInterruptException)
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            if (channel.isOpen()) {
+                channel.force(false);
+                channel.truncate(writePos);
+                channel.close();
+            }
+            markDurable(written);
+        }
+    }
+
+    /** Wait until a force covers {@code ticket}; run it ourselves if no force is in progress. */
+    private void awaitDurable(long ticket) throws IOException {
+        while (true) {
+            synchronized (syncLock) {
+                while (durable < ticket && syncing) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for journal fsync");
+                    }
+                }
+                if (durable >= ticket) return;
+                syncing = true;
+            }
+            try {
+                forceNow();
+            } finally {
+                synchronized (syncLock) {
+                    syncing = false;
+                    syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /** Force outside the append lock so new records keep queueing behind this fsync. */
+    private void forceNow() throws IOException {
+        long target;
+        FileChannel ch;
+        synchronized (this) {
+            if (closed) throw new IOException("Journal closed: " + active);
+            target = written;
+            ch = channel;
+        }
+        try {
+            ch.force(false);
+        } catch (ClosedChannelException rolled) {
+            // roll() forced this segment before closing it and marked it durable
+            synchronized (this) {
+                if (!closed && !channel.isOpen()) openSegment();
+            }
+            return;
+        }
+        markDurable(target);
+    }
+
+    private void markDurable(long pos) {
+        synchronized (syncLock) {
+            if (pos > durable) durable = pos;
+            syncLock.notifyAll();
+        }
+    }
+
+    /** Line + '\n' into buf (flipped, ready to write). */
+    private void encode(CharSequence line) {
+        int worst = (int) Math.ceil((line.length() + 1) * (double) utf8.maxBytesPerChar());
+        if (worst > buf.capacity()) {
+            buf = ByteBuffer.allocateDirect(Integer.highestOneBit(worst) << 1);
+        }
+        buf.clear();
+        utf8.reset();
+        CoderResult r = utf8.encode(CharBuffer.wrap(line), buf, true);
+        if (!r.isUnderflow()) throw new IllegalStateException("Journal encode: " + r);
+        utf8.flush(buf);
+        buf.put((byte) '\n');
+        buf.flip();
+    }
+
+    private void roll() throws IOException {
+        channel.force(false);
+        channel.truncate(writePos);
+        channel.close();
+        markDurable(written);
+        Files.move(active, archivePath());
+        openSegment();
+    }
+
+    private Path archivePath() {
+        String name = active.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        String ts = LocalDateTime.now().format(ARCHIVE_TS);
+        Path target = active.resolveSibling(stem + "." + ts + ext);
+        for (int n = 1; Files.exists(target); n++) {
+            target = active.resolveSibling(stem + "." + ts + "-" + n + ext);
+        }
+        return target;
+    }
+
+    private void openSegment() throws IOException {
+        channel = FileChannel.open(active, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        writePos = dataEnd(channel);
+        long size = channel.size();
+        if (preallocate && size < segmentBytes) {
+            // Preallocate by writing zeros: a write at the last byte only makes a sparse
+            // file, and every fsync would still commit the allocation of the holes
+            ByteBuffer zeros = ByteBuffer.allocateDirect(SCAN_CHUNK);
+            for (long pos = size; pos < segmentBytes; ) {
+                zeros.clear().limit((int) Math.min(SCAN_CHUNK, segmentBytes - pos));
+                while (zeros.hasRemaining()) {
+                    pos += channel.write(zeros, pos);
+                }
+            }
+            channel.force(true);
+        }
+    }
+
+    /** End of the text: journal lines never contain NUL, so a zero tail is preallocation (now or by an earlier run). */
+    private static long dataEnd(FileChannel ch) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(SCAN_CHUNK);
+        long pos = ch.size();
+        while (pos > 0) {
+            int n = (int) Math.min(SCAN_CHUNK, pos);
+            chunk.clear().limit(n);
+            long start = pos - n;
+            while (chunk.hasRemaining()) {
+                if (ch.read(chunk, start + chunk.position()) < 0) break;
+            }
+            for (int i = chunk.position() - 1; i >= 0; i--) {
+                if (chunk.get(i) != 0) return start + i + 1;
+            }
+            pos = start;
+        }
+        return 0;
+    }
+}
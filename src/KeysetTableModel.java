@@ -0,0 +1,160 @@
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Virtual table model backed by keyset pagination.
+ *
+ * Rows are fetched a page at a time on a background thread when JTable asks
+ * for a row that is not loaded yet; only the most recently used pages are
+ * kept (see maxPages). Page N is fetched with "WHERE key beyond the last key
+ * of page N-1 LIMIT pageSize" whenever that boundary key is known, and by
+ * OFFSET otherwise (e.g. after dragging the scrollbar far down).
+ *
+ * Subclasses supply the queries and column values; all methods except the
+ * fetch/count hooks are called on the EDT.
+ */
+public abstract class KeysetTableModel<T> extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "table-page-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String[] columns;
+    private final int pageSize;
+    private final int maxPages;
+    private final LinkedHashMap<Integer, List<T>> pages;
+    /** Last key of each page ever loaded, so keyset seeks survive page eviction. */
+    private final Map<Integer, Object> boundaryKeys = new HashMap<>();
+    /** Queued or running page loads, cancelled when the query changes. */
+    private final Map<Integer, Future<?>> pending = new HashMap<>();
+    private Future<?> countLoad;
+    private int rowCount;
+    /** Bumped by reload(); results of older loads are dropped. */
+    private int generation;
+
+    protected KeysetTableModel(String[] columns, int pageSize, int maxPages) {
+        this.columns = columns;
+        this.pageSize = pageSize;
+        this.maxPages = Math.max(2, maxPages);
+        this.pages = new LinkedHashMap<Integer, List<T>>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+                return size() > KeysetTableModel.this.maxPages;
+            }
+        };
+    }
+
+    /** Total number of rows. Runs on the loader thread. */
+    protected abstract int fetchCount() throws SQLException;
+
+    /** Up to limit rows following afterKey (null = from the start). Runs on the loader thread. */
+    protected abstract List<T> fetchAfter(Object afterKey, int limit) throws SQLException;
+
+    /** Up to limit rows starting at offset; used only when no boundary key is known. */
+    protected abstract List<T> fetchAtOffset(int offset, int limit) throws SQLException;
+
+    /** Sort key of a row (the value compared in the keyset WHERE clause). */
+    protected abstract Object keyOf(T row);
+
+    protected abstract Object valueAt(T row, int column);
+
+    /** Called on the EDT when the row count is known. */
+    protected void onCountLoaded(int count) {}
+
+    /** Called on the EDT when a count or page query fails. */
+    protected void onLoadError(Exception ex) {
+        System.err.println("[TABLE] Load failed: " + ex.getMessage());
+    }
+
+    /**
+     * Drop all cached pages and re-count; call after changing the query.
+     * Loads still queued for the previous query are cancelled and results of
+     * ones already running are discarded.
+     */
+    public void reload() {
+        generation++;
+        for (Future<?> f : pending.values()) f.cancel(false);
+        if (countLoad != null) countLoad.cancel(false);
+        pages.clear();
+        boundaryKeys.clear();
+        pending.clear();
+        rowCount = 0;
+        fireTableDataChanged();
+        final int gen = generation;
+        countLoad = LOADER.submit(() -> {
+            try {
+                int count = fetchCount();
+                SwingUtilities.invokeLater(() -> {
+                    if (gen != generation) return;
+                    rowCount = count;
+                    fireTableDataChanged();
+                    onCountLoaded(count);
+                });
+            } catch (Exception ex) {
+                SwingUtilities.invokeLater(() -> { if (gen == generation) onLoadError(ex); });
+            }
+        });
+    }
+
+    /** Loaded row at the given index, or null if its page is not in memory. */
+    public T getRow(int rowIndex) {
+        List<T> page = pages.get(rowIndex / pageSize);
+        int i = rowIndex % pageSize;
+        return (page != null && i < page.size()) ? page.get(i) : null;
+    }
+
+    @Override public int getRowCount() { return rowCount; }
+
+    @Override public int getColumnCount() { return columns.length; }
+
+    @Override public String getColumnName(int column) { return columns[column]; }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        int pageIndex = rowIndex / pageSize;
+        List<T> page = pages.get(pageIndex);
+        if (page == null) {
+            requestPage(pageIndex);
+            return null;
+        }
+        int i = rowIndex % pageSize;
+        return i < page.size() ? valueAt(page.get(i), columnIndex) : null;
+    }
+
+    private void requestPage(int pageIndex) {
+        if (pending.containsKey(pageIndex)) return;
+        final int gen = generation;
+        final Object afterKey = pageIndex == 0 ? null : boundaryKeys.get(pageIndex - 1);
+        final boolean seek = pageIndex == 0 || afterKey != null;
+        pending.put(pageIndex, LOADER.submit(() -> {
+            try {
+                List<T> rows = seek ? fetchAfter(afterKey, pageSize) : fetchAtOffset(pageIndex * pageSize, pageSize);
+                SwingUtilities.invokeLater(() -> {
+                    if (gen != generation) return;
+                    pending.remove(pageIndex);
+                    pages.put(pageIndex, rows);
+                    if (!rows.isEmpty()) boundaryKeys.put(pageIndex, keyOf(rows.get(rows.size() - 1)));
+                    int first = pageIndex * pageSize;
+                    int last = Math.min(rowCount, first + pageSize) - 1;
+                    if (last >= first) fireTableRowsUpdated(first, last);
+                });
+            } catch (Exception ex) {
+                SwingUtilities.invokeLater(() -> {
+                    if (gen != generation) return;
+                    pending.remove(pageIndex);
+                    onLoadError(ex);
+                });
+            }
+        }));
+    }
+}
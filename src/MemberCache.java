@@ -0,0 +1,115 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * In-process read-through cache of member rows, keyed by userId.
+ *
+ * Bounded LRU with a time-to-live, shared by every MembersDao on the same
+ * database. Holds scalar columns only: avatar_data and transaction_history
+ * are dropped on put, so a hit copies a few small fields and never a BLOB.
+ * Callers always receive copies, so editing a returned record never leaks
+ * into the cache. MembersDao and PaymentService apply committed
+ * writes to the cached entry (or drop it), so a swipe-plus-action sequence
+ * costs at most one DB read.
+ *
+ * Loads are stamped: a row read before a concurrent write committed is not
+ * cached, so the cache never goes back to a pre-write value.
+ *
+ * Size: -Dgym.cache.members (default 256); TTL: -Dgym.cache.ttlMs (default 60000).
+ */
+public final class MemberCache {
+    private static final Map<String, MemberCache> CACHES = new ConcurrentHashMap<>();
+
+    private static final class Entry {
+        final MemberRecord record;
+        final long loadedAt;
+
+        Entry(MemberRecord record, long loadedAt) {
+            this.record = record;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlMs;
+    private final LinkedHashMap<Integer, Entry> entries;
+    /** Bumped by every write; loads that straddle a write are not cached. */
+    private long writeStamp;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private MemberCache(int maxEntries, long ttlMs) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMs = ttlMs;
+        this.entries = new LinkedHashMap<Integer, Entry>(64, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() <= MemberCache.this.maxEntries) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /** Shared cache for the given JDBC URL. */
+    public static MemberCache forUrl(String dbUrl) {
+        return CACHES.computeIfAbsent(dbUrl, url -> new MemberCache(
+                Integer.getInteger("gym.cache.members", 256),
+                Long.getLong("gym.cache.ttlMs", 60000L)));
+    }
+
+    /** Copy of the cached row (avatar and history null), or null on a miss or expired entry. */
+    public synchronized MemberRecord get(int userId) {
+        Entry e = entries.get(userId);
+        if (e != null && System.currentTimeMillis() - e.loadedAt > ttlMs) {
+            entries.remove(userId);
+            evictions++;
+            e = null;
+        }
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.record.copy();
+    }
+
+    /** Stamp to take before reading from the DB; pass it to {@link #put}. */
+    public synchronized long stamp() {
+        return writeStamp;
+    }
+
+    /** Cache the scalar columns of a freshly loaded row unless a write happened since {@code stamp}. */
+    public synchronized void put(MemberRecord record, long stamp) {
+        if (record == null || stamp != writeStamp) return;
+        MemberRecord scalars = record.copy();
+        scalars.avatarData = null;
+        scalars.transactionHistory = null;
+        entries.put(record.id, new Entry(scalars, System.currentTimeMillis()));
+    }
+
+    /** Apply a committed change to the cached row, if present. */
+    public synchronized void update(int userId, Consumer<MemberRecord> change) {
+        writeStamp++;
+        Entry e = entries.get(userId);
+        if (e != null) change.accept(e.record);
+    }
+
+    public synchronized void invalidate(int userId) {
+        writeStamp++;
+        entries.remove(userId);
+    }
+
+    public synchronized void invalidateAll() {
+        writeStamp++;
+        entries.clear();
+    }
+
+    public synchronized String stats() {
+        long total = hits + misses;
+        return String.format("members cache: %d/%d entries, hits=%d misses=%d (%.1f%%), evictions=%d",
+                entries.size(), maxEntries, hits, misses, total == 0 ? 0.0 : hits * 100.0 / total, evictions);
+    }
+}
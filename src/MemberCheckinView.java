@@ -0,0 +1,11 @@
+import java.time.LocalDate;
+
+/**
+ * Minimal member state needed at the customer terminal (check-in, PIN retry display).
+ */
+public class MemberCheckinView {
+    public int id;
+    public short pinretry;
+    public LocalDate expiryDate;
+    public String lastCheckinDate;
+}
@@ -11,13 +11,47 @@ public class MemberRecord {
     public LocalDate expiryDate;
     public String cardUid;
     public String rsaPublicKey;
-    public String rsaModulusHex;
-    public String rsaExponentHex;
+    public byte[] rsaModulus;
+    public byte[] rsaExponent;
+    /** Uncompressed P-256 point (04 || X || Y) for EC cards. */
+    public byte[] ecPublicKey;
+    /** Registered card key: "RSA", "EC", or null for rows from before key_alg. */
+    public String keyAlg;
+    /** IDENTIFY fingerprint (8 bytes) of the registered key; indexed. */
+    public byte[] keyFingerprint;
     public String transactionHistory;
     public short pinretry;
     public String createdAt;
     public String updatedAt;
     public String cccd;
     public byte[] avatarData;
+    /** Hex version hash of avatarData, as committed on the card (see AvatarService). */
+    public String avatarHash;
     public String lastCheckinDate;
+
+    /** Field-by-field copy; avatarData and key bytes are cloned. */
+    public MemberRecord copy() {
+        MemberRecord m = new MemberRecord();
+        m.id = id;
+        m.fullName = fullName;
+        m.balanceVnd = balanceVnd;
+        m.birthdate = birthdate;
+        m.expiryDate = expiryDate;
+        m.cardUid = cardUid;
+        m.rsaPublicKey = rsaPublicKey;
+        m.rsaModulus = rsaModulus != null ? rsaModulus.clone() : null;
+        m.rsaExponent = rsaExponent != null ? rsaExponent.clone() : null;
+        m.ecPublicKey = ecPublicKey != null ? ecPublicKey.clone() : null;
+        m.keyAlg = keyAlg;
+        m.keyFingerprint = keyFingerprint != null ? keyFingerprint.clone() : null;
+        m.transactionHistory = transactionHistory;
+        m.pinretry = pinretry;
+        m.createdAt = createdAt;
+        m.updatedAt = updatedAt;
+        m.cccd = cccd;
+        m.avatarData = avatarData != null ? avatarData.clone() : null;
+        m.avatarHash = avatarHash;
+        m.lastCheckinDate = lastCheckinDate;
+        return m;
+    }
 }
@@ -0,0 +1,136 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Member search filter used by MembersDao's list queries.
+ *
+ * Uses the members_fts index (schema v4) when present: the query is folded
+ * the same way the index is (case, Vietnamese diacritics, đ -> d) and every
+ * word becomes a prefix term, so "nguyen van" matches "Nguyễn Văn An".
+ * Falls back to a LIKE scan when the SQLite build has no FTS5. SQLite's
+ * lower()/LIKE only fold ASCII, so names are matched against search_name
+ * (fold() of full_name, kept by MembersDao.upsert; schema v8), and LIKE
+ * wildcards typed by the user are escaped.
+ *
+ * A query of exactly 16 hex digits is a card key fingerprint (as IDENTIFY
+ * reports it) and is matched as bytes on idx_members_key_fingerprint.
+ * Partial key search is opt-in: "key:" followed by at least 8 hex digits
+ * matches inside the stored key bytes (RSA modulus/exponent, EC point).
+ * That is a full scan hex-encoding every key, so it is never part of a
+ * plain query (a 12-digit CCCD or an ID is hex too).
+ */
+final class MemberSearch {
+    private static final Map<String, Boolean> FTS_BY_URL = new ConcurrentHashMap<>();
+    private static final String KEY_PREFIX = "key:";
+    private static final int MIN_KEY_HEX_DIGITS = 8;
+    private static final String KEY_HEX_MATCH =
+            "hex(rsa_modulus_bin) LIKE ? OR hex(rsa_exponent_bin) LIKE ? OR hex(ec_point) LIKE ?";
+
+    private MemberSearch() {}
+
+    /** Lowercase, strip combining marks and map đ to d. */
+    static String fold(String s) {
+        if (s == null) return "";
+        String decomposed = Normalizer.normalize(s.toLowerCase(), Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            sb.append(c == 'đ' ? 'd' : c);
+        }
+        return sb.toString();
+    }
+
+    /** FTS5 MATCH expression with one prefix term per word, or null if the query has no searchable words. */
+    static String toMatchQuery(String query) {
+        StringBuilder sb = new StringBuilder();
+        for (String word : fold(query).split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append('"').append(word).append("\"*");
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    /** Whether members_fts exists in this database; checked once per URL. */
+    static boolean ftsAvailable(String dbUrl, PooledConnection conn) throws SQLException {
+        Boolean known = FTS_BY_URL.get(dbUrl);
+        if (known != null) return known;
+        boolean exists;
+        try (ResultSet rs = conn.prepare("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'members_fts'").executeQuery()) {
+            exists = rs.next();
+        }
+        FTS_BY_URL.put(dbUrl, exists);
+        return exists;
+    }
+
+    static boolean isKeyFingerprint(String query) {
+        return HexCodec.isHex(query, CardHelper.KEY_FINGERPRINT_SIZE * 2);
+    }
+
+    /** Hex digits of a "key:" query (see class comment), or null if it is not one. */
+    static String keyHex(String query) {
+        if (query == null || !query.regionMatches(true, 0, KEY_PREFIX, 0, KEY_PREFIX.length())) return null;
+        String hex = query.substring(KEY_PREFIX.length()).trim();
+        if (hex.length() < MIN_KEY_HEX_DIGITS) return null;
+        for (int i = 0; i < hex.length(); i++) {
+            if (Character.digit(hex.charAt(i), 16) < 0) return null;
+        }
+        return hex;
+    }
+
+    /** WHERE clause (with leading space) for the query, or "" to match everything. */
+    static String whereClause(boolean fts, String query) {
+        if (query == null || query.isEmpty()) return "";
+        if (isKeyFingerprint(query)) return " WHERE key_fingerprint = ?";
+        if (keyHex(query) != null) return " WHERE " + KEY_HEX_MATCH;
+        String text = fts && toMatchQuery(query) != null
+                ? "id IN (SELECT rowid FROM members_fts WHERE members_fts MATCH ?)"
+                : "(CAST(id AS TEXT) LIKE ? ESCAPE '\\' OR COALESCE(search_name, lower(full_name)) LIKE ? ESCAPE '\\' " +
+                  "OR lower(cccd) LIKE ? ESCAPE '\\')";
+        return " WHERE " + text;
+    }
+
+    /** Binds the whereClause parameters; returns the next parameter index. */
+    static int bind(PreparedStatement ps, boolean fts, String query, int index) throws SQLException {
+        if (query == null || query.isEmpty()) return index;
+        if (isKeyFingerprint(query)) {
+            ps.setBytes(index++, HexCodec.decode(query));
+            return index;
+        }
+        String keyHex = keyHex(query);
+        if (keyHex != null) {
+            // SQLite hex() is uppercase
+            String keyLike = "%" + keyHex.toUpperCase() + "%";
+            ps.setString(index++, keyLike);
+            ps.setString(index++, keyLike);
+            ps.setString(index++, keyLike);
+            return index;
+        }
+        String match = fts ? toMatchQuery(query) : null;
+        if (match != null) {
+            ps.setString(index++, match);
+        } else {
+            String like = "%" + escapeLike(query.toLowerCase()) + "%";
+            ps.setString(index++, like);
+            ps.setString(index++, "%" + escapeLike(fold(query)) + "%");
+            ps.setString(index++, like);
+        }
+        return index;
+    }
+
+    /** {@code s} with LIKE wildcards and the escape character itself taken literally (ESCAPE '\'). */
+    static String escapeLike(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 4);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '%' || c == '_' || c == '\\') sb.append('\\');
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,21 @@
+import java.time.LocalDate;
+
+/**
+ * Lightweight member row for list views and the staff card-swipe readout.
+ * Carries no BLOB/large-text columns; see MembersDao.getAvatar and
+ * MembersDao.getTransactionHistory for those.
+ */
+public class MemberSummary {
+    public int id;
+    public String fullName;
+    public int balanceVnd;
+    public LocalDate birthdate;
+    public LocalDate expiryDate;
+    public String cccd;
+    /** A card public key (RSA or EC) is registered. */
+    public boolean hasRsaKey;
+    public short pinretry;
+    public String lastCheckinDate;
+    public String createdAt;
+    public String updatedAt;
+}
@@ -2,139 +2,352 @@ import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * Simple SQLite DAO for members.db
  * Requires sqlite-jdbc on classpath: org.sqlite.JDBC
+ * Connections and prepared statements come from the shared DbConnectionPool.
+ * Writes are queued on the pool's single-writer actor; each mutation has an
+ * async variant returning a future and a blocking variant that waits for commit.
+ * Single-member scalar reads go through the shared MemberCache (avatar_data
+ * and transaction_history are never cached); committed writes are applied to
+ * (or drop) the cached row before the future completes.
  */
 public class MembersDao {
+    private static final String SELECT_ALL_COLUMNS =
+            "SELECT id, full_name, balance_vnd, birthdate, expiry_date, card_uid, rsa_public_key, rsa_modulus_bin, rsa_exponent_bin, ec_point, key_alg, key_fingerprint, transaction_history, pinretry, cccd, avatar_data, avatar_hash, last_checkin_date, created_at, updated_at FROM members";
+    // What MemberCache holds: every column except avatar_data and transaction_history
+    private static final String SELECT_SCALAR_COLUMNS =
+            "SELECT id, full_name, balance_vnd, birthdate, expiry_date, card_uid, rsa_public_key, rsa_modulus_bin, rsa_exponent_bin, ec_point, key_alg, key_fingerprint, pinretry, cccd, avatar_hash, last_checkin_date, created_at, updated_at FROM members";
+    // Projections: never pull avatar_data / transaction_history / key bytes unless asked
+    private static final String SELECT_SUMMARY_COLUMNS =
+            "SELECT id, full_name, balance_vnd, birthdate, expiry_date, cccd, " +
+            "(key_fingerprint IS NOT NULL) AS has_rsa, " +
+            "pinretry, last_checkin_date, created_at, updated_at FROM members";
+
     private final String dbUrl;
+    private final DbConnectionPool pool;
+    private final MemberCache cache;
 
     public MembersDao() {
-        this("jdbc:sqlite:members.db");
+        this(SchemaMigrations.DEFAULT_DB_URL);
     }
 
     public MembersDao(String dbUrl) {
         this.dbUrl = dbUrl;
+        this.pool = DbConnectionPool.forUrl(dbUrl);
+        this.cache = MemberCache.forUrl(dbUrl);
     }
 
-    private Connection getConnection() throws SQLException {
-        try {
-            // Attempt to load driver (ok if using JDBC 4 but helps older setups)
-            Class.forName("org.sqlite.JDBC");
-        } catch (ClassNotFoundException ignored) {
-            // Driver not found: connection may still work with modern JDBC, else SQL exception will be thrown.
-        }
-        Connection conn = DriverManager.getConnection(dbUrl);
-        try (Statement st = conn.createStatement()) {
-            st.executeUpdate("CREATE TABLE IF NOT EXISTS members (\n" +
-                        "  id INTEGER PRIMARY KEY,\n" +
-                    "  full_name TEXT,\n" +
-                    "  balance_vnd INTEGER DEFAULT 0,\n" +
-                    "  birthdate TEXT,\n" +
-                    "  expiry_date TEXT,\n" +
-                    "  card_uid TEXT,\n" +
-                    "  rsa_public_key TEXT,\n" +
-                    "  rsa_modulus TEXT,\n" +
-                    "  rsa_exponent TEXT,\n" +
-                    "  transaction_history TEXT,\n" +
-                    "  pinretry INTEGER DEFAULT 5,\n" +
-                        "  cccd TEXT,\n" +
-                        "  avatar_data BLOB,\n" +
-                        "  last_checkin_date TEXT,\n" +
-                    "  created_at TEXT DEFAULT (datetime('now','localtime')),\n" +
-                    "  updated_at TEXT DEFAULT (datetime('now','localtime'))\n" +
-                    ")");
-            st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_members_card_uid ON members(card_uid)");
-                // Attempt to add columns if older DB exists (ignore errors if already present)
-                try { st.executeUpdate("ALTER TABLE members ADD COLUMN cccd TEXT"); } catch (Exception ignored) {}
-                try { st.executeUpdate("ALTER TABLE members ADD COLUMN avatar_data BLOB"); } catch (Exception ignored) {}
-                try { st.executeUpdate("ALTER TABLE members ADD COLUMN rsa_modulus TEXT"); } catch (Exception ignored) {}
-                try { st.executeUpdate("ALTER TABLE members ADD COLUMN rsa_exponent TEXT"); } catch (Exception ignored) {}
-                try { st.executeUpdate("ALTER TABLE members ADD COLUMN last_checkin_date TEXT"); } catch (Exception ignored) {}
-        }
-        return conn;
+    /**
+     * Full member row including avatar_data and transaction_history, read
+     * from the DB; for edit/reset/detail flows. Returns a record the caller
+     * may modify.
+     */
+    public MemberRecord getByUserId(int userId) throws SQLException {
+        long stamp = cache.stamp();
+        MemberRecord loaded = pool.read(conn -> {
+            PreparedStatement ps = conn.prepare(SELECT_ALL_COLUMNS + " WHERE id = ?");
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) return map(rs, true);
+                return null;
+            }
+        });
+        cache.put(loaded, stamp);
+        return loaded;
     }
 
-    public MemberRecord getByUserId(int userId) throws SQLException {
-        String sql = "SELECT id, full_name, balance_vnd, birthdate, expiry_date, card_uid, rsa_public_key, rsa_modulus, rsa_exponent, transaction_history, pinretry, cccd, avatar_data, last_checkin_date, created_at, updated_at " +
-                     "FROM members WHERE id = ?";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+    /**
+     * Member row without avatar_data and transaction_history (both null);
+     * served from MemberCache when possible. Returns a copy the caller may
+     * modify, but never pass it to {@link #upsert}, which would clear the
+     * missing columns.
+     */
+    public MemberRecord getScalarRow(int userId) throws SQLException {
+        MemberRecord cached = cache.get(userId);
+        if (cached != null) return cached;
+        long stamp = cache.stamp();
+        MemberRecord loaded = pool.read(conn -> {
+            PreparedStatement ps = conn.prepare(SELECT_SCALAR_COLUMNS + " WHERE id = ?");
             ps.setInt(1, userId);
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) return map(rs);
+                if (rs.next()) return map(rs, false);
                 return null;
             }
-        }
+        });
+        cache.put(loaded, stamp);
+        return loaded;
     }
 
+    /** Full row including avatar and history; use for edit/backup flows only. */
     public List<MemberRecord> getAll() throws SQLException {
-        String sql = "SELECT id, full_name, balance_vnd, birthdate, expiry_date, card_uid, rsa_public_key, rsa_modulus, rsa_exponent, transaction_history, pinretry, cccd, avatar_data, last_checkin_date, created_at, updated_at FROM members ORDER BY id";
-        List<MemberRecord> list = new ArrayList<>();
-        try (Connection conn = getConnection(); Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(sql)) {
-            while (rs.next()) list.add(map(rs));
+        return pool.read(conn -> {
+            List<MemberRecord> list = new ArrayList<>();
+            try (ResultSet rs = conn.prepare(SELECT_ALL_COLUMNS + " ORDER BY id").executeQuery()) {
+                while (rs.next()) list.add(map(rs, true));
+            }
+            return list;
+        });
+    }
+
+    /**
+     * Members with a registered card key (id, key columns and key_alg only),
+     * most recently updated first; for PublicKeyCache.prewarm.
+     */
+    public List<MemberRecord> listRegisteredKeys(int limit) throws SQLException {
+        return pool.read(conn -> {
+            PreparedStatement ps = conn.prepare("SELECT id, rsa_modulus_bin, rsa_exponent_bin, ec_point, key_alg, key_fingerprint FROM members " +
+                    "WHERE key_fingerprint IS NOT NULL ORDER BY updated_at DESC LIMIT ?");
+            ps.setInt(1, limit);
+            List<MemberRecord> list = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    MemberRecord m = new MemberRecord();
+                    m.id = rs.getInt("id");
+                    m.rsaModulus = rs.getBytes("rsa_modulus_bin");
+                    m.rsaExponent = rs.getBytes("rsa_exponent_bin");
+                    m.ecPublicKey = rs.getBytes("ec_point");
+                    m.keyAlg = rs.getString("key_alg");
+                    m.keyFingerprint = rs.getBytes("key_fingerprint");
+                    list.add(m);
+                }
+            }
+            return list;
+        });
+    }
+
+    /** List view: one lightweight row per member, ordered by id. */
+    public List<MemberSummary> listSummaries() throws SQLException {
+        return pool.read(conn -> {
+            List<MemberSummary> list = new ArrayList<>();
+            try (ResultSet rs = conn.prepare(SELECT_SUMMARY_COLUMNS + " ORDER BY id").executeQuery()) {
+                while (rs.next()) list.add(mapSummary(rs));
+            }
+            return list;
+        });
+    }
+
+    /** Number of members matching the list filter (empty = all). */
+    public int countSummaries(String query) throws SQLException {
+        return pool.read(conn -> {
+            boolean fts = MemberSearch.ftsAvailable(dbUrl, conn);
+            PreparedStatement ps = conn.prepare("SELECT COUNT(*) FROM members" + MemberSearch.whereClause(fts, query));
+            MemberSearch.bind(ps, fts, query, 1);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        });
+    }
+
+    /** Keyset page of the list view: members with id > afterId (null = first page), ordered by id. */
+    public List<MemberSummary> pageSummaries(String query, Integer afterId, int limit) throws SQLException {
+        return pool.read(conn -> {
+            boolean fts = MemberSearch.ftsAvailable(dbUrl, conn);
+            String where = MemberSearch.whereClause(fts, query);
+            PreparedStatement ps = conn.prepare(SELECT_SUMMARY_COLUMNS + where + (where.isEmpty() ? " WHERE" : " AND") + " id > ? ORDER BY id LIMIT ?");
+            int i = MemberSearch.bind(ps, fts, query, 1);
+            ps.setInt(i++, afterId != null ? afterId : Integer.MIN_VALUE);
+            ps.setInt(i, limit);
+            return readSummaries(ps);
+        });
+    }
+
+    /** OFFSET page of the list view; only for jumps where no keyset boundary is known. */
+    public List<MemberSummary> pageSummariesAtOffset(String query, int offset, int limit) throws SQLException {
+        return pool.read(conn -> {
+            boolean fts = MemberSearch.ftsAvailable(dbUrl, conn);
+            PreparedStatement ps = conn.prepare(SELECT_SUMMARY_COLUMNS + MemberSearch.whereClause(fts, query) + " ORDER BY id LIMIT ? OFFSET ?");
+            int i = MemberSearch.bind(ps, fts, query, 1);
+            ps.setInt(i++, limit);
+            ps.setInt(i, offset);
+            return readSummaries(ps);
+        });
+    }
+
+    private List<MemberSummary> readSummaries(PreparedStatement ps) throws SQLException {
+        List<MemberSummary> list = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) list.add(mapSummary(rs));
         }
         return list;
     }
 
+    /*
+     * Single-member views: summary and check-in state come from the cached
+     * scalar row (one DB read per swipe); the avatar and history are loaded
+     * by their own projections, never through the cache.
+     */
+
+    /** Card-swipe view for staff: summary columns of a single member. */
+    public MemberSummary getSummary(int userId) throws SQLException {
+        MemberRecord r = getScalarRow(userId);
+        if (r == null) return null;
+        MemberSummary m = new MemberSummary();
+        m.id = r.id;
+        m.fullName = r.fullName;
+        m.balanceVnd = r.balanceVnd;
+        m.birthdate = r.birthdate;
+        m.expiryDate = r.expiryDate;
+        m.cccd = r.cccd;
+        m.hasRsaKey = r.keyFingerprint != null;
+        m.pinretry = r.pinretry;
+        m.lastCheckinDate = r.lastCheckinDate;
+        m.createdAt = r.createdAt;
+        m.updatedAt = r.updatedAt;
+        return m;
+    }
+
+    /** Check-in view for the customer terminal. */
+    public MemberCheckinView getCheckinView(int userId) throws SQLException {
+        MemberRecord r = getScalarRow(userId);
+        if (r == null) return null;
+        MemberCheckinView v = new MemberCheckinView();
+        v.id = r.id;
+        v.pinretry = r.pinretry;
+        v.expiryDate = r.expiryDate;
+        v.lastCheckinDate = r.lastCheckinDate;
+        return v;
+    }
+
+    /** Avatar bytes for detail panes. Null if none. */
+    public byte[] getAvatar(int userId) throws SQLException {
+        return pool.read(conn -> {
+            PreparedStatement ps = conn.prepare("SELECT avatar_data FROM members WHERE id = ?");
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getBytes(1) : null;
+            }
+        });
+    }
+
+    /** Hex version hash of the member's avatar (matches AVATAR_INFO on their card). Null if none. */
+    public String getAvatarHash(int userId) throws SQLException {
+        return pool.read(conn -> {
+            PreparedStatement ps = conn.prepare("SELECT avatar_hash FROM members WHERE id = ?");
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        });
+    }
+
+    /** Legacy transaction_history text for detail panes. Null if none. */
+    public String getTransactionHistory(int userId) throws SQLException {
+        return pool.read(conn -> {
+            PreparedStatement ps = conn.prepare("SELECT transaction_history FROM members WHERE id = ?");
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        });
+    }
+
+    /** Hit/miss statistics of the shared member cache. */
+    public String cacheStats() {
+        return cache.stats();
+    }
+
+    /**
+     * After the write commits, apply {@code change} to the cached row (or drop
+     * the row if change is null or the write failed). The returned future
+     * completes after the cache is updated, so callers read their own writes.
+     */
+    private <T> CompletableFuture<T> applyToCache(CompletableFuture<T> write, int userId, Consumer<MemberRecord> change) {
+        return write.whenComplete((result, ex) -> {
+            if (ex == null && change != null) cache.update(userId, change);
+            else cache.invalidate(userId);
+        });
+    }
+
     public void upsert(MemberRecord m) throws SQLException {
-        String sql = "INSERT INTO members (id, full_name, balance_vnd, birthdate, expiry_date, card_uid, rsa_public_key, transaction_history, pinretry, cccd, avatar_data, created_at, updated_at) " +
-                 "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, datetime('now','localtime'), datetime('now','localtime')) " +
+        DbWriter.await(upsertAsync(m));
+    }
+
+    public CompletableFuture<Integer> upsertAsync(MemberRecord m) {
+        String sql = "INSERT INTO members (id, full_name, search_name, balance_vnd, birthdate, expiry_date, card_uid, rsa_public_key, transaction_history, pinretry, cccd, avatar_data, avatar_hash, created_at, updated_at) " +
+                 "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, datetime('now','localtime'), datetime('now','localtime')) " +
                      "ON CONFLICT(id) DO UPDATE SET " +
-                     "full_name=excluded.full_name, balance_vnd=excluded.balance_vnd, birthdate=excluded.birthdate, " +
+                     "full_name=excluded.full_name, search_name=excluded.search_name, balance_vnd=excluded.balance_vnd, birthdate=excluded.birthdate, " +
                      "expiry_date=excluded.expiry_date, card_uid=excluded.card_uid, rsa_public_key=excluded.rsa_public_key, " +
-                 "transaction_history=excluded.transaction_history, pinretry=excluded.pinretry, cccd=excluded.cccd, avatar_data=excluded.avatar_data, updated_at=datetime('now','localtime')";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+                 "transaction_history=excluded.transaction_history, pinretry=excluded.pinretry, cccd=excluded.cccd, avatar_data=excluded.avatar_data, avatar_hash=excluded.avatar_hash, updated_at=datetime('now','localtime')";
+        return applyToCache(pool.writes().submit(conn -> {
+            PreparedStatement ps = conn.prepare(sql);
             ps.setInt(1, m.id);
             ps.setString(2, m.fullName);
-            ps.setInt(3, m.balanceVnd);
-            ps.setString(4, m.birthdate != null ? m.birthdate.toString() : null);
-            ps.setString(5, m.expiryDate != null ? m.expiryDate.toString() : null);
-            ps.setString(6, m.cardUid);
-            ps.setString(7, m.rsaPublicKey);
-            ps.setString(8, m.transactionHistory);
-            ps.setShort(9, m.pinretry);
-            ps.setString(10, m.cccd);
-            ps.setBytes(11, m.avatarData);
-            ps.executeUpdate();
-        }
+            ps.setString(3, m.fullName != null ? MemberSearch.fold(m.fullName) : null);
+            ps.setInt(4, m.balanceVnd);
+            ps.setString(5, m.birthdate != null ? m.birthdate.toString() : null);
+            ps.setString(6, m.expiryDate != null ? m.expiryDate.toString() : null);
+            ps.setString(7, m.cardUid);
+            ps.setString(8, m.rsaPublicKey);
+            ps.setString(9, m.transactionHistory);
+            ps.setShort(10, m.pinretry);
+            ps.setString(11, m.cccd);
+            ps.setBytes(12, m.avatarData);
+            ps.setString(13, m.avatarHash);
+            return ps.executeUpdate();
+        }), m.id, null);
     }
 
     public void updateBalanceAndExpiry(int memberId, int newBalance, LocalDate newExpiryDate) throws SQLException {
+        DbWriter.await(updateBalanceAndExpiryAsync(memberId, newBalance, newExpiryDate));
+    }
+
+    public CompletableFuture<Integer> updateBalanceAndExpiryAsync(int memberId, int newBalance, LocalDate newExpiryDate) {
+        return applyToCache(pool.writes().submit(conn -> applyBalanceAndExpiry(conn, memberId, newBalance, newExpiryDate)),
+                memberId, r -> { r.balanceVnd = newBalance; r.expiryDate = newExpiryDate; });
+    }
+
+    /** Balance/expiry update on an already-acquired writer connection (see PaymentService). */
+    static int applyBalanceAndExpiry(PooledConnection conn, int memberId, int newBalance, LocalDate newExpiryDate) throws SQLException {
         String sql = "UPDATE members SET balance_vnd = ?, expiry_date = ?, updated_at = datetime('now','localtime') WHERE id = ?";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, newBalance);
-            ps.setString(2, newExpiryDate != null ? newExpiryDate.toString() : null);
-            ps.setInt(3, memberId);
-            ps.executeUpdate();
-        }
+        PreparedStatement ps = conn.prepare(sql);
+        ps.setInt(1, newBalance);
+        ps.setString(2, newExpiryDate != null ? newExpiryDate.toString() : null);
+        ps.setInt(3, memberId);
+        return ps.executeUpdate();
     }
 
     public void updatePinRetry(int memberId, short retries) throws SQLException {
+        DbWriter.await(updatePinRetryAsync(memberId, retries));
+    }
+
+    public CompletableFuture<Integer> updatePinRetryAsync(int memberId, short retries) {
         String sql = "UPDATE members SET pinretry = ?, updated_at = datetime('now','localtime') WHERE id = ?";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+        return applyToCache(pool.writes().submit(conn -> {
+            PreparedStatement ps = conn.prepare(sql);
             ps.setShort(1, retries);
             ps.setInt(2, memberId);
-            ps.executeUpdate();
-        }
+            return ps.executeUpdate();
+        }), memberId, r -> r.pinretry = retries);
     }
 
-    private MemberRecord map(ResultSet rs) throws SQLException {
+    /** Row of SELECT_ALL_COLUMNS, or of SELECT_SCALAR_COLUMNS if {@code withLargeColumns} is false. */
+    private MemberRecord map(ResultSet rs, boolean withLargeColumns) throws SQLException {
         MemberRecord m = new MemberRecord();
         m.id = rs.getInt("id");
         m.fullName = rs.getString("full_name");
         m.balanceVnd = rs.getInt("balance_vnd");
         m.cardUid = rs.getString("card_uid");
         m.rsaPublicKey = rs.getString("rsa_public_key");
-        try { m.rsaModulusHex = rs.getString("rsa_modulus"); } catch (SQLException ignored) { m.rsaModulusHex = null; }
-        try { m.rsaExponentHex = rs.getString("rsa_exponent"); } catch (SQLException ignored) { m.rsaExponentHex = null; }
-        m.transactionHistory = rs.getString("transaction_history");
+        try { m.rsaModulus = rs.getBytes("rsa_modulus_bin"); } catch (SQLException ignored) { m.rsaModulus = null; }
+        try { m.rsaExponent = rs.getBytes("rsa_exponent_bin"); } catch (SQLException ignored) { m.rsaExponent = null; }
+        try { m.ecPublicKey = rs.getBytes("ec_point"); } catch (SQLException ignored) { m.ecPublicKey = null; }
+        try { m.keyAlg = rs.getString("key_alg"); } catch (SQLException ignored) { m.keyAlg = null; }
+        try { m.keyFingerprint = rs.getBytes("key_fingerprint"); } catch (SQLException ignored) { m.keyFingerprint = null; }
         m.pinretry = rs.getShort("pinretry");
         m.createdAt = rs.getString("created_at");
         m.updatedAt = rs.getString("updated_at");
         try { m.lastCheckinDate = rs.getString("last_checkin_date"); } catch (SQLException ignored) { m.lastCheckinDate = null; }
-            m.cccd = rs.getString("cccd");
+        m.cccd = rs.getString("cccd");
+        try { m.avatarHash = rs.getString("avatar_hash"); } catch (SQLException ignored) { m.avatarHash = null; }
+        if (withLargeColumns) {
+            m.transactionHistory = rs.getString("transaction_history");
             try { m.avatarData = rs.getBytes("avatar_data"); } catch (SQLException ignored) { m.avatarData = null; }
+        }
         // Parse dates if present
         String bd = rs.getString("birthdate");
         m.birthdate = (bd != null && !bd.isEmpty()) ? LocalDate.parse(bd) : null;
@@ -143,23 +356,96 @@ public class MembersDao {
         return m;
     }
 
-    public void updateRsaPublicKeyHex(int userId, String modulusHex, String exponentHex) throws SQLException {
-        String sql = "UPDATE members SET rsa_modulus = ?, rsa_exponent = ?, updated_at = datetime('now','localtime') WHERE id = ?";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, modulusHex);
-            ps.setString(2, exponentHex);
+    private MemberSummary mapSummary(ResultSet rs) throws SQLException {
+        MemberSummary m = new MemberSummary();
+        m.id = rs.getInt("id");
+        m.fullName = rs.getString("full_name");
+        m.balanceVnd = rs.getInt("balance_vnd");
+        m.birthdate = parseDate(rs.getString("birthdate"));
+        m.expiryDate = parseDate(rs.getString("expiry_date"));
+        m.cccd = rs.getString("cccd");
+        m.hasRsaKey = rs.getInt("has_rsa") != 0;
+        m.pinretry = rs.getShort("pinretry");
+        m.lastCheckinDate = rs.getString("last_checkin_date");
+        m.createdAt = rs.getString("created_at");
+        m.updatedAt = rs.getString("updated_at");
+        return m;
+    }
+
+    private static LocalDate parseDate(String s) {
+        return (s != null && !s.isEmpty()) ? LocalDate.parse(s) : null;
+    }
+
+    public void updateRsaPublicKey(int userId, byte[] modulus, byte[] exponent) throws SQLException {
+        DbWriter.await(updateRsaPublicKeyAsync(userId, modulus, exponent));
+    }
+
+    /** Register an RSA card key (BLOBs plus the indexed IDENTIFY fingerprint); key_alg = 'RSA'. */
+    public CompletableFuture<Integer> updateRsaPublicKeyAsync(int userId, byte[] modulus, byte[] exponent) {
+        byte[] mod = modulus.clone();
+        byte[] exp = exponent.clone();
+        byte[] fingerprint = RsaKeyService.fingerprint(mod, exp);
+        String sql = "UPDATE members SET rsa_modulus_bin = ?, rsa_exponent_bin = ?, key_fingerprint = ?, key_alg = 'RSA', " +
+                "updated_at = datetime('now','localtime') WHERE id = ?";
+        return applyToCache(pool.writes().submit(conn -> {
+            PreparedStatement ps = conn.prepare(sql);
+            ps.setBytes(1, mod);
+            ps.setBytes(2, exp);
+            ps.setBytes(3, fingerprint);
+            ps.setInt(4, userId);
+            return ps.executeUpdate();
+        }), userId, r -> { r.rsaModulus = mod; r.rsaExponent = exp; r.keyFingerprint = fingerprint; r.keyAlg = "RSA"; })
+                .whenComplete((n, ex) -> PublicKeyCache.getInstance().invalidate(userId));
+    }
+
+    public void updateEcPublicKey(int userId, byte[] point) throws SQLException {
+        DbWriter.await(updateEcPublicKeyAsync(userId, point));
+    }
+
+    /** Register an EC P-256 card key; login then uses ECDSA (key_alg = 'EC'). */
+    public CompletableFuture<Integer> updateEcPublicKeyAsync(int userId, byte[] point) {
+        byte[] w = point.clone();
+        byte[] fingerprint = RsaKeyService.ecFingerprint(w);
+        String sql = "UPDATE members SET ec_point = ?, key_fingerprint = ?, key_alg = 'EC', updated_at = datetime('now','localtime') WHERE id = ?";
+        return applyToCache(pool.writes().submit(conn -> {
+            PreparedStatement ps = conn.prepare(sql);
+            ps.setBytes(1, w);
+            ps.setBytes(2, fingerprint);
             ps.setInt(3, userId);
-            ps.executeUpdate();
-        }
+            return ps.executeUpdate();
+        }), userId, r -> { r.ecPublicKey = w; r.keyFingerprint = fingerprint; r.keyAlg = "EC"; })
+                .whenComplete((n, ex) -> PublicKeyCache.getInstance().invalidate(userId));
+    }
+
+    /**
+     * Member whose registered card key has this IDENTIFY fingerprint (8
+     * bytes), via idx_members_key_fingerprint. Null if none; the most
+     * recently updated row wins on a (truncated-hash) collision.
+     */
+    public MemberRecord findByKeyFingerprint(byte[] fingerprint) throws SQLException {
+        if (fingerprint == null) return null;
+        Integer id = pool.read(conn -> {
+            PreparedStatement ps = conn.prepare("SELECT id FROM members WHERE key_fingerprint = ? ORDER BY updated_at DESC LIMIT 1");
+            ps.setBytes(1, fingerprint);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : null;
+            }
+        });
+        return id != null ? getScalarRow(id) : null;
     }
 
     public void updateExpiryAndCheckin(int memberId, LocalDate newExpiryDate, String todayStr) throws SQLException {
+        DbWriter.await(updateExpiryAndCheckinAsync(memberId, newExpiryDate, todayStr));
+    }
+
+    public CompletableFuture<Integer> updateExpiryAndCheckinAsync(int memberId, LocalDate newExpiryDate, String todayStr) {
         String sql = "UPDATE members SET expiry_date = ?, last_checkin_date = ?, updated_at = datetime('now','localtime') WHERE id = ?";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+        return applyToCache(pool.writes().submit(conn -> {
+            PreparedStatement ps = conn.prepare(sql);
             ps.setString(1, newExpiryDate != null ? newExpiryDate.toString() : null);
             ps.setString(2, todayStr);
             ps.setInt(3, memberId);
-            ps.executeUpdate();
-        }
+            return ps.executeUpdate();
+        }), memberId, r -> { r.expiryDate = newExpiryDate; r.lastCheckinDate = todayStr; });
     }
 }
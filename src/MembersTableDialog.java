@@ -1,15 +1,22 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.sql.SQLException;
 import java.util.List;
 
 /**
  * Dialog hiển thị toàn bộ thành viên từ Database.
  */
 public class MembersTableDialog extends JDialog {
+    private static final int PAGE_SIZE = 200;
+    private static final int MAX_PAGES = 10;
+    private static final int SEARCH_DEBOUNCE_MS = 200;
+
     private final MembersDao dao = new MembersDao();
-    private final DefaultTableModel model;
+    private final KeysetTableModel<MemberSummary> model;
     private final JTextField searchField;
+    private final JLabel statusLabel = new JLabel(" ");
+    /** Current filter; read by the model's fetch hooks on the loader thread. */
+    private volatile String query = "";
 
     public MembersTableDialog(Frame owner) {
         super(owner, "Thành Viên (Database)", true);
@@ -26,27 +33,67 @@ public class MembersTableDialog extends JDialog {
             new TransactionsTableDialog(owner).setVisible(true);
         });
         JPanel leftTop = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 0));
-        leftTop.add(new JLabel("Tìm (ID/Họ Tên/CCCD):"));
+        leftTop.add(new JLabel("Tìm (ID/Họ Tên/CCCD, không dấu, hoặc mã khóa 16 hex; key:<hex> tìm một phần khóa):"));
         leftTop.add(txBtn);
         top.add(leftTop, BorderLayout.WEST);
         top.add(searchField, BorderLayout.CENTER);
         top.add(refreshBtn, BorderLayout.EAST);
         add(top, BorderLayout.NORTH);
 
-        model = new DefaultTableModel(new Object[]{
-            "ID", "Họ Tên", "Số Dư (VND)", "Ngày Sinh", "Hạn Tập", "CCCD", "RSA", "Modulus (Hex)", "Exponent (Hex)", "Lịch Sử GD", "PIN Retry", "Tạo Lúc", "Cập Nhật"
-        }, 0) {
-            @Override public boolean isCellEditable(int row, int column) { return false; }
+        model = new KeysetTableModel<MemberSummary>(new String[]{
+            "ID", "Họ Tên", "Số Dư (VND)", "Ngày Sinh", "Hạn Tập", "CCCD", "RSA", "PIN Retry", "Check-in Gần Nhất", "Tạo Lúc", "Cập Nhật"
+        }, PAGE_SIZE, MAX_PAGES) {
+            @Override protected int fetchCount() throws SQLException { return dao.countSummaries(query); }
+            @Override protected List<MemberSummary> fetchAfter(Object afterKey, int limit) throws SQLException {
+                return dao.pageSummaries(query, (Integer) afterKey, limit);
+            }
+            @Override protected List<MemberSummary> fetchAtOffset(int offset, int limit) throws SQLException {
+                return dao.pageSummariesAtOffset(query, offset, limit);
+            }
+            @Override protected Object keyOf(MemberSummary m) { return m.id; }
+            @Override protected Object valueAt(MemberSummary m, int column) {
+                switch (column) {
+                    case 0: return m.id;
+                    case 1: return m.fullName;
+                    case 2: return m.balanceVnd;
+                    case 3: return m.birthdate != null ? m.birthdate : "";
+                    case 4: return m.expiryDate != null ? m.expiryDate : "";
+                    case 5: return m.cccd != null ? m.cccd : "";
+                    case 6: return m.hasRsaKey ? "Có" : "Không";
+                    case 7: return m.pinretry;
+                    case 8: return m.lastCheckinDate != null ? m.lastCheckinDate : "";
+                    case 9: return m.createdAt != null ? m.createdAt : "";
+                    default: return m.updatedAt != null ? m.updatedAt : "";
+                }
+            }
+            @Override protected void onCountLoaded(int count) {
+                statusLabel.setText("Tổng: " + count + " thành viên — nhấp đúp vào một dòng để xem chi tiết");
+            }
+            @Override protected void onLoadError(Exception ex) {
+                statusLabel.setText("❌ Lỗi tải dữ liệu Database: " + ex.getMessage());
+            }
         };
         JTable table = new JTable(model);
+        // Double-click: mở chi tiết (RSA, lịch sử, ảnh) - chỉ tải khi cần
+        table.addMouseListener(new java.awt.event.MouseAdapter() {
+            @Override public void mouseClicked(java.awt.event.MouseEvent e) {
+                if (e.getClickCount() != 2) return;
+                int row = table.getSelectedRow();
+                if (row < 0) return;
+                MemberSummary m = model.getRow(table.convertRowIndexToModel(row));
+                if (m != null) showDetail(m.id);
+            }
+        });
         add(new JScrollPane(table), BorderLayout.CENTER);
+        add(statusLabel, BorderLayout.SOUTH);
 
         reload();
-        // Simple filter on typing
+        // Filter on typing, debounced so a burst of keystrokes runs one query
+        Timer searchDebounce = new Timer(SEARCH_DEBOUNCE_MS, e -> reload(searchField.getText().trim()));
+        searchDebounce.setRepeats(false);
         searchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
             private void apply() {
-                String q = searchField.getText().trim().toLowerCase();
-                reload(q);
+                searchDebounce.restart();
             }
             public void insertUpdate(javax.swing.event.DocumentEvent e) { apply(); }
             public void removeUpdate(javax.swing.event.DocumentEvent e) { apply(); }
@@ -54,45 +101,50 @@ public class MembersTableDialog extends JDialog {
         });
     }
 
-    private void reload() { reload(""); }
+    private void reload() { reload(query); }
 
-    private void reload(String query) {
-        // Clear
-        model.setRowCount(0);
+    private void reload(String q) {
+        query = q;
+        statusLabel.setText("Đang tải...");
+        model.reload();
+    }
+
+    /** Detail pane: loads the full row (card key, history, avatar) for one member. */
+    private void showDetail(int memberId) {
+        MemberRecord m;
         try {
-            List<MemberRecord> all = dao.getAll();
-            for (MemberRecord m : all) {
-                if (!query.isEmpty()) {
-                    String idStr = String.valueOf(m.id);
-                    String name = m.fullName != null ? m.fullName.toLowerCase() : "";
-                    String cccd = m.cccd != null ? m.cccd.toLowerCase() : "";
-                    String modHex = m.rsaModulusHex != null ? m.rsaModulusHex.toLowerCase() : "";
-                    String expHex = m.rsaExponentHex != null ? m.rsaExponentHex.toLowerCase() : "";
-                    if (!(idStr.contains(query) || name.contains(query) || cccd.contains(query) || modHex.contains(query) || expHex.contains(query))) {
-                        continue;
-                    }
-                }
-                model.addRow(new Object[]{
-                    m.id,
-                    m.fullName,
-                    m.balanceVnd,
-                    m.birthdate != null ? m.birthdate : "",
-                    m.expiryDate != null ? m.expiryDate : "",
-                    m.cccd != null ? m.cccd : "",
-                    ((m.rsaModulusHex != null && !m.rsaModulusHex.isEmpty()) && (m.rsaExponentHex != null && !m.rsaExponentHex.isEmpty())) ? "Có" : "Không",
-                    m.rsaModulusHex != null ? m.rsaModulusHex : "",
-                    m.rsaExponentHex != null ? m.rsaExponentHex : "",
-                    m.transactionHistory != null ? m.transactionHistory : "",
-                    m.pinretry,
-                    m.createdAt != null ? m.createdAt : "",
-                    m.updatedAt != null ? m.updatedAt : ""
-                });
-            }
+            m = dao.getByUserId(memberId);
         } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this,
-                "❌ Lỗi tải dữ liệu Database: " + ex.getMessage(),
-                "Lỗi",
-                JOptionPane.ERROR_MESSAGE);
+            JOptionPane.showMessageDialog(this, "❌ Lỗi tải chi tiết: " + ex.getMessage(), "Lỗi", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (m == null) return;
+
+        JPanel panel = new JPanel(new BorderLayout(8, 8));
+        JTextArea text = new JTextArea(14, 48);
+        text.setEditable(false);
+        text.setLineWrap(true);
+        StringBuilder info = new StringBuilder();
+        info.append("ID: ").append(m.id).append("\n");
+        info.append("Họ Tên: ").append(m.fullName != null ? m.fullName : "").append("\n");
+        info.append("CCCD: ").append(m.cccd != null ? m.cccd : "").append("\n");
+        info.append("Khóa Thẻ: ").append(m.keyAlg != null ? m.keyAlg : (m.rsaModulus != null ? "RSA" : "")).append("\n");
+        info.append("Mã Khóa (Fingerprint): ").append(m.keyFingerprint != null ? HexCodec.encode(m.keyFingerprint) : "").append("\n");
+        if (m.ecPublicKey != null) {
+            info.append("EC Point (Hex): ").append(HexCodec.encode(m.ecPublicKey)).append("\n");
+        }
+        info.append("Modulus (Hex): ").append(m.rsaModulus != null ? HexCodec.encode(m.rsaModulus) : "").append("\n");
+        info.append("Exponent (Hex): ").append(m.rsaExponent != null ? HexCodec.encode(m.rsaExponent) : "").append("\n");
+        info.append("Lịch Sử GD: ").append(m.transactionHistory != null ? m.transactionHistory : "").append("\n");
+        text.setText(info.toString());
+        panel.add(new JScrollPane(text), BorderLayout.CENTER);
+
+        ImageIcon avatar = AvatarCache.getInstance().icon(m.id, m.avatarHash, m.avatarData);
+        if (avatar != null) {
+            JLabel avatarLabel = new JLabel(avatar);
+            avatarLabel.setBorder(BorderFactory.createTitledBorder("Ảnh Đại Diện"));
+            panel.add(avatarLabel, BorderLayout.EAST);
         }
+        JOptionPane.showMessageDialog(this, panel, "Chi Tiết Thành Viên #" + m.id, JOptionPane.INFORMATION_MESSAGE);
     }
 }
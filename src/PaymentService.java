@@ -0,0 +1,59 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Unit of work for card payments: the ledger row in transactions and the new
+ * balance/expiry in members are written by one DB write task, so they commit
+ * together (one transaction, one fsync) or not at all.
+ *
+ * Fails with SQLException if the member row does not exist, leaving no
+ * orphan ledger row behind; callers fall back to FileLogger in that case.
+ */
+public class PaymentService {
+    private final DbConnectionPool pool;
+    private final MemberCache cache;
+
+    public PaymentService() {
+        this(SchemaMigrations.DEFAULT_DB_URL);
+    }
+
+    public PaymentService(String dbUrl) {
+        this.pool = DbConnectionPool.forUrl(dbUrl);
+        this.cache = MemberCache.forUrl(dbUrl);
+    }
+
+    public CompletableFuture<Void> recordPurchase(int memberId, List<CardEventBroadcaster.CartItem> items, int totalPrice,
+                                                  int newBalance, LocalDate newExpiryDate) {
+        String itemsJson = TransactionsDao.toItemsJson(items);
+        return record(memberId, "PURCHASE", totalPrice, itemsJson, null, newBalance, newExpiryDate);
+    }
+
+    public CompletableFuture<Void> recordTopup(int memberId, int amount, String paymentMethod,
+                                               int newBalance, LocalDate newExpiryDate) {
+        return record(memberId, "TOPUP", amount, null, paymentMethod, newBalance, newExpiryDate);
+    }
+
+    public CompletableFuture<Void> recordRenew(int memberId, int daysAdded, int price,
+                                               int newBalance, LocalDate newExpiryDate) {
+        return record(memberId, "RENEW", price, TransactionsDao.renewItemsJson(daysAdded), null, newBalance, newExpiryDate);
+    }
+
+    private CompletableFuture<Void> record(int memberId, String type, int amount, String items, String paymentMethod,
+                                           int newBalance, LocalDate newExpiryDate) {
+        // DbWriter runs this inside a savepoint of the current group commit,
+        // so throwing here rolls back both statements.
+        return pool.writes().submit(conn -> {
+            int updated = MembersDao.applyBalanceAndExpiry(conn, memberId, newBalance, newExpiryDate);
+            if (updated == 0) {
+                throw new SQLException("Member not found: " + memberId);
+            }
+            TransactionsDao.insertTransaction(conn, memberId, type, amount, items, paymentMethod);
+            return (Void) null;
+        }).whenComplete((v, ex) -> {
+            if (ex == null) cache.update(memberId, r -> { r.balanceVnd = newBalance; r.expiryDate = newExpiryDate; });
+            else cache.invalidate(memberId);
+        });
+    }
+}
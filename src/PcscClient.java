@@ -1,21 +1,36 @@
 import javax.smartcardio.*;
 import java.util.List;
 
-public final class PcscClient implements AutoCloseable {
+/**
+ * Thin PC/SC client (the real-hardware CardTransport). Either unbound (connects to whichever reader has a card)
+ * or bound to one reader (see ReaderRegistry). Connection state is guarded
+ * by this object's monitor, so one instance may be shared across threads.
+ */
+public final class PcscClient implements CardTransport {
     private final TerminalFactory terminalFactory;
+    private final CardTerminal boundTerminal;
     private CardTerminal terminal;
     private Card card;
     private CardChannel channel;
 
     public PcscClient() {
+        this(null);
+    }
+
+    /** Client that only ever connects to the given reader. */
+    public PcscClient(CardTerminal boundTerminal) {
         this.terminalFactory = TerminalFactory.getDefault();
+        this.boundTerminal = boundTerminal;
     }
 
     public List<CardTerminal> listTerminals() throws CardException {
         return terminalFactory.terminals().list();
     }
 
-    public PcscClient connectFirstPresentOrFirst() throws Exception {
+    public synchronized PcscClient connectFirstPresentOrFirst() throws Exception {
+        if (boundTerminal != null) {
+            return connect(boundTerminal);
+        }
         List<CardTerminal> terminals = listTerminals();
         if (terminals.isEmpty()) {
             throw new IllegalStateException("No PC/SC terminals found. On Windows, verify Smart Card service is running and a reader (or virtual reader) is installed.");
@@ -34,7 +49,7 @@ public final class PcscClient implements AutoCloseable {
         return connect(terminals.get(0));
     }
 
-    public PcscClient connect(CardTerminal terminal) throws CardException {
+    public synchronized PcscClient connect(CardTerminal terminal) throws CardException {
         this.terminal = terminal;
         this.card = terminal.connect("*");
         this.channel = card.getBasicChannel();
@@ -42,14 +57,34 @@ public final class PcscClient implements AutoCloseable {
     }
 
     public PcscClient waitForCardPresent(long timeoutMs) throws CardException {
-        if (terminal == null) {
+        CardTerminal t;
+        synchronized (this) {
+            t = terminal != null ? terminal : boundTerminal;
+        }
+        if (t == null) {
             throw new IllegalStateException("Terminal not selected yet");
         }
-        terminal.waitForCardPresent(timeoutMs);
+        // Not under the lock: waiting must not block transmit on other threads
+        t.waitForCardPresent(timeoutMs);
         return this;
     }
 
-    public ResponseAPDU transmit(CommandAPDU apdu) throws CardException {
+    /** Name of the bound or connected reader, or null. */
+    public synchronized String terminalName() {
+        CardTerminal t = terminal != null ? terminal : boundTerminal;
+        return t != null ? t.getName() : null;
+    }
+
+    public synchronized boolean isConnected() {
+        return channel != null;
+    }
+
+    /** Extended APDUs need T=1 (or contactless); T=0 only carries short ones. */
+    public synchronized boolean supportsExtendedLength() {
+        return card != null && !"T=0".equals(card.getProtocol());
+    }
+
+    public synchronized ResponseAPDU transmit(CommandAPDU apdu) throws CardException {
         if (channel == null) {
             throw new IllegalStateException("Not connected");
         }
@@ -66,7 +101,7 @@ public final class PcscClient implements AutoCloseable {
     }
 
     @Override
-    public void close() {
+    public synchronized void close() {
         try {
             if (card != null) {
                 card.disconnect(false);
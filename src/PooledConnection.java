@@ -0,0 +1,54 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Long-lived SQLite connection owned by {@link DbConnectionPool}.
+ * Caches one PreparedStatement per SQL string so repeated DAO calls skip
+ * re-parsing. Statements returned by {@link #prepare(String)} belong to the
+ * cache: close their ResultSets, never the statements themselves.
+ *
+ * Not thread-safe; the pool hands each instance to one thread at a time.
+ */
+public final class PooledConnection {
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    PooledConnection(Connection connection) {
+        this.connection = connection;
+    }
+
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps == null || ps.isClosed()) {
+            ps = connection.prepareStatement(sql);
+            statements.put(sql, ps);
+        } else {
+            ps.clearParameters();
+        }
+        return ps;
+    }
+
+    /** Underlying JDBC connection, for transaction control. */
+    public Connection connection() {
+        return connection;
+    }
+
+    boolean isUsable() {
+        try {
+            return !connection.isClosed();
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    void close() {
+        for (PreparedStatement ps : statements.values()) {
+            try { ps.close(); } catch (SQLException ignored) {}
+        }
+        statements.clear();
+        try { connection.close(); } catch (SQLException ignored) {}
+    }
+}
@@ -0,0 +1,169 @@
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Card public keys ready for Signature.initVerify, one per member, tagged
+ * with the key fingerprint (as IDENTIFY reports it).
+ *
+ * Building a PublicKey from the stored bytes (BigIntegers, curve lookup,
+ * KeyFactory) costs more than the verify itself. A hit needs the same
+ * algorithm and the same key bytes the entry was built from, so a rotated key
+ * never matches a stale entry; MembersDao key updates and card resets also
+ * invalidate the member explicitly. LRU, bounded by -Dgym.cache.publicKeys
+ * (default 256); {@link #prewarm(MembersDao)} fills it at startup.
+ */
+public final class PublicKeyCache {
+    private static final PublicKeyCache INSTANCE = new PublicKeyCache(Integer.getInteger("gym.cache.publicKeys", 256));
+
+    private static final class Entry {
+        final String alg;
+        final byte[] encoded;
+        final byte[] exponent;
+        final byte[] fingerprint;
+        final PublicKey key;
+
+        Entry(String alg, byte[] encoded, byte[] exponent, byte[] fingerprint, PublicKey key) {
+            this.alg = alg;
+            this.encoded = encoded.clone();
+            this.exponent = exponent != null ? exponent.clone() : null;
+            this.fingerprint = fingerprint;
+            this.key = key;
+        }
+
+        boolean matches(String alg, byte[] encoded, byte[] exponent) {
+            return this.alg.equals(alg) && Arrays.equals(this.encoded, encoded) && Arrays.equals(this.exponent, exponent);
+        }
+    }
+
+    private final int maxEntries;
+    private final LinkedHashMap<Integer, Entry> entries;
+    private ECParameterSpec p256;
+    private long hits;
+    private long misses;
+
+    private PublicKeyCache(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<Integer, Entry>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                return size() > PublicKeyCache.this.maxEntries;
+            }
+        };
+    }
+
+    public static PublicKeyCache getInstance() {
+        return INSTANCE;
+    }
+
+    /** Key the member's card logs in with (EC or RSA, per key_alg). */
+    public PublicKey forMember(MemberRecord rec) throws GeneralSecurityException {
+        if ("EC".equals(rec.keyAlg) && rec.ecPublicKey != null) {
+            return ec(rec.id, rec.ecPublicKey);
+        }
+        if (rec.rsaModulus == null || rec.rsaExponent == null) {
+            throw new IllegalStateException("RSA public key not registered for user " + rec.id);
+        }
+        return rsa(rec.id, rec.rsaModulus, rec.rsaExponent);
+    }
+
+    /** RSA key from the stored modulus/exponent. */
+    public PublicKey rsa(int userId, byte[] modulus, byte[] exponent) throws GeneralSecurityException {
+        PublicKey cached = get(userId, "RSA", modulus, exponent);
+        if (cached != null) return cached;
+        // Positive BigIntegers: the modulus may come with or without a leading 00
+        BigInteger n = new BigInteger(1, modulus);
+        BigInteger e = new BigInteger(1, exponent);
+        PublicKey pub = CryptoContext.keyFactory("RSA").generatePublic(new RSAPublicKeySpec(n, e));
+        put(userId, new Entry("RSA", modulus, exponent, RsaKeyService.fingerprint(modulus, exponent), pub));
+        return pub;
+    }
+
+    /** EC P-256 key for the uncompressed point {@code 04 || X || Y} stored for this member. */
+    public PublicKey ec(int userId, byte[] w) throws GeneralSecurityException {
+        PublicKey cached = get(userId, "EC", w, null);
+        if (cached != null) return cached;
+        if (w.length != CardHelper.EC_POINT_SIZE || w[0] != 0x04) {
+            throw new GeneralSecurityException("Unsupported EC point encoding (" + w.length + " bytes)");
+        }
+        byte[] x = new byte[32];
+        byte[] y = new byte[32];
+        System.arraycopy(w, 1, x, 0, 32);
+        System.arraycopy(w, 33, y, 0, 32);
+        ECPoint point = new ECPoint(new BigInteger(1, x), new BigInteger(1, y));
+        PublicKey pub = CryptoContext.keyFactory("EC").generatePublic(new ECPublicKeySpec(point, p256()));
+        put(userId, new Entry("EC", w, null, RsaKeyService.ecFingerprint(w), pub));
+        return pub;
+    }
+
+    /** Fingerprint of the cached key for this member, or null if none is cached. */
+    public synchronized byte[] fingerprint(int userId) {
+        Entry e = entries.get(userId);
+        return e != null ? e.fingerprint.clone() : null;
+    }
+
+    /** Drop the member's key (re-registered or reset card). */
+    public synchronized void invalidate(int userId) {
+        entries.remove(userId);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Build keys for every member with a registered key, up to the bound.
+     * Returns the number of keys now cached.
+     */
+    public int prewarm(MembersDao dao) throws SQLException {
+        List<MemberRecord> keys = dao.listRegisteredKeys(maxEntries);
+        for (MemberRecord rec : keys) {
+            try {
+                forMember(rec);
+            } catch (GeneralSecurityException | RuntimeException ex) {
+                System.err.println("[KEYS] Skipping key of user " + rec.id + ": " + ex.getMessage());
+            }
+        }
+        synchronized (this) {
+            return entries.size();
+        }
+    }
+
+    public synchronized String stats() {
+        return String.format("publicKeys=%d/%d hits=%d misses=%d", entries.size(), maxEntries, hits, misses);
+    }
+
+    private synchronized PublicKey get(int userId, String alg, byte[] encoded, byte[] exponent) {
+        Entry e = entries.get(userId);
+        if (e != null && e.matches(alg, encoded, exponent)) {
+            hits++;
+            return e.key;
+        }
+        misses++;
+        return null;
+    }
+
+    private synchronized void put(int userId, Entry entry) {
+        entries.put(userId, entry);
+    }
+
+    private synchronized ECParameterSpec p256() throws GeneralSecurityException {
+        if (p256 == null) {
+            AlgorithmParameters params = AlgorithmParameters.getInstance("EC");
+            params.init(new ECGenParameterSpec("secp256r1"));
+            p256 = params.getParameterSpec(ECParameterSpec.class);
+        }
+        return p256;
+    }
+}
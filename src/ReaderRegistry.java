@@ -0,0 +1,84 @@
+import javax.smartcardio.CardTerminal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Discovers the PC/SC readers attached to this machine and gives each one a
+ * ReaderStation (own client, session and worker).
+ *
+ * Windows/stations are routed to readers by role:
+ *   -Dgym.reader.customer=<part of reader name>
+ *   -Dgym.reader.staff=<part of reader name>
+ * Without configuration the customer window gets the first reader and the
+ * staff window the second one (or the first, if there is only one). With no
+ * reader found at startup both fall back to one unbound station that
+ * connects to whichever reader has a card, as before.
+ *
+ * With -Dgym.transport=sim no PC/SC reader is used: -Dgym.sim.readers (2)
+ * virtual readers are created, each holding a blank SmartCardSimulator.
+ */
+public final class ReaderRegistry {
+    public static final String ROLE_CUSTOMER = "customer";
+    public static final String ROLE_STAFF = "staff";
+    public static final String TRANSPORT_SIM = "sim";
+
+    private final Map<String, ReaderStation> stations = new LinkedHashMap<>();
+    private ReaderStation fallback;
+
+    /** Enumerate readers once and create a station per reader. */
+    public static ReaderRegistry discover() {
+        ReaderRegistry registry = new ReaderRegistry();
+        if (TRANSPORT_SIM.equals(System.getProperty("gym.transport"))) {
+            int count = Math.max(1, Integer.getInteger("gym.sim.readers", 2));
+            for (int i = 0; i < count; i++) {
+                String name = "Simulated Reader " + i;
+                registry.stations.put(name, new ReaderStation(name, new SimulatedCardTransport(name, new SmartCardSimulator())));
+            }
+            System.out.println("[SIM] Readers: " + registry.stations.keySet());
+            return registry;
+        }
+        try {
+            for (CardTerminal t : new PcscClient().listTerminals()) {
+                registry.stations.put(t.getName(), new ReaderStation(t.getName(), new PcscClient(t)));
+            }
+        } catch (Exception ex) {
+            System.err.println("[PCSC] Reader discovery failed: " + ex.getMessage());
+        }
+        System.out.println("[PCSC] Readers: " + (registry.stations.isEmpty() ? "(none)" : registry.stations.keySet()));
+        return registry;
+    }
+
+    public synchronized List<ReaderStation> stations() {
+        return Collections.unmodifiableList(new ArrayList<>(stations.values()));
+    }
+
+    public synchronized ReaderStation byName(String readerName) {
+        return stations.get(readerName);
+    }
+
+    /** Station assigned to a role (ROLE_CUSTOMER, ROLE_STAFF). */
+    public synchronized ReaderStation forRole(String role) {
+        if (stations.isEmpty()) {
+            if (fallback == null) fallback = ReaderStation.unbound(new PcscClient());
+            return fallback;
+        }
+        String wanted = System.getProperty("gym.reader." + role);
+        if (wanted != null && !wanted.isEmpty()) {
+            for (ReaderStation s : stations.values()) {
+                if (s.name().toLowerCase().contains(wanted.toLowerCase())) return s;
+            }
+            System.err.println("[PCSC] No reader matches gym.reader." + role + "=" + wanted + ", using default");
+        }
+        List<ReaderStation> list = new ArrayList<>(stations.values());
+        if (ROLE_STAFF.equals(role) && list.size() > 1) return list.get(1);
+        return list.get(0);
+    }
+
+    public synchronized void shutdown() {
+        for (ReaderStation s : stations.values()) s.shutdown();
+        if (fallback != null) fallback.shutdown();
+    }
+}
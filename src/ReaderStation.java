@@ -0,0 +1,88 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * One reader (PC/SC or simulated) with its own transport, card session and
+ * worker thread.
+ *
+ * Card operations submitted to a station run one at a time on its worker,
+ * so multi-APDU flows on the same reader never interleave, while stations
+ * for different readers run fully in parallel.
+ */
+public final class ReaderStation {
+    private final String name;
+    /** Reader this station is bound to, or null for an unbound station. */
+    private final String boundReader;
+    private final CardTransport client;
+    private final CardSession session;
+    private final ExecutorService worker;
+    private final AsyncCardChannel channel;
+
+    ReaderStation(String name, CardTransport client) {
+        this(name, name, client);
+    }
+
+    private ReaderStation(String name, String boundReader, CardTransport client) {
+        this.name = name;
+        this.boundReader = boundReader;
+        this.client = client;
+        this.session = CardSession.of(client);
+        this.worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "reader-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+        this.channel = new AsyncCardChannel(this);
+        // Crypto instances are per thread: create them on the thread that runs the card flows
+        worker.execute(CryptoContext::prewarm);
+    }
+
+    /** Station for an unbound client (any reader); used when none could be discovered. */
+    public static ReaderStation unbound(CardTransport client) {
+        return new ReaderStation("default", null, client);
+    }
+
+    /** Reader name as reported by PC/SC (or the simulator), or "default" for an unbound station. */
+    public String name() {
+        return name;
+    }
+
+    public CardTransport client() {
+        return client;
+    }
+
+    public CardSession session() {
+        return session;
+    }
+
+    /** Future-based APDU API queued on this station's worker. */
+    public AsyncCardChannel channel() {
+        return channel;
+    }
+
+    /**
+     * True if a presence event from the given reader concerns this station.
+     * Called on the shared presence monitor thread, so it must not take the
+     * transport lock (held for the whole of a transmit).
+     */
+    public boolean handles(String readerName) {
+        String bound = boundReader != null ? boundReader : session.connectedReader();
+        return bound == null || bound.equals(readerName);
+    }
+
+    /** Run a card operation on this reader's worker, after any already queued. */
+    public void execute(Runnable op) {
+        worker.execute(op);
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> op) {
+        return CompletableFuture.supplyAsync(op, worker);
+    }
+
+    void shutdown() {
+        worker.shutdownNow();
+        session.invalidate();
+    }
+}
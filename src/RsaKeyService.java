@@ -1,47 +1,69 @@
 import javax.smartcardio.ResponseAPDU;
-import java.math.BigInteger;
-import java.security.KeyFactory;
 import java.security.PublicKey;
-import java.security.SecureRandom;
 import java.security.Signature;
-import java.security.spec.RSAPublicKeySpec;
 
 /**
- * RSA registration and login verification helpers for SmartCard.
+ * Card key registration and login verification helpers for SmartCard.
+ * Cards with EC support use P-256 / ECDSA; older cards stay on RSA-1024.
  */
 public class RsaKeyService {
     /**
      * Convert byte[] to HEX string (uppercase, no spaces)
      */
     public static String bytesToHex(byte[] data) {
-        if (data == null) return null;
-        StringBuilder sb = new StringBuilder(data.length * 2);
-        for (byte b : data) sb.append(String.format("%02X", b & 0xFF));
-        return sb.toString();
+        return HexCodec.encode(data);
     }
 
     /**
      * Convert HEX string to byte[] (ignores spaces)
      */
     public static byte[] hexToBytes(String hex) {
-        if (hex == null) return null;
-        String s = hex.replaceAll("\\s+", "");
-        if ((s.length() % 2) != 0) throw new IllegalArgumentException("Hex length must be even");
-        byte[] out = new byte[s.length() / 2];
-        for (int i = 0; i < out.length; i++) {
-            int hi = Character.digit(s.charAt(2 * i), 16);
-            int lo = Character.digit(s.charAt(2 * i + 1), 16);
-            if (hi < 0 || lo < 0) throw new IllegalArgumentException("Invalid hex");
-            out[i] = (byte) ((hi << 4) | lo);
-        }
-        return out;
+        return HexCodec.decode(hex);
     }
 
     /**
-     * Registration: Read RSA public key from card and store into DB as hex strings.
+     * Key fingerprint as the card reports it in IDENTIFY: first 8 bytes of
+     * SHA-256(modulus || exponent). Null if either part is missing.
      */
-    public static void registerCardPublicKey(PcscClient pcsc, int userId) throws Exception {
-        ResponseAPDU resp = pcsc.transmit(CardHelper.buildGetPublicKeyCommand());
+    public static byte[] fingerprint(byte[] modulus, byte[] exponent) {
+        if (modulus == null || modulus.length == 0 || exponent == null || exponent.length == 0) return null;
+        java.security.MessageDigest md = CryptoContext.sha256();
+        md.update(modulus);
+        md.update(exponent);
+        return java.util.Arrays.copyOf(md.digest(), CardHelper.KEY_FINGERPRINT_SIZE);
+    }
+
+    /** EC key fingerprint as the card reports it in IDENTIFY: first 8 bytes of SHA-256(W). */
+    public static byte[] ecFingerprint(byte[] w) {
+        if (w == null || w.length == 0) return null;
+        return java.util.Arrays.copyOf(CryptoContext.sha256().digest(w), CardHelper.KEY_FINGERPRINT_SIZE);
+    }
+
+    /** Fingerprint (hex) of the key the member's card logs in with, or null. */
+    public static String registeredFingerprintHex(MemberRecord rec) {
+        return rec != null ? HexCodec.encode(rec.keyFingerprint) : null;
+    }
+
+    /**
+     * Registration: read the card's public key and store it into DB.
+     * Asks for the EC P-256 key first; cards without EC answer 6D00/6A81 and
+     * their RSA key is registered instead.
+     */
+    public static void registerCardPublicKey(CardSession session, int userId) throws Exception {
+        ResponseAPDU ecResp = session.transmit(CardHelper.buildGetEcPublicKeyCommand());
+        if (CardHelper.isSuccess(ecResp)) {
+            byte[] w = ecResp.getData();
+            if (w.length != CardHelper.EC_POINT_SIZE || w[0] != 0x04) {
+                throw new IllegalStateException("Unexpected EC public key length: " + w.length);
+            }
+            new MembersDao().updateEcPublicKey(userId, w);
+            return;
+        }
+        if (ecResp.getSW() != CardHelper.SW_INS_NOT_SUPPORTED && ecResp.getSW() != CardHelper.SW_FUNC_NOT_SUPPORTED) {
+            throw new IllegalStateException("GET_EC_PUBLIC_KEY failed: SW=0x" + Integer.toHexString(ecResp.getSW()).toUpperCase());
+        }
+
+        ResponseAPDU resp = session.transmit(CardHelper.buildGetPublicKeyCommand());
         if (!CardHelper.isSuccess(resp)) {
             throw new IllegalStateException("GET_PUBLIC_KEY failed: SW=0x" + Integer.toHexString(resp.getSW()).toUpperCase());
         }
@@ -70,49 +92,59 @@ public class RsaKeyService {
             System.arraycopy(data, 0, modulus, 0, modulus.length);
         }
 
-        String modHex = bytesToHex(modulus);
-        String expHex = bytesToHex(exponent);
-
         MembersDao dao = new MembersDao();
-        dao.updateRsaPublicKeyHex(userId, modHex, expHex);
+        dao.updateRsaPublicKey(userId, modulus, exponent);
     }
 
     /**
-     * Verify login via RSA challenge-response using public key from DB.
+     * Verify login via challenge-response using the public key from DB:
+     * ECDSA P-256 for cards registered with an EC key, RSA otherwise.
      */
-    public static boolean verifyCardLogin(PcscClient pcsc, int userId) throws Exception {
+    public static boolean verifyCardLogin(CardSession session, int userId) throws Exception {
         MembersDao dao = new MembersDao();
-        MemberRecord rec = dao.getByUserId(userId);
+        MemberRecord rec = dao.getScalarRow(userId);
         if (rec == null) throw new IllegalArgumentException("User not found: " + userId);
-        if (rec.rsaModulusHex == null || rec.rsaExponentHex == null) {
-            throw new IllegalStateException("RSA public key not registered for user " + userId);
+        // Parsed once per registered key (PublicKeyCache)
+        PublicKey pub = PublicKeyCache.getInstance().forMember(rec);
+        if ("EC".equals(pub.getAlgorithm())) {
+            return verifyEcLogin(session, pub);
         }
 
-        byte[] modulusBytes = hexToBytes(rec.rsaModulusHex);
-        byte[] exponentBytes = hexToBytes(rec.rsaExponentHex);
-
-        // Construct PublicKey; handle potential leading 0x00 sign byte by using positive BigInteger
-        BigInteger n = new BigInteger(1, modulusBytes);
-        BigInteger e = new BigInteger(1, exponentBytes);
-        RSAPublicKeySpec spec = new RSAPublicKeySpec(n, e);
-        KeyFactory kf = KeyFactory.getInstance("RSA");
-        PublicKey pub = kf.generatePublic(spec);
-
         // Create random 32-byte challenge
         byte[] challenge = new byte[32];
-        new SecureRandom().nextBytes(challenge);
+        CryptoContext.random().nextBytes(challenge);
 
         // Send to card to sign
-        ResponseAPDU sigResp = pcsc.transmit(CardHelper.buildSignChallengeCommand(challenge));
+        ResponseAPDU sigResp = session.transmit(CardHelper.buildSignChallengeCommand(challenge));
         if (!CardHelper.isSuccess(sigResp)) {
             throw new IllegalStateException("SIGN_CHALLENGE failed: SW=0x" + Integer.toHexString(sigResp.getSW()).toUpperCase());
         }
         byte[] signature = sigResp.getData();
 
         // Verify signature with SHA1withRSA (must match applet)
-        Signature verifier = Signature.getInstance("SHA1withRSA");
+        Signature verifier = CryptoContext.signature("SHA1withRSA");
         verifier.initVerify(pub);
         verifier.update(challenge);
         return verifier.verify(signature);
     }
+
+    private static boolean verifyEcLogin(CardSession session, PublicKey pub) throws Exception {
+        byte[] challenge = new byte[32];
+        CryptoContext.random().nextBytes(challenge);
+
+        ResponseAPDU sigResp = session.transmit(CardHelper.buildEcSignChallengeCommand(challenge));
+        if (!CardHelper.isSuccess(sigResp)) {
+            throw new IllegalStateException("EC_SIGN_CHALLENGE failed: SW=0x" + Integer.toHexString(sigResp.getSW()).toUpperCase());
+        }
+
+        // ALG_ECDSA_SHA_256 on the card: DER-encoded (r, s)
+        Signature verifier = CryptoContext.signature("SHA256withECDSA");
+        verifier.initVerify(pub);
+        verifier.update(challenge);
+        try {
+            return verifier.verify(sigResp.getData());
+        } catch (java.security.SignatureException malformed) {
+            return false;
+        }
+    }
 }
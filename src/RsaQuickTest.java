@@ -2,24 +2,20 @@ public class RsaQuickTest {
     public static void main(String[] args) {
         try {
             PcscClient pcsc = new PcscClient();
-            pcsc.connectFirstPresentOrFirst();
-
-            // Chọn applet y hệt ở khách hàng
-            javax.smartcardio.CommandAPDU selectCmd = new javax.smartcardio.CommandAPDU(
-                0x00, 0xA4, 0x04, 0x00,
-                new byte[]{(byte)0x26,(byte)0x12,(byte)0x20,(byte)0x03,(byte)0x03,(byte)0x00}
-            );
-            javax.smartcardio.ResponseAPDU selectResp = pcsc.transmit(selectCmd);
-            if ((selectResp.getSW() & 0xFF00) != 0x9000) {
-                System.out.println("[FAIL] Select applet failed: SW=0x" + Integer.toHexString(selectResp.getSW()).toUpperCase());
+            CardSession session = CardSession.of(pcsc);
+            // Kết nối + chọn applet y hệt ở khách hàng
+            try {
+                session.ensureSession();
+            } catch (CardSession.SelectFailedException selectEx) {
+                System.out.println("[FAIL] Select applet failed: SW=0x" + Integer.toHexString(selectEx.sw).toUpperCase());
                 return;
             }
 
             // Đọc thẻ để lấy userId
-            javax.smartcardio.ResponseAPDU readResp = pcsc.transmit(CardHelper.buildReadCommand());
+            javax.smartcardio.ResponseAPDU readResp = session.transmit(CardHelper.buildReadCommand());
             if ((readResp.getSW() & 0xFF00) == 0x6C00) {
                 int correctLE = readResp.getSW2();
-                readResp = pcsc.transmit(new javax.smartcardio.CommandAPDU(0x00, CardHelper.INS_READ, 0x00, 0x00, correctLE));
+                readResp = session.transmit(new javax.smartcardio.CommandAPDU(0x00, CardHelper.INS_READ, 0x00, 0x00, correctLE));
             }
             if ((readResp.getSW() & 0xFF00) != 0x9000) {
                 System.out.println("[FAIL] Read card failed: SW=0x" + Integer.toHexString(readResp.getSW()).toUpperCase());
@@ -30,32 +26,42 @@ public class RsaQuickTest {
             System.out.println("[INFO] UserID on card: " + userId);
 
             // Đăng ký public key vào DB
-            RsaKeyService.registerCardPublicKey(pcsc, userId);
-            System.out.println("[OK] Stored RSA public key (modulus/exponent) for user " + userId + " into DB.");
+            RsaKeyService.registerCardPublicKey(session, userId);
+            MembersDao dao = new MembersDao();
+            MemberRecord originalRec = dao.getScalarRow(userId);
+            boolean ec = "EC".equals(originalRec.keyAlg);
+            System.out.println("[OK] Stored " + (ec ? "EC P-256" : "RSA") + " public key for user " + userId + " into DB.");
 
             // Verify challenge-response
-            boolean ok = RsaKeyService.verifyCardLogin(pcsc, userId);
-            System.out.println("[RESULT] RSA verify: " + (ok ? "SUCCESS" : "FAIL"));
+            boolean ok = RsaKeyService.verifyCardLogin(session, userId);
+            System.out.println("[RESULT] " + (ec ? "ECDSA" : "RSA") + " verify: " + (ok ? "SUCCESS" : "FAIL"));
 
 // =================================================================
 // BẮT ĐẦU ĐOẠN TEST BỔ SUNG: GIẢ LẬP HACKER (TAMPER TEST)
 // =================================================================
 System.out.println("\n--- START TAMPER TEST (GIẢ LẬP HACKER) ---");
 
-MembersDao dao = new MembersDao();
-MemberRecord originalRec = dao.getByUserId(userId); 
-
 // 1. Ghi đè Key dỏm vào DB
-String fakeModulus = originalRec.rsaModulusHex.substring(0, originalRec.rsaModulusHex.length() - 2) + "00";
-
-// --- SỬA DÒNG NÀY (Đổi tên hàm) ---
-dao.updateRsaPublicKeyHex(userId, fakeModulus, originalRec.rsaExponentHex); 
-// ----------------------------------
+if (ec) {
+    // Điểm khác trên đường cong: đổi dấu Y (Y' = p - Y)
+    java.math.BigInteger p = new java.math.BigInteger("FFFFFFFF00000001000000000000000000000000FFFFFFFFFFFFFFFFFFFFFFFF", 16);
+    java.math.BigInteger y = new java.math.BigInteger(1, java.util.Arrays.copyOfRange(originalRec.ecPublicKey, 33, 65));
+    byte[] fakePoint = originalRec.ecPublicKey.clone();
+    byte[] fakeY = p.subtract(y).toByteArray();
+    java.util.Arrays.fill(fakePoint, 33, 65, (byte) 0);
+    int len = Math.min(32, fakeY.length);
+    System.arraycopy(fakeY, fakeY.length - len, fakePoint, 65 - len, len);
+    dao.updateEcPublicKey(userId, fakePoint);
+} else {
+    byte[] fakeModulus = originalRec.rsaModulus.clone();
+    fakeModulus[fakeModulus.length - 1] = 0;
+    dao.updateRsaPublicKey(userId, fakeModulus, originalRec.rsaExponent);
+}
 
 System.out.println("[TEST] Da sua doi public key trong DB (gia lap db bi hack hoac the gia).");
 
 // 2. Thử Verify lại lần nữa
-boolean isHackSuccess = RsaKeyService.verifyCardLogin(pcsc, userId);
+boolean isHackSuccess = RsaKeyService.verifyCardLogin(session, userId);
 
 // 3. Kết quả mong đợi là FALSE
 if (!isHackSuccess) {
@@ -65,15 +71,18 @@ if (!isHackSuccess) {
 }
 
 // 4. Tra lai Key xin cho DB (DDon dep hien truong)
-dao.updateRsaPublicKeyHex(userId, originalRec.rsaModulusHex, originalRec.rsaExponentHex);
+if (ec) dao.updateEcPublicKey(userId, originalRec.ecPublicKey);
+else dao.updateRsaPublicKey(userId, originalRec.rsaModulus, originalRec.rsaExponent);
 // --------------------------------------
 
 System.out.println("--- END TAMPER TEST (Đã khôi phục DB) ---\n");
             // Optional: print hex key from DB
             try {
-                MemberRecord rec = dao.getByUserId(userId);
-                System.out.println("modulus(hex)  = " + rec.rsaModulusHex);
-                System.out.println("exponent(hex) = " + rec.rsaExponentHex);
+                MemberRecord rec = dao.getScalarRow(userId);
+                System.out.println("modulus(hex)  = " + HexCodec.encode(rec.rsaModulus));
+                System.out.println("exponent(hex) = " + HexCodec.encode(rec.rsaExponent));
+                System.out.println("ec point(hex) = " + HexCodec.encode(rec.ecPublicKey));
+                System.out.println("fingerprint   = " + HexCodec.encode(rec.keyFingerprint));
             } catch (Exception ignored) {}
         } catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,349 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Versioned schema migrations for members.db.
+ *
+ * Each step runs once and is recorded in the schema_version table, so DAO
+ * connections no longer issue any DDL. Steps are idempotent so databases
+ * created by older builds (which have the tables but no schema_version)
+ * migrate cleanly from version 0.
+ *
+ * Run once at startup via {@link #migrate(String)}; DAOs call
+ * {@link #ensureMigrated(String)} which is a no-op after the first run.
+ */
+public final class SchemaMigrations {
+    public static final String DEFAULT_DB_URL = "jdbc:sqlite:members.db";
+
+    /** A single ordered schema change. */
+    interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private static final class Migration {
+        final int version;
+        final String description;
+        final Step step;
+
+        Migration(int version, String description, Step step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+
+    private static final List<Migration> MIGRATIONS = new ArrayList<>();
+    private static final Set<String> MIGRATED_URLS = ConcurrentHashMap.newKeySet();
+
+    static {
+        add(1, "create members table", conn -> {
+            try (Statement st = conn.createStatement()) {
+                st.executeUpdate("CREATE TABLE IF NOT EXISTS members (\n" +
+                        "  id INTEGER PRIMARY KEY,\n" +
+                        "  full_name TEXT,\n" +
+                        "  balance_vnd INTEGER DEFAULT 0,\n" +
+                        "  birthdate TEXT,\n" +
+                        "  expiry_date TEXT,\n" +
+                        "  card_uid TEXT,\n" +
+                        "  rsa_public_key TEXT,\n" +
+                        "  rsa_modulus TEXT,\n" +
+                        "  rsa_exponent TEXT,\n" +
+                        "  transaction_history TEXT,\n" +
+                        "  pinretry INTEGER DEFAULT 5,\n" +
+                        "  cccd TEXT,\n" +
+                        "  avatar_data BLOB,\n" +
+                        "  last_checkin_date TEXT,\n" +
+                        "  created_at TEXT DEFAULT (datetime('now','localtime')),\n" +
+                        "  updated_at TEXT DEFAULT (datetime('now','localtime'))\n" +
+                        ")");
+                st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_members_card_uid ON members(card_uid)");
+            }
+        });
+        add(2, "add cccd/avatar/rsa/checkin columns to legacy members table", conn -> {
+            addColumnIfMissing(conn, "members", "cccd", "TEXT");
+            addColumnIfMissing(conn, "members", "avatar_data", "BLOB");
+            addColumnIfMissing(conn, "members", "rsa_modulus", "TEXT");
+            addColumnIfMissing(conn, "members", "rsa_exponent", "TEXT");
+            addColumnIfMissing(conn, "members", "last_checkin_date", "TEXT");
+        });
+        add(3, "create transactions table", conn -> {
+            try (Statement st = conn.createStatement()) {
+                st.executeUpdate("CREATE TABLE IF NOT EXISTS transactions (\n" +
+                        "  id INTEGER PRIMARY KEY AUTOINCREMENT,\n" +
+                        "  member_id INTEGER NOT NULL,\n" +
+                        "  type TEXT NOT NULL,\n" +
+                        "  amount INTEGER NOT NULL,\n" +
+                        "  items TEXT,\n" +
+                        "  payment_method TEXT,\n" +
+                        "  created_at TEXT DEFAULT (datetime('now','localtime')),\n" +
+                        "  FOREIGN KEY(member_id) REFERENCES members(id)\n" +
+                        ")");
+                st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_transactions_member ON transactions(member_id)");
+            }
+        });
+        add(4, "create members_fts search index", SchemaMigrations::createMembersFts);
+        add(5, "add avatar_hash column", conn -> {
+            addColumnIfMissing(conn, "members", "avatar_hash", "TEXT");
+            backfillAvatarHashes(conn);
+        });
+        add(6, "add ec_public_key/key_alg columns", conn -> {
+            addColumnIfMissing(conn, "members", "ec_public_key", "TEXT");
+            addColumnIfMissing(conn, "members", "key_alg", "TEXT");
+        });
+        add(7, "store card keys as BLOBs with indexed key_fingerprint", SchemaMigrations::binaryCardKeys);
+        add(8, "add folded search_name column", SchemaMigrations::foldedSearchNames);
+        // v5 used to only add the column; databases already past it get the hashes here
+        add(9, "backfill avatar_hash for existing avatars", SchemaMigrations::backfillAvatarHashes);
+    }
+
+    private SchemaMigrations() {}
+
+    /**
+     * FTS5 index over id/full_name/cccd, kept in sync by triggers. unicode61
+     * with remove_diacritics folds Vietnamese tone marks; đ/Đ is not a
+     * combining mark, so the triggers fold it explicitly (see MemberSearch.fold).
+     * SQLite builds without FTS5 skip this step and search falls back to LIKE;
+     * {@link #migrate} tries again on later startups.
+     * @return whether the index exists now
+     */
+    private static boolean createMembersFts(Connection conn) throws SQLException {
+        String folded = "replace(replace(%s.full_name, 'đ', 'd'), 'Đ', 'D')";
+        String insertRow = "INSERT INTO members_fts(rowid, id_text, full_name, cccd) VALUES (new.id, CAST(new.id AS TEXT), "
+                + String.format(folded, "new") + ", new.cccd);";
+        try (Statement st = conn.createStatement()) {
+            try {
+                st.executeUpdate("CREATE VIRTUAL TABLE IF NOT EXISTS members_fts USING fts5(" +
+                        "id_text, full_name, cccd, tokenize = 'unicode61 remove_diacritics 2')");
+            } catch (SQLException ex) {
+                System.err.println("[DB] FTS5 unavailable, member search will use LIKE: " + ex.getMessage());
+                return false;
+            }
+            st.executeUpdate("CREATE TRIGGER IF NOT EXISTS members_fts_ai AFTER INSERT ON members BEGIN " + insertRow + " END");
+            st.executeUpdate("CREATE TRIGGER IF NOT EXISTS members_fts_au AFTER UPDATE OF id, full_name, cccd ON members BEGIN " +
+                    "DELETE FROM members_fts WHERE rowid = old.id; " + insertRow + " END");
+            st.executeUpdate("CREATE TRIGGER IF NOT EXISTS members_fts_ad AFTER DELETE ON members BEGIN " +
+                    "DELETE FROM members_fts WHERE rowid = old.id; END");
+            st.executeUpdate("DELETE FROM members_fts");
+            st.executeUpdate("INSERT INTO members_fts(rowid, id_text, full_name, cccd) SELECT id, CAST(id AS TEXT), "
+                    + String.format(folded, "members") + ", cccd FROM members");
+        }
+        return true;
+    }
+
+    /**
+     * avatar_hash for rows that have an avatar but no hash yet, so their
+     * first swipe hits AvatarCache and AVATAR_INFO comparisons instead of
+     * always re-reading the image. Streams one BLOB at a time.
+     */
+    private static void backfillAvatarHashes(Connection conn) throws SQLException {
+        String select = "SELECT id, avatar_data FROM members WHERE avatar_data IS NOT NULL " +
+                "AND length(avatar_data) > 0 AND (avatar_hash IS NULL OR avatar_hash = '')";
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(select);
+             PreparedStatement ps = conn.prepareStatement("UPDATE members SET avatar_hash = ? WHERE id = ?")) {
+            while (rs.next()) {
+                ps.setString(1, AvatarService.hashHex(rs.getBytes("avatar_data")));
+                ps.setInt(2, rs.getInt("id"));
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * search_name holds MemberSearch.fold(full_name) for the LIKE fallback,
+     * since SQLite's lower() leaves Đ, Ả, ... as they are. MembersDao.upsert
+     * keeps it current; rows written by other tools stay NULL and are
+     * matched on lower(full_name).
+     */
+    private static void foldedSearchNames(Connection conn) throws SQLException {
+        addColumnIfMissing(conn, "members", "search_name", "TEXT");
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT id, full_name FROM members WHERE full_name IS NOT NULL");
+             PreparedStatement ps = conn.prepareStatement("UPDATE members SET search_name = ? WHERE id = ?")) {
+            while (rs.next()) {
+                ps.setString(1, MemberSearch.fold(rs.getString("full_name")));
+                ps.setInt(2, rs.getInt("id"));
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * Card keys move from hex TEXT to BLOB columns plus key_fingerprint, the
+     * 8-byte IDENTIFY fingerprint of the login key, indexed so a card key
+     * maps to its member without a scan. Existing hex is converted and then
+     * cleared; the old TEXT columns stay (SQLite < 3.35 cannot drop them).
+     * A row whose hex does not decode is logged and skipped: its BLOB key
+     * columns stay NULL (the card has to be re-registered) and the old hex is
+     * kept for manual repair, so one bad row cannot block startup.
+     */
+    private static void binaryCardKeys(Connection conn) throws SQLException {
+        addColumnIfMissing(conn, "members", "rsa_modulus_bin", "BLOB");
+        addColumnIfMissing(conn, "members", "rsa_exponent_bin", "BLOB");
+        addColumnIfMissing(conn, "members", "ec_point", "BLOB");
+        addColumnIfMissing(conn, "members", "key_fingerprint", "BLOB");
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_members_key_fingerprint ON members(key_fingerprint)");
+        }
+        String select = "SELECT id, rsa_modulus, rsa_exponent, ec_public_key, key_alg FROM members " +
+                "WHERE (rsa_modulus IS NOT NULL AND rsa_modulus <> '') OR (ec_public_key IS NOT NULL AND ec_public_key <> '')";
+        String update = "UPDATE members SET rsa_modulus_bin = ?, rsa_exponent_bin = ?, ec_point = ?, key_fingerprint = ?, " +
+                "rsa_modulus = NULL, rsa_exponent = NULL, ec_public_key = NULL WHERE id = ?";
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(select);
+             PreparedStatement ps = conn.prepareStatement(update)) {
+            while (rs.next()) {
+                byte[] modulus, exponent, point;
+                try {
+                    modulus = HexCodec.decode(emptyToNull(rs.getString("rsa_modulus")));
+                    exponent = HexCodec.decode(emptyToNull(rs.getString("rsa_exponent")));
+                    point = HexCodec.decode(emptyToNull(rs.getString("ec_public_key")));
+                } catch (IllegalArgumentException badHex) {
+                    System.err.println("[DB] Member " + rs.getInt("id") + ": card key hex is malformed, key left unset: "
+                            + badHex.getMessage());
+                    continue;
+                }
+                byte[] fingerprint = "EC".equals(rs.getString("key_alg")) && point != null
+                        ? RsaKeyService.ecFingerprint(point)
+                        : RsaKeyService.fingerprint(modulus, exponent);
+                ps.setBytes(1, modulus);
+                ps.setBytes(2, exponent);
+                ps.setBytes(3, point);
+                ps.setBytes(4, fingerprint);
+                ps.setInt(5, rs.getInt("id"));
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+
+    private static void add(int version, String description, Step step) {
+        if (!MIGRATIONS.isEmpty() && MIGRATIONS.get(MIGRATIONS.size() - 1).version >= version) {
+            throw new IllegalStateException("Migrations must be added in ascending version order: " + version);
+        }
+        MIGRATIONS.add(new Migration(version, description, step));
+    }
+
+    /** Latest schema version known to this build. */
+    public static int latestVersion() {
+        return MIGRATIONS.isEmpty() ? 0 : MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    /**
+     * Migrate the database once per JVM. Cheap no-op on subsequent calls, so
+     * DAO connection setup can depend on it without paying for DDL.
+     */
+    public static void ensureMigrated(String dbUrl) throws SQLException {
+        if (MIGRATED_URLS.contains(dbUrl)) return;
+        synchronized (SchemaMigrations.class) {
+            if (MIGRATED_URLS.contains(dbUrl)) return;
+            migrate(dbUrl);
+        }
+    }
+
+    /**
+     * Apply all pending migrations in order, each in its own transaction.
+     * @return schema version after migration
+     */
+    public static synchronized int migrate(String dbUrl) throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException ignored) {
+            // JDBC 4 auto-loading may still find the driver
+        }
+        int current;
+        try (Connection conn = DriverManager.getConnection(dbUrl)) {
+            try (Statement st = conn.createStatement()) {
+                st.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version (\n" +
+                        "  version INTEGER PRIMARY KEY,\n" +
+                        "  description TEXT,\n" +
+                        "  applied_at TEXT DEFAULT (datetime('now','localtime'))\n" +
+                        ")");
+            }
+            current = currentVersion(conn);
+            int startVersion = current;
+            for (Migration m : MIGRATIONS) {
+                if (m.version <= current) continue;
+                boolean oldAutoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+                try {
+                    m.step.apply(conn);
+                    try (PreparedStatement ps = conn.prepareStatement(
+                            "INSERT INTO schema_version (version, description) VALUES (?, ?)")) {
+                        ps.setInt(1, m.version);
+                        ps.setString(2, m.description);
+                        ps.executeUpdate();
+                    }
+                    conn.commit();
+                    current = m.version;
+                    System.out.println("[DB] Migrated schema to v" + m.version + ": " + m.description);
+                } catch (SQLException ex) {
+                    conn.rollback();
+                    throw new SQLException("Migration v" + m.version + " (" + m.description + ") failed: " + ex.getMessage(), ex);
+                } finally {
+                    conn.setAutoCommit(oldAutoCommit);
+                }
+            }
+            if (startVersion >= 4) retryMembersFts(conn);
+        }
+        MIGRATED_URLS.add(dbUrl);
+        return current;
+    }
+
+    /**
+     * v4 is recorded even when the SQLite build had no FTS5, so look for
+     * members_fts on each startup and build it once FTS5 is available.
+     */
+    private static void retryMembersFts(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'members_fts'")) {
+            if (rs.next()) return;
+        }
+        boolean oldAutoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            boolean created = createMembersFts(conn);
+            conn.commit();
+            if (created) System.out.println("[DB] Created members_fts search index (FTS5 now available)");
+        } catch (SQLException ex) {
+            conn.rollback();
+            System.err.println("[DB] Creating members_fts failed, member search will use LIKE: " + ex.getMessage());
+        } finally {
+            conn.setAutoCommit(oldAutoCommit);
+        }
+    }
+
+    private static int currentVersion(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    static Set<String> columnsOf(Connection conn, String table) throws SQLException {
+        Set<String> cols = new HashSet<>();
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) cols.add(rs.getString("name").toLowerCase());
+        }
+        return Collections.unmodifiableSet(cols);
+    }
+
+    static void addColumnIfMissing(Connection conn, String table, String column, String type) throws SQLException {
+        if (columnsOf(conn, table).contains(column.toLowerCase())) return;
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+        }
+    }
+}
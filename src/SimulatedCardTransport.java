@@ -0,0 +1,118 @@
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Virtual reader holding at most one SmartCardSimulator.
+ *
+ * Each transmit sleeps latencyMs (+ up to jitterMs) before the card answers,
+ * to approximate the 100-300 ms round trip of a real contact/NFC reader;
+ * defaults come from -Dgym.sim.latencyMs (20) and -Dgym.sim.jitterMs (0).
+ * insert()/remove() publish CARD_INSERTED / CARD_REMOVED like
+ * CardPresenceMonitor does for physical readers.
+ *
+ * Enabled for the application with -Dgym.transport=sim (see ReaderRegistry).
+ */
+public final class SimulatedCardTransport implements CardTransport {
+    static final long DEFAULT_LATENCY_MS = Long.getLong("gym.sim.latencyMs", 20L);
+    static final long DEFAULT_JITTER_MS = Long.getLong("gym.sim.jitterMs", 0L);
+
+    private final String name;
+    private final long latencyMs;
+    private final long jitterMs;
+    private SmartCardSimulator card;
+    private boolean connected;
+
+    public SimulatedCardTransport(String name, SmartCardSimulator card) {
+        this(name, card, DEFAULT_LATENCY_MS, DEFAULT_JITTER_MS);
+    }
+
+    public SimulatedCardTransport(String name, SmartCardSimulator card, long latencyMs, long jitterMs) {
+        this.name = name;
+        this.card = card;
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+    }
+
+    /** Put a card on the reader (replacing any card already there). */
+    public void insert(SmartCardSimulator newCard) {
+        synchronized (this) {
+            card = newCard;
+            connected = false;
+        }
+        CardEventBroadcaster.getInstance().broadcastCardPresence(CardEventBroadcaster.PresenceEvent.CARD_INSERTED, name);
+    }
+
+    /** Take the card off the reader; the current connection fails on its next transmit. */
+    public void remove() {
+        synchronized (this) {
+            card = null;
+            connected = false;
+        }
+        CardEventBroadcaster.getInstance().broadcastCardPresence(CardEventBroadcaster.PresenceEvent.CARD_REMOVED, name);
+    }
+
+    public synchronized SmartCardSimulator card() {
+        return card;
+    }
+
+    @Override
+    public synchronized SimulatedCardTransport connectFirstPresentOrFirst() throws CardException {
+        if (card == null) {
+            throw new CardException("No card present in " + name);
+        }
+        card.powerUp();
+        connected = true;
+        return this;
+    }
+
+    @Override
+    public ResponseAPDU transmit(CommandAPDU apdu) throws CardException {
+        SmartCardSimulator target;
+        synchronized (this) {
+            if (!connected) {
+                throw new IllegalStateException("Not connected");
+            }
+            target = card;
+        }
+        simulateLatency();
+        synchronized (this) {
+            if (card != target || !connected) {
+                throw new CardException("Card removed from " + name);
+            }
+        }
+        return target.process(apdu);
+    }
+
+    private void simulateLatency() throws CardException {
+        long delay = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+        if (delay <= 0) return;
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CardException("Interrupted while waiting for the card");
+        }
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public boolean supportsExtendedLength() {
+        return true;
+    }
+
+    @Override
+    public String terminalName() {
+        return name;
+    }
+
+    @Override
+    public synchronized void close() {
+        connected = false;
+    }
+}
@@ -0,0 +1,422 @@
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+
+/**
+ * In-process port of the SmartCard applet (SmartCard.java): one virtual
+ * card with the same 80-byte image, PIN hash and retry counter, AES-128
+ * encrypted block (including DEBIT / CREDIT / CHECKIN), RSA-1024 key pair
+ * and avatar store, answering the same APDUs with the same status words.
+ *
+ * Differences that cannot be seen over APDUs: the RSA key pair is generated
+ * on first use instead of at install/reset (so thousands of blank cards are
+ * cheap), and SHA-256/AES come from the per-thread CryptoContext instead
+ * of being per card.
+ *
+ * Keep this class in step with SmartCard.java when the applet changes.
+ */
+public final class SmartCardSimulator {
+    private static final int OFFSET_USER_ID = 0;
+    private static final int OFFSET_BALANCE = 2;
+    private static final int ENC_BLOCK_LEN = 48;
+    private static final int OFFSET_PIN_RETRY = 50;
+    private static final int OFFSET_PIN_HASH = 51;
+
+    private static final int DATA_SIZE = 80;
+    private static final byte MAX_PIN_RETRY = 5;
+    private static final int PIN_HASH_SIZE = 16;
+    private static final int MAX_AVATAR_SIZE = 4096;
+
+    private static final int INS_SELECT = 0xA4;
+
+    // ISO7816 status words used by the applet
+    private static final int SW_OK = 0x9000;
+    private static final int SW_WRONG_LENGTH = 0x6700;
+    private static final int SW_SECURITY_STATUS_NOT_SATISFIED = 0x6982;
+    private static final int SW_PIN_BLOCKED = 0x6983;
+    private static final int SW_FILE_FULL = 0x6A84;
+    private static final int SW_FILE_NOT_FOUND = 0x6A82;
+    private static final int SW_WRONG_P1P2 = 0x6B00;
+    private static final int SW_WRONG_DATA = 0x6A80;
+    private static final int SW_INSUFFICIENT = 0x6985;
+    private static final int SW_INS_NOT_SUPPORTED = 0x6D00;
+    private static final int SW_UNKNOWN = 0x6F00;
+
+    /** Thrown by handlers to answer with a status word, like ISOException on the card. */
+    private static final class StatusWord extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int sw;
+
+        StatusWord(int sw) {
+            super(null, null, false, false);
+            this.sw = sw;
+        }
+    }
+
+    private final byte[] cardData = new byte[DATA_SIZE];
+    private final byte[] avatarStore = new byte[MAX_AVATAR_SIZE];
+    private int avatarLength;
+    /** length(2) + hash(8) recorded by AVATAR_COMMIT; zero when none. */
+    private final byte[] avatarInfo = new byte[2 + CardHelper.AVATAR_HASH_SIZE];
+    private KeyPair rsaKeyPair;
+    /** P-256 pair; the virtual chip always supports EC, so IDENTIFY reports EC. */
+    private KeyPair ecKeyPair;
+    /** Session state, cleared on reset/reselect like the applet's CLEAR_ON_DESELECT arrays. */
+    private byte[] aesKey;
+    private byte[] plainBlock;
+    private boolean pinVerified;
+    private boolean selected;
+
+    public SmartCardSimulator() {
+        cardData[OFFSET_PIN_RETRY] = MAX_PIN_RETRY;
+    }
+
+    /** Card reset (new connection): the applet is no longer selected. */
+    public synchronized void powerUp() {
+        selected = false;
+        endSession();
+    }
+
+    private void endSession() {
+        pinVerified = false;
+        aesKey = null;
+        plainBlock = null;
+    }
+
+    /** Process one command APDU as the card would. */
+    public synchronized ResponseAPDU process(CommandAPDU cmd) {
+        try {
+            byte[] out = dispatch(cmd);
+            return response(out, SW_OK);
+        } catch (StatusWord sw) {
+            return response(null, sw.sw);
+        } catch (GeneralSecurityException | RuntimeException ex) {
+            // Uncaught exception inside the applet
+            return response(null, SW_UNKNOWN);
+        }
+    }
+
+    private byte[] dispatch(CommandAPDU cmd) throws GeneralSecurityException {
+        if (cmd.getINS() == INS_SELECT && cmd.getP1() == 0x04) {
+            endSession();
+            selected = Arrays.equals(cmd.getData(), CardHelper.APPLET_AID);
+            if (!selected) throw new StatusWord(SW_FILE_NOT_FOUND);
+            return null;
+        }
+        if (!selected) throw new StatusWord(SW_INS_NOT_SUPPORTED);
+
+        switch ((byte) cmd.getINS()) {
+            case CardHelper.INS_READ:
+                return Arrays.copyOf(cardData, DATA_SIZE);
+            case CardHelper.INS_WRITE:
+                handleWrite(cmd.getData());
+                return null;
+            case CardHelper.INS_VERIFY_PIN:
+                return handleVerifyPin(cmd.getData());
+            case CardHelper.INS_CHANGE_PIN:
+                handleChangePin(cmd.getData());
+                return null;
+            case CardHelper.INS_GET_PUBLIC_KEY:
+                return handleGetPublicKey();
+            case CardHelper.INS_SIGN_CHALLENGE:
+                return handleSignChallenge(cmd.getData());
+            case CardHelper.INS_IDENTIFY:
+                return handleIdentify();
+            case CardHelper.INS_GET_EC_PUBLIC_KEY:
+                return ecPoint((ECPublicKey) ecKeyPair().getPublic());
+            case CardHelper.INS_EC_SIGN_CHALLENGE:
+                return handleEcSignChallenge(cmd.getData());
+            case CardHelper.INS_AVATAR_WRITE:
+                handleAvatarWrite((cmd.getP1() << 8) | cmd.getP2(), cmd.getData());
+                return null;
+            case CardHelper.INS_AVATAR_CLEAR:
+                Arrays.fill(avatarStore, 0, avatarLength, (byte) 0);
+                avatarLength = 0;
+                Arrays.fill(avatarInfo, (byte) 0);
+                return null;
+            case CardHelper.INS_AVATAR_INFO:
+                return avatarInfo.clone();
+            case CardHelper.INS_AVATAR_COMMIT:
+                handleAvatarCommit(cmd.getData());
+                return null;
+            case CardHelper.INS_AVATAR_READ:
+                return handleAvatarRead((cmd.getP1() << 8) | cmd.getP2(), cmd.getNe());
+            case CardHelper.INS_DEBIT:
+            case CardHelper.INS_CREDIT:
+            case CardHelper.INS_CHECKIN:
+                return handleBalanceUpdate((byte) cmd.getINS(), cmd.getData());
+            case CardHelper.INS_ADMIN_UNLOCK:
+                cardData[OFFSET_PIN_RETRY] = MAX_PIN_RETRY;
+                return null;
+            case CardHelper.INS_ADMIN_RESET_PIN:
+                handleAdminResetPin(cmd.getData());
+                return null;
+            default:
+                throw new StatusWord(SW_INS_NOT_SUPPORTED);
+        }
+    }
+
+    private void handleWrite(byte[] data) {
+        if (data.length != DATA_SIZE) throw new StatusWord(SW_WRONG_LENGTH);
+
+        boolean isBlankCard = cardData[OFFSET_USER_ID] == 0 && cardData[OFFSET_USER_ID + 1] == 0;
+        boolean isResetting = data[0] == 0 && data[1] == 0;
+        if (!isBlankCard && !pinVerified && !isResetting) {
+            throw new StatusWord(SW_SECURITY_STATUS_NOT_SATISFIED);
+        }
+
+        System.arraycopy(data, 0, cardData, 0, 2);
+        System.arraycopy(data, OFFSET_BALANCE, cardData, OFFSET_BALANCE, ENC_BLOCK_LEN);
+        cardData[OFFSET_PIN_RETRY] = data[OFFSET_PIN_RETRY];
+        System.arraycopy(data, OFFSET_PIN_HASH, cardData, OFFSET_PIN_HASH, PIN_HASH_SIZE);
+
+        // New RSA identity for a new or reset card (generated on first use)
+        if (isBlankCard || isResetting) {
+            rsaKeyPair = null;
+            ecKeyPair = null;
+        }
+        endSession();
+    }
+
+    private byte[] handleVerifyPin(byte[] pin) throws GeneralSecurityException {
+        if (pin.length != 6) throw new StatusWord(SW_WRONG_LENGTH);
+        if (cardData[OFFSET_PIN_RETRY] == 0) throw new StatusWord(SW_PIN_BLOCKED);
+
+        if (!pinMatches(pin)) {
+            cardData[OFFSET_PIN_RETRY]--;
+            endSession();
+            throw new StatusWord(0x63C0 | cardData[OFFSET_PIN_RETRY]);
+        }
+        cardData[OFFSET_PIN_RETRY] = MAX_PIN_RETRY;
+        if (!pinVerified) {
+            aesKey = deriveKey(pin);
+            plainBlock = aes(Cipher.DECRYPT_MODE, aesKey, cardData, OFFSET_BALANCE);
+            pinVerified = true;
+        }
+
+        byte[] out = Arrays.copyOf(cardData, DATA_SIZE);
+        System.arraycopy(plainBlock, 0, out, OFFSET_BALANCE, ENC_BLOCK_LEN);
+        return out;
+    }
+
+    private void handleChangePin(byte[] data) throws GeneralSecurityException {
+        if (!pinVerified) throw new StatusWord(SW_SECURITY_STATUS_NOT_SATISFIED);
+        if (data.length != 12) throw new StatusWord(SW_WRONG_LENGTH);
+        byte[] oldPin = Arrays.copyOfRange(data, 0, 6);
+        byte[] newPin = Arrays.copyOfRange(data, 6, 12);
+
+        if (!pinMatches(oldPin)) {
+            cardData[OFFSET_PIN_RETRY]--;
+            endSession();
+            throw new StatusWord(0x63C0 | cardData[OFFSET_PIN_RETRY]);
+        }
+
+        // Re-encrypt the session copy of the block with a key derived from the new PIN
+        aesKey = deriveKey(newPin);
+        byte[] enc = aes(Cipher.ENCRYPT_MODE, aesKey, plainBlock, 0);
+        System.arraycopy(enc, 0, cardData, OFFSET_BALANCE, ENC_BLOCK_LEN);
+        System.arraycopy(sha256(newPin), 0, cardData, OFFSET_PIN_HASH, PIN_HASH_SIZE);
+        // pinVerified stays true, as on the card
+    }
+
+    /** DEBIT / CREDIT / CHECKIN: see handleBalanceUpdate in SmartCard.java. */
+    private byte[] handleBalanceUpdate(byte ins, byte[] data) throws GeneralSecurityException {
+        if (!pinVerified) throw new StatusWord(SW_SECURITY_STATUS_NOT_SATISFIED);
+        int lc = data.length;
+        if ((ins == CardHelper.INS_DEBIT && lc != 4 && lc != 6)
+                || (ins == CardHelper.INS_CREDIT && lc != 4)
+                || (ins == CardHelper.INS_CHECKIN && lc != 0)) {
+            throw new StatusWord(SW_WRONG_LENGTH);
+        }
+
+        byte[] plain = plainBlock.clone();
+        long balance = readUInt32(plain, 0);
+        short expiry = (short) (((plain[4] & 0xFF) << 8) | (plain[5] & 0xFF));
+
+        if (ins == CardHelper.INS_DEBIT) {
+            long amount = readUInt32(data, 0);
+            if (amount > balance) throw new StatusWord(SW_INSUFFICIENT);
+            balance -= amount;
+            if (lc == 6) {
+                short addDays = (short) (((data[4] & 0xFF) << 8) | (data[5] & 0xFF));
+                short newExpiry = (short) (expiry + addDays);
+                if (addDays < 0 || newExpiry < expiry) throw new StatusWord(SW_WRONG_DATA);
+                expiry = newExpiry;
+            }
+        } else if (ins == CardHelper.INS_CREDIT) {
+            balance += readUInt32(data, 0);
+            if (balance > Integer.MAX_VALUE) throw new StatusWord(SW_WRONG_DATA);
+        } else {
+            if (expiry <= 0) throw new StatusWord(SW_INSUFFICIENT);
+            expiry--;
+        }
+
+        byte[] out = new byte[6];
+        out[0] = (byte) (balance >> 24);
+        out[1] = (byte) (balance >> 16);
+        out[2] = (byte) (balance >> 8);
+        out[3] = (byte) balance;
+        out[4] = (byte) (expiry >> 8);
+        out[5] = (byte) expiry;
+        System.arraycopy(out, 0, plain, 0, 6);
+        byte[] enc = aes(Cipher.ENCRYPT_MODE, aesKey, plain, 0);
+        System.arraycopy(enc, 0, cardData, OFFSET_BALANCE, ENC_BLOCK_LEN);
+        plainBlock = plain;
+        return out;
+    }
+
+    private byte[] handleGetPublicKey() throws GeneralSecurityException {
+        RSAPublicKey pub = (RSAPublicKey) rsaKeyPair().getPublic();
+        byte[] modulus = unsigned(pub.getModulus(), 128);
+        byte[] exponent = pub.getPublicExponent().toByteArray();
+        byte[] out = Arrays.copyOf(modulus, modulus.length + exponent.length);
+        System.arraycopy(exponent, 0, out, modulus.length, exponent.length);
+        return out;
+    }
+
+    private byte[] handleIdentify() throws GeneralSecurityException {
+        byte[] out = new byte[CardHelper.IDENTIFY_LENGTH];
+        System.arraycopy(cardData, OFFSET_USER_ID, out, 0, 2);
+        out[2] = cardData[OFFSET_PIN_RETRY];
+        byte[] w = ecPoint((ECPublicKey) ecKeyPair().getPublic());
+        System.arraycopy(sha256(w), 0, out, 3, CardHelper.KEY_FINGERPRINT_SIZE);
+        System.arraycopy(avatarInfo, 0, out, 3 + CardHelper.KEY_FINGERPRINT_SIZE, avatarInfo.length);
+        out[out.length - 1] = CardHelper.KEY_ALG_EC;
+        return out;
+    }
+
+    private byte[] handleEcSignChallenge(byte[] challenge) throws GeneralSecurityException {
+        if (challenge.length != 32) throw new StatusWord(SW_WRONG_LENGTH);
+        // ALG_ECDSA_SHA_256 on the card: DER-encoded signature
+        Signature signer = Signature.getInstance("SHA256withECDSA");
+        signer.initSign(ecKeyPair().getPrivate());
+        signer.update(challenge);
+        return signer.sign();
+    }
+
+    private byte[] handleSignChallenge(byte[] challenge) throws GeneralSecurityException {
+        if (challenge.length != 32) throw new StatusWord(SW_WRONG_LENGTH);
+        // ALG_RSA_SHA_PKCS1 on the card
+        Signature signer = Signature.getInstance("SHA1withRSA");
+        signer.initSign(rsaKeyPair().getPrivate());
+        signer.update(challenge);
+        return signer.sign();
+    }
+
+    private void handleAdminResetPin(byte[] pin) {
+        if (pin.length != 6) throw new StatusWord(SW_WRONG_LENGTH);
+        System.arraycopy(sha256(pin), 0, cardData, OFFSET_PIN_HASH, PIN_HASH_SIZE);
+        cardData[OFFSET_PIN_RETRY] = MAX_PIN_RETRY;
+        endSession();
+        // The encrypted block stays under the old PIN; the host rewrites it next
+    }
+
+    /** Short or extended chunk (the applet implements ExtendedLength). */
+    private void handleAvatarWrite(int offset, byte[] chunk) {
+        // P1/P2 is a signed short on the card: offsets >= 0x8000 are rejected there too
+        if (chunk.length == 0 || offset >= 0x8000) throw new StatusWord(SW_WRONG_LENGTH);
+        int end = offset + chunk.length;
+        if (end > MAX_AVATAR_SIZE) throw new StatusWord(SW_FILE_FULL);
+        avatarInfo[0] = 0;
+        avatarInfo[1] = 0;
+        System.arraycopy(chunk, 0, avatarStore, offset, chunk.length);
+        if (end > avatarLength) avatarLength = end;
+    }
+
+    private byte[] handleAvatarRead(int offset, int ne) {
+        if (offset >= avatarLength) throw new StatusWord(SW_WRONG_P1P2);
+        int len = avatarLength - offset;
+        if (ne > 0 && ne < len) len = ne;
+        return Arrays.copyOfRange(avatarStore, offset, offset + len);
+    }
+
+    private void handleAvatarCommit(byte[] info) {
+        if (info.length != avatarInfo.length) throw new StatusWord(SW_WRONG_LENGTH);
+        int length = ((info[0] & 0xFF) << 8) | (info[1] & 0xFF);
+        if (length == 0 || length >= 0x8000 || length != avatarLength) throw new StatusWord(SW_WRONG_DATA);
+        System.arraycopy(info, 0, avatarInfo, 0, info.length);
+    }
+
+    private boolean pinMatches(byte[] pin) {
+        byte[] hash = sha256(pin);
+        for (int i = 0; i < PIN_HASH_SIZE; i++) {
+            if (hash[i] != cardData[OFFSET_PIN_HASH + i]) return false;
+        }
+        return true;
+    }
+
+    private KeyPair ecKeyPair() throws GeneralSecurityException {
+        if (ecKeyPair == null) {
+            KeyPairGenerator gen = KeyPairGenerator.getInstance("EC");
+            gen.initialize(new ECGenParameterSpec("secp256r1"));
+            ecKeyPair = gen.generateKeyPair();
+        }
+        return ecKeyPair;
+    }
+
+    /** Uncompressed point 04 || X || Y, as ECPublicKey.getW on the card. */
+    private static byte[] ecPoint(ECPublicKey pub) {
+        byte[] out = new byte[CardHelper.EC_POINT_SIZE];
+        out[0] = 0x04;
+        System.arraycopy(unsigned(pub.getW().getAffineX(), 32), 0, out, 1, 32);
+        System.arraycopy(unsigned(pub.getW().getAffineY(), 32), 0, out, 33, 32);
+        return out;
+    }
+
+    private KeyPair rsaKeyPair() throws GeneralSecurityException {
+        if (rsaKeyPair == null) {
+            KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+            gen.initialize(1024);
+            rsaKeyPair = gen.generateKeyPair();
+        }
+        return rsaKeyPair;
+    }
+
+    /** AES-128 key of the block: first 16 bytes of SHA-256(PIN). */
+    private static byte[] deriveKey(byte[] pin) {
+        return Arrays.copyOf(sha256(pin), 16);
+    }
+
+    /** AES-128/ECB over the 48-byte block. */
+    private static byte[] aes(int mode, byte[] key, byte[] src, int offset) throws GeneralSecurityException {
+        Cipher cipher = CryptoContext.aesEcb();
+        cipher.init(mode, new SecretKeySpec(key, "AES"));
+        return cipher.doFinal(src, offset, ENC_BLOCK_LEN);
+    }
+
+    private static long readUInt32(byte[] b, int off) {
+        return ((long) (b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    private static byte[] sha256(byte[] data) {
+        return CryptoContext.sha256().digest(data);
+    }
+
+    private static byte[] unsigned(BigInteger value, int length) {
+        byte[] raw = value.toByteArray();
+        if (raw.length == length) return raw;
+        byte[] out = new byte[length];
+        int copy = Math.min(raw.length, length);
+        System.arraycopy(raw, raw.length - copy, out, length - copy, copy);
+        return out;
+    }
+
+    private static ResponseAPDU response(byte[] data, int sw) {
+        int len = data != null ? data.length : 0;
+        byte[] raw = new byte[len + 2];
+        if (len > 0) System.arraycopy(data, 0, raw, 0, len);
+        raw[len] = (byte) (sw >> 8);
+        raw[len + 1] = (byte) sw;
+        return new ResponseAPDU(raw);
+    }
+}
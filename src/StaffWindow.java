@@ -7,11 +7,11 @@ import java.awt.*;
 public class StaffWindow extends JFrame implements RoleSelectionPanel.RoleListener {
     private final RoleSelectionPanel rolePanel;
     private final FunctionPanel functionPanel;
-    private final PcscClient pcsc;
+    private final ReaderStation station;
 
-    public StaffWindow(PcscClient pcsc) {
-        this.pcsc = pcsc;
-        setTitle("ADMIN/NHÂN VIÊN - Quản Lý Thẻ GYM");
+    public StaffWindow(ReaderStation station) {
+        this.station = station;
+        setTitle("ADMIN/NHÂN VIÊN - Quản Lý Thẻ GYM [" + station.name() + "]");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(1100, 700);
         setLocationRelativeTo(null);
@@ -40,7 +40,7 @@ public class StaffWindow extends JFrame implements RoleSelectionPanel.RoleListen
 
         // Tạo 2 panel
         rolePanel = new RoleSelectionPanel(this);
-        functionPanel = new FunctionPanel(pcsc);
+        functionPanel = new FunctionPanel(station);
 
         // SplitPane: trái 280px, phải còn lại
         JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, rolePanel, functionPanel);
@@ -60,8 +60,8 @@ public class StaffWindow extends JFrame implements RoleSelectionPanel.RoleListen
 
     public static void main(String[] args) {
         try {
-            PcscClient pcsc = new PcscClient();
-            SwingUtilities.invokeLater(() -> new StaffWindow(pcsc));
+            ReaderStation station = ReaderRegistry.discover().forRole(ReaderRegistry.ROLE_STAFF);
+            SwingUtilities.invokeLater(() -> new StaffWindow(station));
         } catch (Exception e) {
             JOptionPane.showMessageDialog(null, "Lỗi: " + e.getMessage());
         }
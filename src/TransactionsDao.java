@@ -1,81 +1,102 @@
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class TransactionsDao {
-    private final String dbUrl;
+    private static final String INSERT_SQL =
+            "INSERT INTO transactions (member_id, type, amount, items, payment_method, created_at) VALUES (?,?,?,?,?,datetime('now','localtime'))";
+
+    private static final String SELECT_SQL =
+            "SELECT id, member_id, type, amount, items, payment_method, created_at FROM transactions";
+
+    private final DbConnectionPool pool;
 
     public TransactionsDao() {
-        this("jdbc:sqlite:members.db");
+        this(SchemaMigrations.DEFAULT_DB_URL);
     }
 
     public TransactionsDao(String dbUrl) {
-        this.dbUrl = dbUrl;
+        this.pool = DbConnectionPool.forUrl(dbUrl);
     }
 
-    private Connection getConnection() throws SQLException {
-        try {
-            Class.forName("org.sqlite.JDBC");
-        } catch (ClassNotFoundException ignored) {
-        }
-        Connection conn = DriverManager.getConnection(dbUrl);
-        try (Statement st = conn.createStatement()) {
-                st.executeUpdate("CREATE TABLE IF NOT EXISTS transactions (\n" +
-                    "  id INTEGER PRIMARY KEY AUTOINCREMENT,\n" +
-                    "  member_id INTEGER NOT NULL,\n" +
-                    "  type TEXT NOT NULL,\n" +
-                    "  amount INTEGER NOT NULL,\n" +
-                    "  items TEXT,\n" +
-                    "  payment_method TEXT,\n" +
-                    "  created_at TEXT DEFAULT (datetime('now','localtime')),\n" +
-                    "  FOREIGN KEY(member_id) REFERENCES members(id)\n" +
-                    ")");
-            st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_transactions_member ON transactions(member_id)");
-        }
-        return conn;
+    public void logTopup(int memberId, int amount, String paymentMethod) throws SQLException {
+        DbWriter.await(logTopupAsync(memberId, amount, paymentMethod));
     }
 
-    public void logTopup(int memberId, int amount, String paymentMethod) throws SQLException {
-        String sql = "INSERT INTO transactions (member_id, type, amount, items, payment_method, created_at) VALUES (?,?,?,?,?,datetime('now','localtime'))";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, memberId);
-            ps.setString(2, "TOPUP");
-            ps.setInt(3, amount);
-            ps.setString(4, null);
-            ps.setString(5, paymentMethod);
-            ps.executeUpdate();
-        }
+    public CompletableFuture<Integer> logTopupAsync(int memberId, int amount, String paymentMethod) {
+        return insert(memberId, "TOPUP", amount, null, paymentMethod);
     }
 
     public void logPurchase(int memberId, List<CardEventBroadcaster.CartItem> items, int totalPrice) throws SQLException {
-        String itemsJson = toItemsJson(items);
-        String sql = "INSERT INTO transactions (member_id, type, amount, items, payment_method, created_at) VALUES (?,?,?,?,?,datetime('now','localtime'))";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, memberId);
-            ps.setString(2, "PURCHASE");
-            ps.setInt(3, totalPrice);
-            ps.setString(4, itemsJson);
-            ps.setString(5, null);
-            ps.executeUpdate();
-        }
+        DbWriter.await(logPurchaseAsync(memberId, items, totalPrice));
+    }
+
+    public CompletableFuture<Integer> logPurchaseAsync(int memberId, List<CardEventBroadcaster.CartItem> items, int totalPrice) {
+        return insert(memberId, "PURCHASE", totalPrice, toItemsJson(items), null);
     }
 
     public void logRenew(int memberId, int daysAdded, int price) throws SQLException {
-        String sql = "INSERT INTO transactions (member_id, type, amount, items, payment_method, created_at) VALUES (?,?,?,?,?,datetime('now','localtime'))";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, memberId);
-            ps.setString(2, "RENEW");
-            ps.setInt(3, price);
-            ps.setString(4, "{\"daysAdded\":" + daysAdded + "}");
-            ps.setString(5, null);
-            ps.executeUpdate();
-        }
+        DbWriter.await(logRenewAsync(memberId, daysAdded, price));
+    }
+
+    public CompletableFuture<Integer> logRenewAsync(int memberId, int daysAdded, int price) {
+        return insert(memberId, "RENEW", price, renewItemsJson(daysAdded), null);
+    }
+
+    private CompletableFuture<Integer> insert(int memberId, String type, int amount, String items, String paymentMethod) {
+        return pool.writes().submit(conn -> insertTransaction(conn, memberId, type, amount, items, paymentMethod));
+    }
+
+    /**
+     * Insert a ledger row on an already-acquired writer connection, so it can
+     * share a transaction with other writes (see PaymentService).
+     */
+    static int insertTransaction(PooledConnection conn, int memberId, String type, int amount, String items, String paymentMethod) throws SQLException {
+        PreparedStatement ps = conn.prepare(INSERT_SQL);
+        ps.setInt(1, memberId);
+        ps.setString(2, type);
+        ps.setInt(3, amount);
+        ps.setString(4, items);
+        ps.setString(5, paymentMethod);
+        return ps.executeUpdate();
     }
 
     public List<TransactionRecord> getAll() throws SQLException {
-        String sql = "SELECT id, member_id, type, amount, items, payment_method, created_at FROM transactions ORDER BY id DESC";
+        return pool.read(conn -> readAll(conn.prepare(SELECT_SQL + " ORDER BY id DESC")));
+    }
+
+    public int count() throws SQLException {
+        return pool.read(conn -> {
+            try (ResultSet rs = conn.prepare("SELECT COUNT(*) FROM transactions").executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        });
+    }
+
+    /** Keyset page, newest first: rows with id < beforeId (null = latest page). */
+    public List<TransactionRecord> pageBefore(Integer beforeId, int limit) throws SQLException {
+        return pool.read(conn -> {
+            PreparedStatement ps = conn.prepare(SELECT_SQL + " WHERE id < ? ORDER BY id DESC LIMIT ?");
+            ps.setInt(1, beforeId != null ? beforeId : Integer.MAX_VALUE);
+            ps.setInt(2, limit);
+            return readAll(ps);
+        });
+    }
+
+    /** OFFSET page, newest first; only for jumps where no keyset boundary is known. */
+    public List<TransactionRecord> pageAtOffset(int offset, int limit) throws SQLException {
+        return pool.read(conn -> {
+            PreparedStatement ps = conn.prepare(SELECT_SQL + " ORDER BY id DESC LIMIT ? OFFSET ?");
+            ps.setInt(1, limit);
+            ps.setInt(2, offset);
+            return readAll(ps);
+        });
+    }
+
+    private List<TransactionRecord> readAll(PreparedStatement ps) throws SQLException {
         List<TransactionRecord> list = new ArrayList<>();
-        try (Connection conn = getConnection(); Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+        try (ResultSet rs = ps.executeQuery()) {
             while (rs.next()) {
                 TransactionRecord t = new TransactionRecord();
                 t.id = rs.getInt("id");
@@ -91,7 +112,11 @@ public class TransactionsDao {
         return list;
     }
 
-    private String toItemsJson(List<CardEventBroadcaster.CartItem> items) {
+    static String renewItemsJson(int daysAdded) {
+        return "{\"daysAdded\":" + daysAdded + "}";
+    }
+
+    static String toItemsJson(List<CardEventBroadcaster.CartItem> items) {
         StringBuilder sb = new StringBuilder();
         sb.append("[");
         for (int i = 0; i < items.size(); i++) {
@@ -1,14 +1,19 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.sql.SQLException;
 import java.util.List;
 
 /**
  * Dialog hiển thị lịch sử giao dịch toàn bộ người dùng.
+ * Rows are paged in on demand (KeysetTableModel), newest first.
  */
 public class TransactionsTableDialog extends JDialog {
+    private static final int PAGE_SIZE = 200;
+    private static final int MAX_PAGES = 10;
+
     private final TransactionsDao dao = new TransactionsDao();
-    private final DefaultTableModel model;
+    private final KeysetTableModel<TransactionRecord> model;
+    private final JLabel statusLabel = new JLabel(" ");
 
     public TransactionsTableDialog(Frame owner) {
         super(owner, "Lịch Sử Giao Dịch", true);
@@ -22,10 +27,34 @@ public class TransactionsTableDialog extends JDialog {
         top.add(refreshBtn);
         add(top, BorderLayout.NORTH);
 
-        model = new DefaultTableModel(new Object[]{
+        model = new KeysetTableModel<TransactionRecord>(new String[]{
             "ID", "Member ID", "Loại", "Số tiền", "Items", "Phương Thức", "Thời Gian"
-        }, 0) {
-            @Override public boolean isCellEditable(int r, int c) { return false; }
+        }, PAGE_SIZE, MAX_PAGES) {
+            @Override protected int fetchCount() throws SQLException { return dao.count(); }
+            @Override protected List<TransactionRecord> fetchAfter(Object afterKey, int limit) throws SQLException {
+                return dao.pageBefore((Integer) afterKey, limit);
+            }
+            @Override protected List<TransactionRecord> fetchAtOffset(int offset, int limit) throws SQLException {
+                return dao.pageAtOffset(offset, limit);
+            }
+            @Override protected Object keyOf(TransactionRecord t) { return t.id; }
+            @Override protected Object valueAt(TransactionRecord t, int column) {
+                switch (column) {
+                    case 0: return t.id;
+                    case 1: return t.memberId;
+                    case 2: return t.type;
+                    case 3: return t.amount;
+                    case 4: return t.items != null ? t.items : "";
+                    case 5: return t.paymentMethod != null ? t.paymentMethod : "";
+                    default: return t.createdAt;
+                }
+            }
+            @Override protected void onCountLoaded(int count) {
+                statusLabel.setText("Tổng: " + count + " giao dịch");
+            }
+            @Override protected void onLoadError(Exception ex) {
+                statusLabel.setText("❌ Lỗi tải lịch sử giao dịch: " + ex.getMessage());
+            }
         };
         JTable table = new JTable(model);
         table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
@@ -37,30 +66,13 @@ public class TransactionsTableDialog extends JDialog {
         table.getColumnModel().getColumn(5).setPreferredWidth(120);
         table.getColumnModel().getColumn(6).setPreferredWidth(150);
         add(new JScrollPane(table), BorderLayout.CENTER);
+        add(statusLabel, BorderLayout.SOUTH);
 
         reload();
     }
 
     private void reload() {
-        model.setRowCount(0);
-        try {
-            List<TransactionRecord> list = dao.getAll();
-            for (TransactionRecord t : list) {
-                model.addRow(new Object[]{
-                    t.id,
-                    t.memberId,
-                    t.type,
-                    t.amount,
-                    t.items != null ? t.items : "",
-                    t.paymentMethod != null ? t.paymentMethod : "",
-                    t.createdAt
-                });
-            }
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this,
-                "❌ Lỗi tải lịch sử giao dịch: " + ex.getMessage(),
-                "Lỗi",
-                JOptionPane.ERROR_MESSAGE);
-        }
+        statusLabel.setText("Đang tải...");
+        model.reload();
     }
 }